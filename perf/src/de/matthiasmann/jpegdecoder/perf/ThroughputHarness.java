@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder.perf;
+
+import de.matthiasmann.jpegdecoder.Component;
+import de.matthiasmann.jpegdecoder.JPEGDecoder;
+import de.matthiasmann.jpegdecoder.YUVDecoder;
+import de.matthiasmann.jpegdecoder.YUVtoARGB;
+import de.matthiasmann.jpegdecoder.YUVtoBGRA;
+import de.matthiasmann.jpegdecoder.YUVtoRGB;
+import de.matthiasmann.jpegdecoder.YUVtoRGB565;
+import de.matthiasmann.jpegdecoder.YUVtoRGBA;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.CRC32;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageOutputStream;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * End-to-end throughput harness. It generates a corpus of JPEGs, decodes them
+ * through every public decode path, checks the output against stored CRC32
+ * checksums and compares the throughput with a saved baseline.
+ *
+ * <p>Usage: {@code ThroughputHarness <mode> <golden> <baseline> <report> [threshold]}
+ * where mode is one of:</p><ul>
+ * <li>{@code check} - verify the checksums and compare with the baseline.
+ * When no baseline exists it is created.</li>
+ * <li>{@code baseline} - verify the checksums and save a new baseline</li>
+ * <li>{@code golden} - save new checksums</li>
+ * </ul>
+ *
+ * <p>The report is a CSV file with one line per image and decode path. The
+ * process exits with status 1 if a checksum does not match or the throughput
+ * of a path dropped by more than the threshold (default 0.15).</p>
+ *
+ * @author Matthias Mann
+ */
+public class ThroughputHarness {
+
+    private static final String JPEG_METADATA = "javax_imageio_jpeg_image_1.0";
+
+    private static final String[] PATHS = { "rgb", "rgba", "bgra", "argb", "rgb565", "raw", "dct" };
+
+    private static final ImageSpec[] CORPUS = {
+        new ImageSpec("yuv420", 1600, 1200, new int[][] {{2,2}, {1,1}, {1,1}}),
+        new ImageSpec("yuv422", 1600, 1200, new int[][] {{2,1}, {1,1}, {1,1}}),
+        new ImageSpec("yuv444", 1600, 1200, new int[][] {{1,1}, {1,1}, {1,1}}),
+        new ImageSpec("gray",   1600, 1200, null),
+    };
+
+    private static final int ROUNDS = 3;
+    private static final int MIN_ITERATIONS = 5;
+    private static final long MIN_TIME_NS = 300000000L;
+
+    private ThroughputHarness() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 4) {
+            System.err.println("Usage: ThroughputHarness <check|baseline|golden> <golden> <baseline> <report> [threshold]");
+            System.exit(2);
+        }
+
+        String mode = args[0];
+        File goldenFile = new File(args[1]);
+        File baselineFile = new File(args[2]);
+        File reportFile = new File(args[3]);
+        double threshold = (args.length > 4) ? Double.parseDouble(args[4]) : 0.15;
+
+        boolean updateGolden = "golden".equals(mode);
+        boolean updateBaseline = "baseline".equals(mode) || !baselineFile.exists();
+        if(!updateGolden && !updateBaseline && !"check".equals(mode)) {
+            System.err.println("Unknown mode: " + mode);
+            System.exit(2);
+        }
+
+        Properties golden = load(goldenFile, !updateGolden);
+        Properties baseline = updateBaseline ? new Properties() : load(baselineFile, true);
+        Properties newGolden = new Properties();
+        Properties newBaseline = new Properties();
+        ArrayList<String> report = new ArrayList<String>();
+        int failures = 0;
+
+        report.add("image,path,width,height,crc,expected_crc,mpixel_per_sec,baseline_mpixel_per_sec,ratio,status");
+
+        ArrayList<Run> runs = new ArrayList<Run>();
+        for(ImageSpec spec : CORPUS) {
+            byte[] jpeg = spec.createJPEG();
+            newGolden.setProperty(spec.name + ".input", crc(jpeg));
+            if(!updateGolden && !crc(jpeg).equals(golden.getProperty(spec.name + ".input"))) {
+                System.err.println(spec.name + ": the generated input differs from the golden file - " +
+                        "the checksums need to be updated with the perf-golden target");
+                failures++;
+                continue;
+            }
+
+            for(String path : PATHS) {
+                Run run = new Run(spec.name, jpeg, path);
+                if(run.isSupported()) {
+                    run.crc = run.decode();
+                    run.expectedCrc = updateGolden ? run.crc : golden.getProperty(run.key, "");
+                    newGolden.setProperty(run.key, run.crc);
+                    runs.add(run);
+                }
+            }
+        }
+
+        if(!updateGolden) {
+            // interleaved rounds even out the noise of other processes and the JIT
+            for(int round=0 ; round<ROUNDS ; round++) {
+                for(Run run : runs) {
+                    if(run.crc.equals(run.expectedCrc)) {
+                        run.mpps = Math.max(run.mpps, run.measure());
+                    }
+                }
+            }
+        }
+
+        for(Run run : runs) {
+            double baselineMpps = 0;
+            double ratio = 1;
+            String status = "OK";
+            if(!run.crc.equals(run.expectedCrc)) {
+                status = "CHECKSUM";
+                failures++;
+            } else if(!updateGolden) {
+                newBaseline.setProperty(run.key, Double.toString(run.mpps));
+                baselineMpps = Double.parseDouble(baseline.getProperty(run.key, "0"));
+                if(baselineMpps > 0) {
+                    ratio = run.mpps / baselineMpps;
+                }
+                if(!updateBaseline && ratio < 1 - threshold) {
+                    status = "SLOWER";
+                    failures++;
+                }
+            }
+
+            String line = String.format(Locale.US, "%s,%s,%d,%d,%s,%s,%.3f,%.3f,%.3f,%s",
+                    run.image, run.path, run.width, run.height, run.crc, run.expectedCrc,
+                    run.mpps, baselineMpps, ratio, status);
+            report.add(line);
+            System.out.println(line);
+        }
+
+        write(reportFile, report);
+        if(updateGolden) {
+            store(goldenFile, newGolden, "CRC32 checksums of the perf corpus and the decoded output");
+            System.out.println("Golden checksums written to " + goldenFile);
+        } else if(updateBaseline && failures == 0) {
+            store(baselineFile, newBaseline, "Throughput baseline in megapixels per second");
+            System.out.println("Baseline written to " + baselineFile);
+        }
+
+        if(failures > 0) {
+            System.err.println(failures + " check(s) failed - see " + reportFile);
+            System.exit(1);
+        }
+    }
+
+    private static String crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return Long.toHexString(crc.getValue());
+    }
+
+    private static Properties load(File file, boolean required) throws IOException {
+        Properties p = new Properties();
+        if(file.exists()) {
+            InputStream is = new FileInputStream(file);
+            try {
+                p.load(is);
+            } finally {
+                is.close();
+            }
+        } else if(required) {
+            throw new IOException("File not found: " + file);
+        }
+        return p;
+    }
+
+    /**
+     * Stores the properties sorted and without a time stamp to keep the diffs small
+     */
+    private static void store(File file, Properties p, String comment) throws IOException {
+        ArrayList<String> keys = new ArrayList<String>();
+        for(Object key : p.keySet()) {
+            keys.add((String)key);
+        }
+        Collections.sort(keys);
+
+        ArrayList<String> lines = new ArrayList<String>();
+        lines.add("# " + comment);
+        for(String key : keys) {
+            lines.add(key + "=" + p.getProperty(key));
+        }
+        write(file, lines);
+    }
+
+    private static void write(File file, ArrayList<String> lines) throws IOException {
+        mkdirs(file);
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            for(String line : lines) {
+                pw.println(line);
+            }
+        } finally {
+            pw.close();
+        }
+    }
+
+    private static void mkdirs(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if(dir != null) {
+            dir.mkdirs();
+        }
+    }
+
+    static class ImageSpec {
+        final String name;
+        final int width;
+        final int height;
+        final int[][] samplingFactors;
+
+        ImageSpec(String name, int width, int height, int[][] samplingFactors) {
+            this.name = name;
+            this.width = width;
+            this.height = height;
+            this.samplingFactors = samplingFactors;
+        }
+
+        /**
+         * Creates a deterministic photo like image with smooth areas, edges and noise
+         */
+        BufferedImage createImage() {
+            boolean gray = samplingFactors == null;
+            BufferedImage img = new BufferedImage(width, height,
+                    gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+            Random random = new Random(width * 31 + height);
+            for(int y=0 ; y<height ; y++) {
+                for(int x=0 ; x<width ; x++) {
+                    int r = (x * 255) / (width - 1);
+                    int g = (y * 255) / (height - 1);
+                    int b = (int)(128 + 100 * StrictMath.sin(x * 0.05) * StrictMath.cos(y * 0.07));
+                    if(((x >> 6) + (y >> 6) & 3) == 0) {
+                        b = 255 - b;
+                    }
+                    int noise = random.nextInt() & 0x0F0F0F;
+                    img.setRGB(x, y, ((r << 16) | (g << 8) | b) ^ noise);
+                }
+            }
+            return img;
+        }
+
+        byte[] createJPEG() throws IOException {
+            BufferedImage img = createImage();
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            try {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(0.85f);
+                IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(img), param);
+                if(samplingFactors != null) {
+                    Element root = (Element)metadata.getAsTree(JPEG_METADATA);
+                    NodeList specs = root.getElementsByTagName("componentSpec");
+                    for(int i=0 ; i<specs.getLength() ; i++) {
+                        Element componentSpec = (Element)specs.item(i);
+                        componentSpec.setAttribute("HsamplingFactor", Integer.toString(samplingFactors[i][0]));
+                        componentSpec.setAttribute("VsamplingFactor", Integer.toString(samplingFactors[i][1]));
+                    }
+                    metadata.setFromTree(JPEG_METADATA, root);
+                }
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ImageOutputStream ios = ImageIO.createImageOutputStream(baos);
+                try {
+                    writer.setOutput(ios);
+                    writer.write(null, new IIOImage(img, null, metadata), param);
+                } finally {
+                    ios.close();
+                }
+                return baos.toByteArray();
+            } finally {
+                writer.dispose();
+            }
+        }
+    }
+
+    /**
+     * Decodes one image through one decode path
+     */
+    static class Run {
+        final String image;
+        final byte[] jpeg;
+        final String path;
+        final String key;
+        final int numComponents;
+        final int width;
+        final int height;
+        YUVDecoder yuvDecoder;
+        int bytesPerPixel;
+        ByteBuffer rgb;
+        ByteBuffer[] raw;
+        ShortBuffer[] dct;
+        int[] strides;
+        String crc;
+        String expectedCrc;
+        double mpps;
+
+        Run(String image, byte[] jpeg, String path) throws IOException {
+            this.image = image;
+            this.jpeg = jpeg;
+            this.path = path;
+            this.key = image + "." + path;
+
+            JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+            decoder.decodeHeader();
+            numComponents = decoder.getNumComponents();
+            width = decoder.getImageWidth();
+            height = decoder.getImageHeight();
+
+            if("rgb".equals(path)) {
+                yuvDecoder = YUVtoRGB.instance;
+                bytesPerPixel = 3;
+            } else if("rgba".equals(path)) {
+                yuvDecoder = YUVtoRGBA.instance;
+                bytesPerPixel = 4;
+            } else if("bgra".equals(path)) {
+                yuvDecoder = YUVtoBGRA.instance;
+                bytesPerPixel = 4;
+            } else if("argb".equals(path)) {
+                yuvDecoder = YUVtoARGB.instance;
+                bytesPerPixel = 4;
+            } else if("rgb565".equals(path)) {
+                yuvDecoder = YUVtoRGB565.instance;
+                bytesPerPixel = 2;
+            }
+
+            if(yuvDecoder != null) {
+                rgb = ByteBuffer.allocateDirect(width * height * bytesPerPixel);
+            } else {
+                raw = new ByteBuffer[numComponents];
+                dct = new ShortBuffer[numComponents];
+                strides = new int[numComponents];
+                for(int i=0 ; i<numComponents ; i++) {
+                    Component c = decoder.getComponent(i);
+                    strides[i] = c.getMinReqWidth();
+                    if("raw".equals(path)) {
+                        raw[i] = ByteBuffer.allocateDirect(c.getMinReqWidth() * c.getMinReqHeight());
+                    } else {
+                        dct[i] = ShortBuffer.allocate(c.getMinReqWidth() * c.getMinReqHeight());
+                    }
+                }
+            }
+        }
+
+        boolean isSupported() {
+            return rgb == null || numComponents == 3;
+        }
+
+        void run() throws IOException {
+            JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+            if(!decoder.startDecode()) {
+                throw new IOException("no image data");
+            }
+            int rows = decoder.getNumMCURows();
+            if(yuvDecoder != null) {
+                rgb.clear();
+                decoder.decode(rgb, width * bytesPerPixel, rows, yuvDecoder);
+            } else if("raw".equals(path)) {
+                for(ByteBuffer bb : raw) {
+                    bb.clear();
+                }
+                decoder.decodeRAW(raw, strides, rows);
+            } else {
+                for(ShortBuffer sb : dct) {
+                    sb.clear();
+                }
+                decoder.decodeDCTCoeffs(dct, rows);
+            }
+        }
+
+        String decode() throws IOException {
+            run();
+            CRC32 crc = new CRC32();
+            if(rgb != null) {
+                rgb.flip();
+                update(crc, rgb);
+            } else if("raw".equals(path)) {
+                for(ByteBuffer bb : raw) {
+                    bb.clear();
+                    update(crc, bb);
+                }
+            } else {
+                for(ShortBuffer sb : dct) {
+                    sb.clear();
+                    while(sb.hasRemaining()) {
+                        short s = sb.get();
+                        crc.update(s >> 8);
+                        crc.update(s);
+                    }
+                }
+            }
+            return Long.toHexString(crc.getValue());
+        }
+
+        /**
+         * Runs the decode repeatedly and returns the best throughput
+         *
+         * @return the megapixels per second
+         */
+        double measure() throws IOException {
+            // warm up
+            for(int i=0 ; i<MIN_ITERATIONS ; i++) {
+                run();
+            }
+
+            long best = Long.MAX_VALUE;
+            long total = 0;
+            for(int i=0 ; i<MIN_ITERATIONS || total < MIN_TIME_NS ; i++) {
+                long start = System.nanoTime();
+                run();
+                long time = System.nanoTime() - start;
+                best = Math.min(best, time);
+                total += time;
+            }
+            return width * (double)height * 1e3 / best;
+        }
+
+        private static void update(CRC32 crc, ByteBuffer bb) {
+            byte[] tmp = new byte[4096];
+            while(bb.hasRemaining()) {
+                int len = Math.min(tmp.length, bb.remaining());
+                bb.get(tmp, 0, len);
+                crc.update(tmp, 0, len);
+            }
+        }
+    }
+}
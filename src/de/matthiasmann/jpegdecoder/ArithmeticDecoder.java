@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * QM-coder entropy decoder for sequential arithmetic coded JPEGs (SOF9)
+ *
+ * @author Matthias Mann
+ */
+final class ArithmeticDecoder {
+
+    static final int DC_STAT_BINS = 64;
+    static final int AC_STAT_BINS = 256;
+
+    /**
+     * Table D.2: Qe value in bits 16-31, next index after MPS in bits 8-15,
+     * switch MPS flag in bit 7 and next index after LPS in bits 0-6.
+     * Entry 113 is a fixed probability used for the AC sign.
+     */
+    static final int[] QE_TABLE = {
+        entry(0x5a1d,   1,   1, 1), entry(0x2586,  14,   2, 0), entry(0x1114,  16,   3, 0), entry(0x080b,  18,   4, 0),
+        entry(0x03d8,  20,   5, 0), entry(0x01da,  23,   6, 0), entry(0x00e5,  25,   7, 0), entry(0x006f,  28,   8, 0),
+        entry(0x0036,  30,   9, 0), entry(0x001a,  33,  10, 0), entry(0x000d,  35,  11, 0), entry(0x0006,   9,  12, 0),
+        entry(0x0003,  10,  13, 0), entry(0x0001,  12,  13, 0), entry(0x5a7f,  15,  15, 1), entry(0x3f25,  36,  16, 0),
+        entry(0x2cf2,  38,  17, 0), entry(0x207c,  39,  18, 0), entry(0x17b9,  40,  19, 0), entry(0x1182,  42,  20, 0),
+        entry(0x0cef,  43,  21, 0), entry(0x09a1,  45,  22, 0), entry(0x072f,  46,  23, 0), entry(0x055c,  48,  24, 0),
+        entry(0x0406,  49,  25, 0), entry(0x0303,  51,  26, 0), entry(0x0240,  52,  27, 0), entry(0x01b1,  54,  28, 0),
+        entry(0x0144,  56,  29, 0), entry(0x00f5,  57,  30, 0), entry(0x00b7,  59,  31, 0), entry(0x008a,  60,  32, 0),
+        entry(0x0068,  62,  33, 0), entry(0x004e,  63,  34, 0), entry(0x003b,  32,  35, 0), entry(0x002c,  33,   9, 0),
+        entry(0x5ae1,  37,  37, 1), entry(0x484c,  64,  38, 0), entry(0x3a0d,  65,  39, 0), entry(0x2ef1,  67,  40, 0),
+        entry(0x261f,  68,  41, 0), entry(0x1f33,  69,  42, 0), entry(0x19a8,  70,  43, 0), entry(0x1518,  72,  44, 0),
+        entry(0x1177,  73,  45, 0), entry(0x0e74,  74,  46, 0), entry(0x0bfb,  75,  47, 0), entry(0x09f8,  77,  48, 0),
+        entry(0x0861,  78,  49, 0), entry(0x0706,  79,  50, 0), entry(0x05cd,  48,  51, 0), entry(0x04de,  50,  52, 0),
+        entry(0x040f,  50,  53, 0), entry(0x0363,  51,  54, 0), entry(0x02d4,  52,  55, 0), entry(0x025c,  53,  56, 0),
+        entry(0x01f8,  54,  57, 0), entry(0x01a4,  55,  58, 0), entry(0x0160,  56,  59, 0), entry(0x0125,  57,  60, 0),
+        entry(0x00f6,  58,  61, 0), entry(0x00cb,  59,  62, 0), entry(0x00ab,  61,  63, 0), entry(0x008f,  61,  32, 0),
+        entry(0x5b12,  65,  65, 1), entry(0x4d04,  80,  66, 0), entry(0x412c,  81,  67, 0), entry(0x37d8,  82,  68, 0),
+        entry(0x2fe8,  83,  69, 0), entry(0x293c,  84,  70, 0), entry(0x2379,  86,  71, 0), entry(0x1edf,  87,  72, 0),
+        entry(0x1aa9,  87,  73, 0), entry(0x174e,  72,  74, 0), entry(0x1424,  72,  75, 0), entry(0x119c,  74,  76, 0),
+        entry(0x0f6b,  74,  77, 0), entry(0x0d51,  75,  78, 0), entry(0x0bb6,  77,  79, 0), entry(0x0a40,  77,  48, 0),
+        entry(0x5832,  80,  81, 1), entry(0x4d1c,  88,  82, 0), entry(0x438e,  89,  83, 0), entry(0x3bdd,  90,  84, 0),
+        entry(0x34ee,  91,  85, 0), entry(0x2eae,  92,  86, 0), entry(0x299a,  93,  87, 0), entry(0x2516,  86,  71, 0),
+        entry(0x5570,  88,  89, 1), entry(0x4ca9,  95,  90, 0), entry(0x44d9,  96,  91, 0), entry(0x3e22,  97,  92, 0),
+        entry(0x3824,  99,  93, 0), entry(0x32b4,  99,  94, 0), entry(0x2e17,  93,  86, 0), entry(0x56a8,  95,  96, 1),
+        entry(0x4f46, 101,  97, 0), entry(0x47e5, 102,  98, 0), entry(0x41cf, 103,  99, 0), entry(0x3c3d, 104, 100, 0),
+        entry(0x375e,  99,  93, 0), entry(0x5231, 105, 102, 0), entry(0x4c0f, 106, 103, 0), entry(0x4639, 107, 104, 0),
+        entry(0x415e, 103,  99, 0), entry(0x5627, 105, 106, 1), entry(0x50e7, 108, 107, 0), entry(0x4b85, 109, 103, 0),
+        entry(0x5597, 110, 109, 0), entry(0x504f, 111, 107, 0), entry(0x5a10, 110, 111, 1), entry(0x5522, 112, 109, 0),
+        entry(0x59eb, 112, 111, 1), entry(0x5a1d, 113, 113, 0)
+    };
+
+    private static int entry(int qe, int nextLPS, int nextMPS, int switchMPS) {
+        return (qe << 16) | (nextMPS << 8) | (switchMPS << 7) | nextLPS;
+    }
+
+    private final JPEGDecoder input;
+    private final byte[][] dcStats;
+    private final byte[][] acStats;
+    private final byte[] fixedBin;
+    private final int[] dcL;
+    private final int[] dcU;
+    private final int[] acK;
+
+    private int c;
+    private int a;
+    private int ct;
+    private int marker;
+
+    ArithmeticDecoder(JPEGDecoder input) {
+        this.input = input;
+        this.dcStats = new byte[4][DC_STAT_BINS];
+        this.acStats = new byte[4][AC_STAT_BINS];
+        this.fixedBin = new byte[1];
+        this.dcL = new int[4];
+        this.dcU = new int[4];
+        this.acK = new int[4];
+        setDefaultConditioning();
+    }
+
+    /**
+     * Restores the default conditioning parameters L=0, U=1 and Kx=5
+     */
+    void setDefaultConditioning() {
+        Arrays.fill(dcL, 0);
+        Arrays.fill(dcU, 1);
+        Arrays.fill(acK, 5);
+    }
+
+    void setDCConditioning(int table, int l, int u) throws IOException {
+        if(l > u) {
+            throw new IOException("bad DAC value");
+        }
+        dcL[table] = l;
+        dcU[table] = u;
+    }
+
+    void setACConditioning(int table, int k) throws IOException {
+        if(k < 1 || k > 63) {
+            throw new IOException("bad DAC value");
+        }
+        acK[table] = k;
+    }
+
+    /**
+     * Resets the decoder at the start of a scan or after a restart marker.
+     *
+     * @param order the components of the scan
+     */
+    void reset(Component[] order) {
+        for(Component comp : order) {
+            Arrays.fill(dcStats[comp.arithDCTable], (byte)0);
+            Arrays.fill(acStats[comp.arithACTable], (byte)0);
+            comp.arithDCContext = 0;
+        }
+        fixedBin[0] = 113;
+        c = 0;
+        a = 0;
+        ct = -16;   // force reading 2 initial bytes to fill C
+        marker = JPEGDecoder.MARKER_NONE;
+    }
+
+    /**
+     * Returns the marker which has been reached by the decoder and clears it.
+     * A marker inside the arithmetic coded data only terminates the data
+     * segment, the remaining decisions are decoded from zero bits.
+     *
+     * @return the marker or {@link JPEGDecoder#MARKER_NONE}
+     */
+    int takeMarker() {
+        int m = marker;
+        marker = JPEGDecoder.MARKER_NONE;
+        return m;
+    }
+
+    /**
+     * Decodes one 8x8 block
+     *
+     * @param data the dequantized coefficients in natural order, must be cleared by the caller
+     * @param comp the component of this block
+     * @return false if the data is corrupt
+     * @throws IOException if an IO error occurred
+     */
+    boolean decodeBlock(short[] data, Component comp) throws IOException {
+        final byte[] dq = comp.dequant;
+
+        {
+            final byte[] stats = dcStats[comp.arithDCTable];
+            int st = comp.arithDCContext;
+            if(decode(stats, st) == 0) {
+                comp.arithDCContext = 0;
+            } else {
+                int sign = decode(stats, st + 1);
+                st += 2 + sign;
+                int m = decode(stats, st);
+                if(m != 0) {
+                    st = 20;
+                    while(decode(stats, st) != 0) {
+                        if((m <<= 1) == 0x8000) {
+                            return false;
+                        }
+                        st++;
+                    }
+                }
+                if(m < ((1 << dcL[comp.arithDCTable]) >> 1)) {
+                    comp.arithDCContext = 0;
+                } else if(m > ((1 << dcU[comp.arithDCTable]) >> 1)) {
+                    comp.arithDCContext = 12 + sign * 4;
+                } else {
+                    comp.arithDCContext = 4 + sign * 4;
+                }
+                int v = m;
+                st += 14;
+                while((m >>= 1) != 0) {
+                    if(decode(stats, st) != 0) {
+                        v |= m;
+                    }
+                }
+                v += 1;
+                if(sign != 0) {
+                    v = -v;
+                }
+                comp.dcPred += v;
+            }
+            data[0] = (short)(comp.dcPred * (dq[0] & 0xFF));
+        }
+
+        final byte[] stats = acStats[comp.arithACTable];
+        final int kx = acK[comp.arithACTable];
+        int k = 0;
+        do {
+            int st = 3 * k;
+            if(decode(stats, st) != 0) {
+                break;  // EOB
+            }
+            for(;;) {
+                k++;
+                if(decode(stats, st + 1) != 0) {
+                    break;
+                }
+                st += 3;
+                if(k >= 63) {
+                    return false;
+                }
+            }
+            int sign = decode(fixedBin, 0);
+            st += 2;
+            int m = decode(stats, st);
+            if(m != 0) {
+                if(decode(stats, st) != 0) {
+                    m <<= 1;
+                    st = (k <= kx) ? 189 : 217;
+                    while(decode(stats, st) != 0) {
+                        if((m <<= 1) == 0x8000) {
+                            return false;
+                        }
+                        st++;
+                    }
+                }
+            }
+            int v = m;
+            st += 14;
+            while((m >>= 1) != 0) {
+                if(decode(stats, st) != 0) {
+                    v |= m;
+                }
+            }
+            v += 1;
+            if(sign != 0) {
+                v = -v;
+            }
+            data[JPEGDecoder.dezigzag[k]] = (short)(v * (dq[k] & 0xFF));
+        } while(k < 63);
+
+        return true;
+    }
+
+    /**
+     * Decodes one binary decision
+     *
+     * @param stats the statistics bins
+     * @param idx the index of the bin for this decision
+     * @return the decoded bit
+     */
+    private int decode(byte[] stats, int idx) throws IOException {
+        // renormalization & data input per section D.2.6
+        while(a < 0x8000) {
+            if(--ct < 0) {
+                int data = 0;
+                if(marker == JPEGDecoder.MARKER_NONE) {
+                    data = input.getU8();
+                    if(data == 0xFF) {
+                        do {
+                            data = input.getU8();
+                        } while(data == 0xFF);
+                        if(data == 0) {
+                            data = 0xFF;    // stuffed zero byte
+                        } else {
+                            marker = data;
+                            data = 0;
+                        }
+                    }
+                }
+                c = (c << 8) | data;
+                if((ct += 8) < 0) {
+                    if(++ct == 0) {
+                        // got 2 initial bytes
+                        a = 0x8000;
+                    }
+                }
+            }
+            a <<= 1;
+        }
+
+        int sv = stats[idx] & 255;
+        int qe = QE_TABLE[sv & 0x7F];
+        int nl = qe & 0xFF;
+        int nm = (qe >> 8) & 0xFF;
+        qe >>>= 16;
+
+        // decode & estimation procedures per sections D.2.4 & D.2.5
+        int temp = a - qe;
+        a = temp;
+        temp <<= ct;
+        if(c >= temp) {
+            c -= temp;
+            if(a < qe) {
+                a = qe;
+                stats[idx] = (byte)((sv & 0x80) ^ nm);
+            } else {
+                a = qe;
+                stats[idx] = (byte)((sv & 0x80) ^ nl);
+                sv ^= 0x80;
+            }
+        } else if(a < 0x8000) {
+            if(a < qe) {
+                stats[idx] = (byte)((sv & 0x80) ^ nl);
+                sv ^= 0x80;
+            } else {
+                stats[idx] = (byte)((sv & 0x80) ^ nm);
+            }
+        }
+
+        return sv >> 7;
+    }
+}
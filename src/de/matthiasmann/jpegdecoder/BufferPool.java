@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * A thread safe pool of heap or direct ByteBuffers for decoded images.
+ *
+ * <p>Buffer sizes are rounded up to size classes - 4 classes for each
+ * power of two, so at most 25% of a buffer is unused. Released buffers are
+ * kept up to the configured number of bytes and are handed out again for
+ * requests of the same size class.</p>
+ *
+ * @author Matthias Mann
+ * @see JPEGDecoder#decodeImage(de.matthiasmann.jpegdecoder.BufferPool, de.matthiasmann.jpegdecoder.YUVDecoder, int) 
+ */
+public class BufferPool {
+
+    static final int MIN_SHIFT = 12;
+    static final int MIN_SIZE = 1 << MIN_SHIFT;
+    static final int MAX_SIZE = 1 << 30;
+    static final int NUM_CLASSES = 1 + (30 - MIN_SHIFT) * 4;
+
+    private final boolean direct;
+    private final long maxPooledBytes;
+    private final ArrayList<ArrayList<ByteBuffer>> free;
+
+    private long pooledBytes;
+    private long hits;
+    private long misses;
+    private long discarded;
+
+    /**
+     * Creates a new buffer pool.
+     *
+     * @param direct true if direct buffers should be allocated
+     * @param maxPooledBytes the maximum number of bytes kept in released buffers
+     * @throws IllegalArgumentException if maxPooledBytes is negative
+     */
+    public BufferPool(boolean direct, long maxPooledBytes) {
+        if(maxPooledBytes < 0) {
+            throw new IllegalArgumentException("maxPooledBytes");
+        }
+        this.direct = direct;
+        this.maxPooledBytes = maxPooledBytes;
+        this.free = new ArrayList<ArrayList<ByteBuffer>>(NUM_CLASSES);
+        for(int i=0 ; i<NUM_CLASSES ; i++) {
+            free.add(new ArrayList<ByteBuffer>());
+        }
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    /**
+     * Returns a buffer with at least the requested size. The position is 0,
+     * the limit is the requested size and the byte order is big endian.
+     * The content of the buffer is undefined.
+     *
+     * @param size the required size in bytes
+     * @return a ByteBuffer from the pool or a newly allocated one
+     * @throws IllegalArgumentException if size is negative
+     */
+    public ByteBuffer acquire(int size) {
+        if(size < 0) {
+            throw new IllegalArgumentException("size");
+        }
+        ByteBuffer buffer = null;
+        if(size <= MAX_SIZE) {
+            final int classIdx = classIndex(size);
+            synchronized(this) {
+                ArrayList<ByteBuffer> list = free.get(classIdx);
+                if(list.isEmpty()) {
+                    misses++;
+                } else {
+                    buffer = list.remove(list.size() - 1);
+                    pooledBytes -= buffer.capacity();
+                    hits++;
+                }
+            }
+            if(buffer == null) {
+                buffer = allocate(classSize(size));
+            }
+        } else {
+            synchronized(this) {
+                misses++;
+            }
+            buffer = allocate(size);
+        }
+        buffer.clear().limit(size);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used after this
+     * call. Buffers which don't belong to a size class of this pool or which
+     * exceed the byte limit are left to the garbage collector.
+     *
+     * @param buffer the buffer returned by {@link #acquire(int) }
+     * @throws IllegalStateException if the buffer is already in the pool
+     */
+    public void release(ByteBuffer buffer) {
+        final int capacity = buffer.capacity();
+        final boolean valid = buffer.isDirect() == direct && !buffer.isReadOnly() &&
+                capacity <= MAX_SIZE && classSize(capacity) == capacity;
+        synchronized(this) {
+            ArrayList<ByteBuffer> list = valid ? free.get(classIndex(capacity)) : null;
+            if(list != null) {
+                for(int i=0,n=list.size() ; i<n ; i++) {
+                    if(list.get(i) == buffer) {
+                        throw new IllegalStateException("buffer already released");
+                    }
+                }
+            }
+            if(list != null && pooledBytes + capacity <= maxPooledBytes) {
+                list.add(buffer);
+                pooledBytes += capacity;
+            } else {
+                discarded++;
+            }
+        }
+    }
+
+    /**
+     * Removes all buffers from the pool.
+     */
+    public synchronized void clear() {
+        for(ArrayList<ByteBuffer> list : free) {
+            list.clear();
+        }
+        pooledBytes = 0;
+    }
+
+    /**
+     * Returns the number of bytes in released buffers which are kept in the pool.
+     * @return the number of pooled bytes
+     */
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    /**
+     * Returns the number of {@link #acquire(int) } calls which reused a buffer.
+     * @return the number of pool hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of {@link #acquire(int) } calls which allocated a new buffer.
+     * @return the number of pool misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of released buffers which were not kept.
+     * @return the number of discarded buffers
+     */
+    public synchronized long getDiscarded() {
+        return discarded;
+    }
+
+    private ByteBuffer allocate(int size) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    /**
+     * Rounds the size up to the next size class. Above {@link #MIN_SIZE}
+     * each power of two is split into 4 classes.
+     *
+     * @param size the size in bytes up to {@link #MAX_SIZE}
+     * @return the size of the size class
+     */
+    static int classSize(int size) {
+        if(size <= MIN_SIZE) {
+            return MIN_SIZE;
+        }
+        int step = 1 << (29 - Integer.numberOfLeadingZeros(size - 1));
+        return (size + step - 1) & -step;
+    }
+
+    static int classIndex(int size) {
+        if(size <= MIN_SIZE) {
+            return 0;
+        }
+        int c = classSize(size) - 1;
+        int highBit = 31 - Integer.numberOfLeadingZeros(c);
+        return 1 + (highBit - MIN_SHIFT) * 4 + (c >> (highBit - 2)) - 4;
+    }
+}
@@ -40,6 +40,9 @@ public class Component {
     int dcPred;
     Huffman huffDC;
     Huffman huffAC;
+    int arithDCTable;
+    int arithACTable;
+    int arithDCContext;
     byte[] dequant;
     int blocksPerMCUVert;
     int blocksPerMCUHorz;
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+/**
+ * Receives notifications about the progress of a {@link JPEGDecoder}.
+ *
+ * <p>All methods are called on the decoding thread. The default implementations
+ * do nothing, so only the events of interest need to be overridden. This can
+ * be used to emit profiling events (eg JFR events) - the image properties can
+ * be queried from the decoder passed to each method.</p>
+ *
+ * <p>When no listener is set the decoder does not measure any timings.</p>
+ *
+ * @author Matthias Mann
+ * @see JPEGDecoder#setDecodeListener(de.matthiasmann.jpegdecoder.DecodeListener) 
+ */
+public abstract class DecodeListener {
+
+    /**
+     * The decode methods which report their progress
+     */
+    public enum Operation {
+        DECODE,
+        DECODE_RAW,
+        DECODE_DCT_COEFFS,
+        DECODE_I420,
+        DECODE_NV12,
+        DECODE_FINGERPRINT,
+        DECODE_LUMA,
+        DECODE_SPARSE_COEFFS,
+        DECODE_TENSOR
+    }
+
+    /**
+     * Called after the JPEG header up to and including the SOF has been parsed.
+     *
+     * @param decoder the decoder
+     * @param bytesConsumed the number of bytes consumed from the input so far
+     * @param durationNanos the time spent parsing the header
+     */
+    public void headerDecoded(JPEGDecoder decoder, long bytesConsumed, long durationNanos) {
+    }
+
+    /**
+     * Called when a SOS has been parsed and the image data is about to be decoded.
+     *
+     * @param decoder the decoder
+     * @param numScanComponents the number of color components in this scan
+     * @param bytesConsumed the number of bytes consumed from the input so far
+     * @param durationNanos the time spent to locate and parse the scan header
+     */
+    public void scanStarted(JPEGDecoder decoder, int numScanComponents, long bytesConsumed, long durationNanos) {
+    }
+
+    /**
+     * Called at the end of each decode call.
+     *
+     * @param decoder the decoder
+     * @param op the decode method which was called
+     * @param numMCURows the number of MCU rows which have been decoded
+     * @param bytesConsumed the number of bytes consumed from the input so far
+     * @param durationNanos the time spent in the decode method
+     */
+    public void rowsDecoded(JPEGDecoder decoder, Operation op, int numMCURows, long bytesConsumed, long durationNanos) {
+    }
+
+    /**
+     * Called when the decoder synchronized with a restart marker.
+     *
+     * @param decoder the decoder
+     * @param marker the restart marker (0xD0 to 0xD7)
+     * @param mcuRow the MCU row which is decoded
+     * @param bytesConsumed the number of bytes consumed from the input so far
+     */
+    public void restartMarker(JPEGDecoder decoder, int marker, int mcuRow, long bytesConsumed) {
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fully decoded image held in memory.
+ *
+ * @author Matthias Mann
+ * @see DecodedImageCache
+ * @see JPEGDecoder#decodeImage(de.matthiasmann.jpegdecoder.BufferPool, de.matthiasmann.jpegdecoder.YUVDecoder, int) 
+ */
+public final class DecodedImage {
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final int bytesPerPixel;
+    private final int sizeInBytes;
+    private ByteBuffer data;
+    private BufferPool pool;
+
+    DecodedImage(int width, int height, int stride, int bytesPerPixel, ByteBuffer data) {
+        this(width, height, stride, bytesPerPixel, data, null);
+    }
+
+    DecodedImage(int width, int height, int stride, int bytesPerPixel, ByteBuffer data, BufferPool pool) {
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+        this.bytesPerPixel = bytesPerPixel;
+        this.sizeInBytes = data.remaining();
+        this.data = data;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the width of the decoded image. For the EXIF orientations 5 to 8
+     * this is the height of the JPEG image.
+     * @return the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the decoded image.
+     * @return the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the distance in bytes between the start of two lines.
+     * @return the stride in bytes
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Returns the number of bytes of each pixel.
+     * @return the number of bytes per pixel
+     */
+    public int getBytesPerPixel() {
+        return bytesPerPixel;
+    }
+
+    /**
+     * Returns the number of bytes used by the pixel data.
+     * @return the size of the pixel data in bytes
+     */
+    public int getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * Returns a view of the pixel data. Each call returns a new view with
+     * its own position and limit. Images from a {@link DecodedImageCache}
+     * are shared and return a read only view.
+     * @return a ByteBuffer with the pixel data
+     * @throws IllegalStateException if the image has been released
+     */
+    public ByteBuffer getData() {
+        if(data == null) {
+            throw new IllegalStateException("image has been released");
+        }
+        return data.duplicate();
+    }
+
+    /**
+     * Returns the pixel buffer to the {@link BufferPool} it was taken from.
+     * The image and all views returned by {@link #getData() } must not be
+     * used after this call. Does nothing for images which are not pooled.
+     */
+    public void release() {
+        if(pool != null) {
+            pool.release(data);
+            pool = null;
+            data = null;
+        }
+    }
+}
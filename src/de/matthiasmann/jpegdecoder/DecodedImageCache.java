@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A thread safe cache of decoded images.
+ *
+ * <p>Images are identified by a SHA-1 hash of the JPEG data, an optional
+ * source identity and the decode {@link Params}. The least recently used
+ * images are evicted when the pixel data of all cached images exceeds the
+ * byte budget.</p>
+ *
+ * <p>When several threads request the same image at the same time only
+ * the first one decodes it, the other threads wait for its result.</p>
+ *
+ * @author Matthias Mann
+ */
+public class DecodedImageCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private long currentBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxBytes the maximum size of the pixel data of all cached images
+     * @throws IllegalArgumentException if maxBytes is negative
+     */
+    public DecodedImageCache(long maxBytes) {
+        if(maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes");
+        }
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the decoded image from the cache or decodes it.
+     *
+     * <p>If an other thread is already decoding the same image then this
+     * thread waits for its result. A decode error is reported to all waiting
+     * threads and is not cached.</p>
+     *
+     * @param source the identity of the source, eg an URL or file name, or null.
+     *               The source must implement equals and hashCode.
+     * @param jpeg the JPEG data from position to limit, the buffer is not modified
+     * @param params the decode parameters
+     * @return the decoded image
+     * @throws IOException if the image could not be decoded
+     * @throws InterruptedIOException if the thread was interrupted while waiting for an other thread
+     * @throws UnsupportedOperationException if the JPEG is not a color JPEG
+     */
+    public DecodedImage get(Object source, ByteBuffer jpeg, Params params) throws IOException {
+        if(params == null) {
+            throw new NullPointerException("params");
+        }
+        
+        final Key key = new Key(hash(jpeg), source, params);
+        final Entry entry;
+        final boolean owner;
+
+        synchronized(this) {
+            Entry e = entries.get(key);
+            if(e == null) {
+                e = new Entry();
+                entries.put(key, e);
+                misses++;
+                owner = true;
+            } else {
+                hits++;
+                owner = false;
+            }
+            entry = e;
+        }
+
+        if(owner) {
+            try {
+                entry.set(decode(jpeg.duplicate(), params));
+            } catch(Throwable ex) {
+                entry.setException(ex);
+            }
+        }
+
+        final DecodedImage image;
+        try {
+            image = entry.get();
+        } catch(InterruptedException ex) {
+            InterruptedIOException iioe = new InterruptedIOException();
+            iioe.initCause(ex);
+            throw iioe;
+        } catch(ExecutionException ex) {
+            if(owner) {
+                remove(key, entry);
+            }
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+
+        if(owner) {
+            synchronized(this) {
+                if(entries.get(key) == entry) {
+                    entry.size = image.getSizeInBytes();
+                    currentBytes += entry.size;
+                    evict();
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Removes all completely decoded images from the cache.
+     * Images which are currently decoded are not affected.
+     */
+    public synchronized void clear() {
+        Iterator<Entry> iter = entries.values().iterator();
+        while(iter.hasNext()) {
+            Entry e = iter.next();
+            if(e.size >= 0) {
+                currentBytes -= e.size;
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum size of the pixel data of all cached images.
+     * @return the byte budget
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the size of the pixel data of all cached images.
+     * @return the used bytes
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * Returns the number of requests which were served from the cache or
+     * waited for an other thread.
+     * @return the number of cache hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of requests which had to decode the image.
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private synchronized void remove(Key key, Entry entry) {
+        if(entries.get(key) == entry) {
+            entries.remove(key);
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> iter = entries.values().iterator();
+        while(currentBytes > maxBytes && iter.hasNext()) {
+            Entry e = iter.next();
+            if(e.size >= 0) {
+                currentBytes -= e.size;
+                iter.remove();
+            }
+        }
+    }
+
+    private static byte[] hash(ByteBuffer jpeg) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        } catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        md.update(jpeg.duplicate());
+        return md.digest();
+    }
+
+    static DecodedImage decode(ByteBuffer jpeg, Params params) throws IOException {
+        JPEGDecoder decoder = new JPEGDecoder(jpeg);
+        decoder.decodeHeader();
+        int orientation = params.applyOrientation ? decoder.getExifOrientation() : 1;
+        if(params.minWidth > 0 || params.minHeight > 0) {
+            // the EXIF thumbnail has the same orientation as the image
+            if(orientation >= 5) {
+                decoder = decoder.getPreviewDecoder(params.minHeight, params.minWidth);
+            } else {
+                decoder = decoder.getPreviewDecoder(params.minWidth, params.minHeight);
+            }
+        }
+        decoder.startDecode();
+
+        int width = decoder.getImageWidth();
+        int height = decoder.getImageHeight();
+        if(orientation >= 5) {
+            int tmp = width;
+            width = height;
+            height = tmp;
+        }
+
+        int stride = width * params.bytesPerPixel;
+        ByteBuffer data = ByteBuffer.allocate(stride * height);
+        decoder.decodeOriented(data, stride, params.bytesPerPixel, orientation, params.decoder);
+        data.clear();
+        return new DecodedImage(width, height, stride, params.bytesPerPixel, data.asReadOnlyBuffer());
+    }
+
+    /**
+     * The parameters used to decode an image. Two parameter sets are equal
+     * when they use the same {@link YUVDecoder} instance and the same values.
+     */
+    public static final class Params {
+        final YUVDecoder decoder;
+        final int bytesPerPixel;
+        final int minWidth;
+        final int minHeight;
+        final boolean applyOrientation;
+
+        /**
+         * Creates decode parameters for the full image.
+         *
+         * @param decoder the YUVDecoder which determines the output format, eg {@link YUVtoRGBA#instance}
+         * @param bytesPerPixel the number of bytes written by the decoder for each pixel
+         * @param applyOrientation true if the EXIF orientation should be applied
+         */
+        public Params(YUVDecoder decoder, int bytesPerPixel, boolean applyOrientation) {
+            this(decoder, bytesPerPixel, 0, 0, applyOrientation);
+        }
+
+        /**
+         * Creates decode parameters for a preview. When the EXIF thumbnail
+         * is at least as large as the requested size then the thumbnail is
+         * decoded instead of the full image.
+         *
+         * @param decoder the YUVDecoder which determines the output format, eg {@link YUVtoRGBA#instance}
+         * @param bytesPerPixel the number of bytes written by the decoder for each pixel
+         * @param minWidth the minimum width of the decoded image, 0 for the full image
+         * @param minHeight the minimum height of the decoded image, 0 for the full image
+         * @param applyOrientation true if the EXIF orientation should be applied
+         * @see JPEGDecoder#getPreviewDecoder(int, int)
+         */
+        public Params(YUVDecoder decoder, int bytesPerPixel, int minWidth, int minHeight, boolean applyOrientation) {
+            if(decoder == null) {
+                throw new NullPointerException("decoder");
+            }
+            if(bytesPerPixel <= 0) {
+                throw new IllegalArgumentException("bytesPerPixel");
+            }
+            if(minWidth < 0) {
+                throw new IllegalArgumentException("minWidth");
+            }
+            if(minHeight < 0) {
+                throw new IllegalArgumentException("minHeight");
+            }
+            this.decoder = decoder;
+            this.bytesPerPixel = bytesPerPixel;
+            this.minWidth = minWidth;
+            this.minHeight = minHeight;
+            this.applyOrientation = applyOrientation;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Params)) {
+                return false;
+            }
+            Params p = (Params)obj;
+            return decoder == p.decoder &&
+                    bytesPerPixel == p.bytesPerPixel &&
+                    minWidth == p.minWidth &&
+                    minHeight == p.minHeight &&
+                    applyOrientation == p.applyOrientation;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = System.identityHashCode(decoder);
+            h = h * 31 + bytesPerPixel;
+            h = h * 31 + minWidth;
+            h = h * 31 + minHeight;
+            return h * 2 + (applyOrientation ? 1 : 0);
+        }
+    }
+
+    static final class Key {
+        final byte[] hash;
+        final Object source;
+        final Params params;
+
+        Key(byte[] hash, Object source, Params params) {
+            this.hash = hash;
+            this.source = source;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)obj;
+            return Arrays.equals(hash, k.hash) &&
+                    (source == null ? k.source == null : source.equals(k.source)) &&
+                    params.equals(k.params);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = Arrays.hashCode(hash);
+            h = h * 31 + (source == null ? 0 : source.hashCode());
+            return h * 31 + params.hashCode();
+        }
+    }
+
+    static final class Entry extends FutureTask<DecodedImage> {
+        static final Runnable NOP = new Runnable() {
+            public void run() {
+            }
+        };
+
+        /** size of the pixel data or -1 while decoding */
+        int size;
+
+        Entry() {
+            super(NOP, null);
+            this.size = -1;
+        }
+
+        @Override
+        protected void set(DecodedImage v) {
+            super.set(v);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            super.setException(t);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.util.Arrays;
+
+/**
+ * Huffman decoder for entropy coded data which has been read into memory.
+ * The stuffed zero bytes must already be removed so that every bit position
+ * can be used as a starting point.
+ *
+ * @author Matthias Mann
+ */
+final class EntropyDecoder {
+
+    /**
+     * Returned by {@link #skipBlock(de.matthiasmann.jpegdecoder.Huffman, de.matthiasmann.jpegdecoder.Huffman) }
+     * when an invalid huffman code was found.
+     */
+    static final int INVALID = Integer.MIN_VALUE;
+
+    private final byte[] data;
+    private final int length;
+    private int pos;
+    private int codeBuffer;
+    private int codeBits;
+
+    EntropyDecoder(byte[] data, int length) {
+        this.data = data;
+        this.length = length;
+    }
+
+    /**
+     * Moves to the specified bit position. Positions after the end of the
+     * data read zero bits.
+     *
+     * @param bitPos the bit position
+     */
+    void seek(int bitPos) {
+        pos = bitPos >>> 3;
+        codeBuffer = 0;
+        codeBits = 0;
+        fill();
+        int skip = bitPos & 7;
+        codeBuffer <<= skip;
+        codeBits    -= skip;
+    }
+
+    /**
+     * Returns the bit position of the next unread bit.
+     *
+     * @return the bit position
+     */
+    int position() {
+        return (pos << 3) - codeBits;
+    }
+
+    /**
+     * Skips one block and returns the DC difference.
+     *
+     * @param dc the DC huffman table
+     * @param ac the AC huffman table
+     * @return the DC difference or {@link #INVALID}
+     */
+    int skipBlock(Huffman dc, Huffman ac) {
+        int t = decode(dc);
+        if(t < 0 || t > 16) {
+            return INVALID;
+        }
+        int diff = 0;
+        if(t > 0) {
+            diff = extendReceive(t);
+        }
+
+        int k = 1;
+        do {
+            int rs = decode(ac);
+            if(rs < 0) {
+                return INVALID;
+            }
+            k += rs >> 4;
+            int s = rs & 15;
+            if(s != 0) {
+                if(k > 63) {
+                    return INVALID;
+                }
+                if(codeBits < s) {
+                    fill();
+                }
+                codeBuffer <<= s;
+                codeBits    -= s;
+            } else if(rs != 0xF0) {
+                break;
+            }
+        } while(++k < 64);
+
+        return diff;
+    }
+
+    /**
+     * Decodes one block using an already predicted DC value.
+     *
+     * @param data the coefficients in natural order
+     * @param c the color component
+     * @param dc the DC value including the prediction
+     * @return false if an invalid huffman code or coefficient run was found
+     */
+    boolean decodeBlock(short[] data, Component c, int dc) {
+        Arrays.fill(data, (short)0);
+
+        final byte[] dq = c.dequant;
+
+        int t = decode(c.huffDC);
+        if(t < 0 || t > 16) {
+            return false;
+        }
+        if(t > 0) {
+            extendReceive(t);
+        }
+        data[0] = (short)(dc * (dq[0] & 0xFF));
+
+        final Huffman hac = c.huffAC;
+        final char[] dezigzag = JPEGDecoder.dezigzag;
+
+        int k = 1;
+        do {
+            int rs = decode(hac);
+            if(rs < 0) {
+                return false;
+            }
+            k += rs >> 4;
+            int s = rs & 15;
+            if(s != 0) {
+                if(k > 63) {
+                    return false;
+                }
+                int v = extendReceive(s) * (dq[k] & 0xFF);
+                data[dezigzag[k]] = (short)v;
+            } else if(rs != 0xF0) {
+                break;
+            }
+        } while(++k < 64);
+
+        return true;
+    }
+
+    private void fill() {
+        do {
+            int b = 0;
+            if(pos < length) {
+                b = data[pos] & 255;
+            }
+            pos++;
+            codeBuffer |= b << (24 - codeBits);
+            codeBits   += 8;
+        } while(codeBits <= 24);
+    }
+
+    private int decode(Huffman h) {
+        if(codeBits < 16) {
+            fill();
+        }
+        int k = h.fast[codeBuffer >>> (32 - Huffman.FAST_BITS)] & 255;
+        if(k < 0xFF) {
+            int s = h.size[k];
+            codeBuffer <<= s;
+            codeBits    -= s;
+            return h.values[k] & 255;
+        }
+
+        int temp = codeBuffer >>> 16;
+        int s = Huffman.FAST_BITS + 1;
+
+        while(temp >= h.maxCode[s]) {
+            s++;
+        }
+        if(s > 16) {
+            return -1;
+        }
+
+        k = (temp >>> (16 - s)) + h.delta[s];
+        codeBuffer <<= s;
+        codeBits    -= s;
+        return h.values[k] & 255;
+    }
+
+    private int extendReceive(int n) {
+        if(codeBits < 24) {
+            fill();
+        }
+
+        int k = codeBuffer >>> (32 - n);
+        codeBuffer <<= n;
+        codeBits    -= n;
+
+        int limit = 1 << (n-1);
+        if(k < limit) {
+            k -= limit*2 - 1;
+        }
+        return k;
+    }
+}
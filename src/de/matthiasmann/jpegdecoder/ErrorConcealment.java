@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+/**
+ * Controls how a {@link JPEGDecoder} handles corrupt image data.
+ *
+ * @author Matthias Mann
+ * @see JPEGDecoder#setErrorConcealment(de.matthiasmann.jpegdecoder.ErrorConcealment) 
+ */
+public enum ErrorConcealment {
+    /**
+     * Corrupt image data causes an IOException
+     */
+    NONE,
+    /**
+     * The decoder skips to the next restart marker and fills the lost MCUs
+     * with gray.
+     */
+    GRAY,
+    /**
+     * The decoder skips to the next restart marker and keeps the pixels of
+     * the MCU row above for the lost MCUs. This is only supported by
+     * {@link JPEGDecoder#decode(java.nio.ByteBuffer, int, int, de.matthiasmann.jpegdecoder.YUVDecoder) },
+     * the other decode methods use {@link #GRAY}.
+     */
+    PREVIOUS_ROW
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+/**
+ * Minimal parser for the EXIF data in an APP1 segment
+ *
+ * @author Matthias Mann
+ */
+final class Exif {
+
+    static final int TAG_ORIENTATION = 0x0112;
+    static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private final byte[] data;
+    private final int tiffStart;
+    private final int tiffEnd;
+    private final boolean bigEndian;
+
+    int orientation = 1;
+    int thumbnailOffset = -1;
+    int thumbnailLength;
+
+    private Exif(byte[] data, int tiffStart, int tiffEnd, boolean bigEndian) {
+        this.data = data;
+        this.tiffStart = tiffStart;
+        this.tiffEnd = tiffEnd;
+        this.bigEndian = bigEndian;
+    }
+
+    /**
+     * Parses the content of an APP1 segment.
+     *
+     * @param data the buffer containing the segment
+     * @param off the start of the segment payload (after the length)
+     * @param len the length of the segment payload
+     * @return the parsed EXIF data or null if the segment does not contain valid EXIF data
+     */
+    static Exif parse(byte[] data, int off, int len) {
+        if(len < 14 || data[off] != 'E' || data[off+1] != 'x' || data[off+2] != 'i' ||
+                data[off+3] != 'f' || data[off+4] != 0 || data[off+5] != 0) {
+            return null;
+        }
+        int tiffStart = off + 6;
+        boolean bigEndian;
+        if(data[tiffStart] == 'M' && data[tiffStart+1] == 'M') {
+            bigEndian = true;
+        } else if(data[tiffStart] == 'I' && data[tiffStart+1] == 'I') {
+            bigEndian = false;
+        } else {
+            return null;
+        }
+        Exif exif = new Exif(data, tiffStart, off + len, bigEndian);
+        if(exif.getU16(2) != 42) {
+            return null;
+        }
+        int ifd1 = exif.parseIFD0(exif.getS32(4));
+        if(ifd1 > 0) {
+            exif.parseIFD1(ifd1);
+        }
+        return exif;
+    }
+
+    private int parseIFD0(int ifd) {
+        int count = getU16(ifd);
+        for(int i=0 ; i<count ; i++) {
+            int entry = ifd + 2 + i*12;
+            if(getU16(entry) == TAG_ORIENTATION) {
+                int value = getU16(entry + 8);
+                if(value >= 1 && value <= 8) {
+                    orientation = value;
+                }
+            }
+        }
+        return getS32(ifd + 2 + count*12);
+    }
+
+    private void parseIFD1(int ifd) {
+        int count = getU16(ifd);
+        int offset = -1;
+        int length = 0;
+        for(int i=0 ; i<count ; i++) {
+            int entry = ifd + 2 + i*12;
+            switch(getU16(entry)) {
+                case TAG_THUMBNAIL_OFFSET:
+                    offset = getS32(entry + 8);
+                    break;
+                case TAG_THUMBNAIL_LENGTH:
+                    length = getS32(entry + 8);
+                    break;
+            }
+        }
+        if(length > 0 && valid(offset, length)) {
+            thumbnailOffset = tiffStart + offset;
+            thumbnailLength = length;
+        }
+    }
+
+    private boolean valid(int pos, int size) {
+        return pos >= 0 && pos <= tiffEnd - tiffStart - size;
+    }
+
+    private int getU16(int pos) {
+        if(!valid(pos, 2)) {
+            return 0;
+        }
+        int b0 = data[tiffStart + pos] & 255;
+        int b1 = data[tiffStart + pos + 1] & 255;
+        return bigEndian ? (b0 << 8) | b1 : (b1 << 8) | b0;
+    }
+
+    private int getS32(int pos) {
+        if(!valid(pos, 4)) {
+            return -1;
+        }
+        int v0 = getU16(pos);
+        int v1 = getU16(pos + 2);
+        return bigEndian ? (v0 << 16) | v1 : (v1 << 16) | v0;
+    }
+}
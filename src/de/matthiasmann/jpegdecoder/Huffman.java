@@ -31,6 +31,8 @@ package de.matthiasmann.jpegdecoder;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  *
@@ -41,16 +43,37 @@ class Huffman {
     static final int FAST_BITS = 9;
     static final int FAST_MASK = (1 << FAST_BITS) - 1;
 
+    /**
+     * Number of tables kept in the shared cache
+     */
+    static final int CACHE_SIZE = 64;
+
     final byte[] fast;
     final byte[] values;
     final byte[] size;
     final int[] maxCode;
     final int[] delta;
+    final byte[] spec;
+    final int specHash;
+
+    /**
+     * Creates a new huffman table from the content of a DHT segment.
+     *
+     * @param spec the 16 code counts followed by the symbol values
+     * @param specLength the number of bytes in spec
+     * @throws IOException if the table is invalid
+     */
+    public Huffman(byte[] spec, int specLength) throws IOException {
+        this.spec = new byte[specLength];
+        System.arraycopy(spec, 0, this.spec, 0, specLength);
+        this.specHash = hash(spec, specLength);
 
-    public Huffman(int[] count) throws IOException {
         int numSymbols = 0;
         for(int i=0 ; i<16 ; i++) {
-            numSymbols += count[i];
+            numSymbols += spec[i] & 255;
+        }
+        if(numSymbols > 256 || 16 + numSymbols != specLength) {
+            throw new IOException("Bad huffman table");
         }
 
         fast = new byte[1 << FAST_BITS];
@@ -59,8 +82,10 @@ class Huffman {
         maxCode = new int[18];
         delta = new int[17];
 
+        System.arraycopy(spec, 16, values, 0, numSymbols);
+
         for(int i=0,k=0 ; i<16 ; i++) {
-            for(int j=0 ; j<count[i] ; j++) {
+            for(int j=0,n=spec[i]&255 ; j<n ; j++) {
                 size[k++] = (byte)(i+1);
             }
         }
@@ -100,4 +125,196 @@ class Huffman {
     public int getNumSymbols() {
         return values.length;
     }
+
+    /**
+     * Checks if this table was created from the given DHT content.
+     *
+     * @param spec the 16 code counts followed by the symbol values
+     * @param specLength the number of bytes in spec
+     * @return true if the table matches
+     */
+    public boolean matches(byte[] spec, int specLength) {
+        return specLength == this.spec.length && sameSpec(spec, this.spec, specLength);
+    }
+
+    /**
+     * Returns a huffman table for the given DHT content. Tables are immutable
+     * and are shared between all decoders - most encoders use the same few tables.
+     *
+     * @param spec the 16 code counts followed by the symbol values
+     * @param specLength the number of bytes in spec
+     * @return the huffman table
+     * @throws IOException if the table is invalid
+     */
+    static Huffman get(byte[] spec, int specLength) throws IOException {
+        synchronized(cache) {
+            // the lookup key is only used while holding the lock
+            lookupKey.set(spec, specLength, hash(spec, specLength));
+            Huffman h = cache.get(lookupKey);
+            lookupKey.spec = null;
+            if(h != null) {
+                return h;
+            }
+        }
+        Huffman h = new Huffman(spec, specLength);
+        synchronized(cache) {
+            cache.put(new Key(h), h);
+        }
+        return h;
+    }
+
+    /**
+     * Returns a typical huffman table from Annex K.3 of the JPEG standard.
+     * Motion-JPEG streams usually omit the DHT segments and rely on these.
+     *
+     * @param tableClass 0 for DC tables, 1 for AC tables
+     * @param th the table slot, 0 for luminance, 1 for chrominance
+     * @return the huffman table or null if there is no standard table for this slot
+     */
+    static Huffman getStandard(int tableClass, int th) {
+        if(th > 1) {
+            return null;
+        }
+        return STANDARD_TABLES[tableClass*2 + th];
+    }
+
+    private static final int[] STD_DC_LUMINANCE = {
+        0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0,
+        0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11
+    };
+
+    private static final int[] STD_DC_CHROMINANCE = {
+        0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0,
+        0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11
+    };
+
+    private static final int[] STD_AC_LUMINANCE = {
+        0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d,
+        0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12,
+        0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+        0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08,
+        0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+        0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16,
+        0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+        0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39,
+        0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+        0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59,
+        0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+        0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79,
+        0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+        0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98,
+        0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+        0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6,
+        0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+        0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4,
+        0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+        0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea,
+        0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+        0xf9, 0xfa
+    };
+
+    private static final int[] STD_AC_CHROMINANCE = {
+        0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77,
+        0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21,
+        0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+        0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91,
+        0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+        0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34,
+        0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+        0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38,
+        0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+        0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58,
+        0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+        0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78,
+        0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+        0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96,
+        0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+        0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4,
+        0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+        0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2,
+        0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+        0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9,
+        0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+        0xf9, 0xfa
+    };
+
+    private static final Huffman[] STANDARD_TABLES = {
+        createStandard(STD_DC_LUMINANCE),
+        createStandard(STD_DC_CHROMINANCE),
+        createStandard(STD_AC_LUMINANCE),
+        createStandard(STD_AC_CHROMINANCE)
+    };
+
+    private static Huffman createStandard(int[] table) {
+        byte[] spec = new byte[table.length];
+        for(int i=0 ; i<table.length ; i++) {
+            spec[i] = (byte)table[i];
+        }
+        try {
+            return new Huffman(spec, spec.length);
+        } catch(IOException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private static boolean sameSpec(byte[] a, byte[] b, int length) {
+        for(int i=0 ; i<length ; i++) {
+            if(a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] spec, int specLength) {
+        int h = specLength;
+        for(int i=0 ; i<specLength ; i++) {
+            h = h*31 + spec[i];
+        }
+        return h;
+    }
+
+    @SuppressWarnings("serial")
+    private static final Map<Key, Huffman> cache = new LinkedHashMap<Key, Huffman>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Huffman> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static final Key lookupKey = new Key();
+
+    private static final class Key {
+        byte[] spec;
+        int specLength;
+        int hash;
+
+        Key() {
+        }
+
+        Key(Huffman h) {
+            set(h.spec, h.spec.length, h.specHash);
+        }
+
+        void set(byte[] spec, int specLength, int hash) {
+            this.spec = spec;
+            this.specLength = specLength;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return hash == other.hash && specLength == other.specLength &&
+                    sameSpec(spec, other.spec, specLength);
+        }
+    }
 }
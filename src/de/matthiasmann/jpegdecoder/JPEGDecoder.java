@@ -32,9 +32,17 @@ package de.matthiasmann.jpegdecoder;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * A pure Java JPEG decoder
@@ -46,12 +54,29 @@ import java.util.Arrays;
 public class JPEGDecoder {
     
     static final int MARKER_NONE = 0xFF;
+
+    static final long MAPPING_WINDOW_SIZE = 64 << 20;
+
+    static final int MAX_SCAN_DATA_SIZE = (1 << 28) - (1 << 16);
+
+    static final int UPSAMPLE_NONE = 0;
+    static final int UPSAMPLE_H2 = 1;
+    static final int UPSAMPLE_V2 = 2;
+    static final int UPSAMPLE_HV2 = 3;
+    static final int UPSAMPLE_GENERIC = 4;
     
     private final InputStream is;
-    private final byte[] inputBuffer;
+    private final ByteBuffer inputByteBuffer;
+    private final int inputByteBufferStart;
+    private final byte[] fetchBuffer;
+    private byte[] inputBuffer;
     private int inputBufferPos;
     private int inputBufferValid;
     private boolean ignoreIOerror;
+    private ErrorConcealment errorConcealment = ErrorConcealment.NONE;
+    private UpsamplingMode upsamplingMode = UpsamplingMode.FANCY;
+    private long inputBytesFetched;
+    private DecodeListener listener;
 
     private boolean headerDecoded;
     private boolean insideSOS;
@@ -61,16 +86,23 @@ public class JPEGDecoder {
     private final IDCT_2D idct2D;
     private final short[] data;
     private final Huffman[] huffmanTables;
+    private final byte[] huffmanSpec;
     private final byte[][] dequant;
 
     private Component[] components;
     private Component[] order;
+    private final Component[][] scanOrders;
     
     private int codeBuffer;
     private int codeBits;
+    private int paddingBits;
     private int marker = MARKER_NONE;
     private int restartInterval;
     private int todo;
+    private int restartMarkerIdx;
+    private int concealMCUs;
+    private int concealMarker;
+    private int numConcealedMCUs;
     private int mcuCountX;
     private int mcuCountY;
     private int imageWidth;
@@ -78,9 +110,35 @@ public class JPEGDecoder {
     private int imgHMax;
     private int imgVMax;
     private boolean nomore;
+    private boolean arithmeticCoding;
+    private ArithmeticDecoder arithmetic;
 
     private byte[][] decodeTmp;
     private byte[][] upsampleTmp;
+    private byte[][] lineTmp;
+    private final byte[][] lineIn = new byte[3][];
+    private byte[][] orientTmp;
+    private byte[][] planes;
+    private byte[][] scanPlanes;
+    private boolean multiScan;
+    private int multiScanMarker;
+    private byte[] segmentTmp;
+    private int exifOrientation = 1;
+    private boolean exifFound;
+    private ByteBuffer exifThumbnail;
+    private int captureMask;
+    private ArrayList<JPEGSegment> capturedSegments;
+    private ExecutorService parallelExecutor;
+    private int parallelTasks;
+    private ParallelHuffmanDecoder parallelDecoder;
+    private byte[] scanData;
+    private long maxPixels = Long.MAX_VALUE;
+    private long maxScratchBytes = Long.MAX_VALUE;
+    private long rowScratchBytes;
+    private long planeScratchBytes;
+    private boolean hasDeadline;
+    private long deadline;
+    private volatile boolean cancelled;
 
     /**
      * Constructs a new JPEGDecoder for the specified InputStream.
@@ -92,13 +150,96 @@ public class JPEGDecoder {
      * @param is the InputStream containing the JPG data
      */
     public JPEGDecoder(InputStream is) {
+        this(is, null);
+    }
+
+    /**
+     * Constructs a new JPEGDecoder for the specified ByteBuffer.
+     * The JPG data is read from the position to the limit of the buffer,
+     * the position of the buffer is not changed.
+     * When the buffer has an accessible array the data is read without
+     * copying it and captured segments share the memory with the buffer.
+     * The JPEG header is only read when calling {@link #decodeHeader() } or
+     * {@link #startDecode() }
+     *
+     * @param src the ByteBuffer containing the JPG data
+     */
+    public JPEGDecoder(ByteBuffer src) {
+        this(null, src.duplicate());
+    }
+
+    private JPEGDecoder(InputStream is, ByteBuffer src) {
         this.is = is;
-        this.inputBuffer = new byte[4096];
-        
+        this.inputByteBuffer = src;
+        this.inputByteBufferStart = (src != null) ? src.position() : 0;
+        this.fetchBuffer = new byte[4096];
+        this.inputBuffer = fetchBuffer;
+
+        if(src != null && src.hasArray()) {
+            inputBuffer = src.array();
+            inputBufferPos = src.arrayOffset() + src.position();
+            inputBufferValid = src.arrayOffset() + src.limit();
+            inputBytesFetched = src.remaining();
+            src.position(src.limit());
+        }
+
+        this.capturedSegments = new ArrayList<JPEGSegment>();
         this.idct2D = new IDCT_2D();
         this.data = new short[64];
         this.huffmanTables = new Huffman[8];
+        this.huffmanSpec = new byte[16 + 256];
         this.dequant = new byte[4][64];
+        this.scanOrders = new Component[5][];
+    }
+
+    /**
+     * Constructs a decoder which starts at the entropy coded data of an
+     * already parsed image.
+     *
+     * @param info the image info
+     * @param src the entropy coded data starting at the MCU row
+     * @param startMCURow the first MCU row
+     * @see JPEGImageInfo#createDecoder(int) 
+     */
+    JPEGDecoder(JPEGImageInfo info, ByteBuffer src, int startMCURow) {
+        this(null, src);
+
+        final int numComps = info.compIds.length;
+        int hMax = 1;
+        int vMax = 1;
+        components = new Component[numComps];
+        for(int i=0 ; i<numComps ; i++) {
+            Component c = new Component(info.compIds[i]);
+            c.blocksPerMCUHorz = info.compBlocksPerMCUHorz[i];
+            c.blocksPerMCUVert = info.compBlocksPerMCUVert[i];
+            c.dequant = info.compDequant[i];
+            c.huffDC = info.compHuffDC[i];
+            c.huffAC = info.compHuffAC[i];
+            hMax = Math.max(hMax, c.blocksPerMCUHorz);
+            vMax = Math.max(vMax, c.blocksPerMCUVert);
+            components[i] = c;
+        }
+
+        imageWidth = info.imageWidth;
+        imageHeight = info.imageHeight;
+        setupComponents(hMax, vMax);
+        computeScratchBytes();
+
+        order = scanOrders[numComps] = new Component[numComps];
+        for(int i=0 ; i<numComps ; i++) {
+            order[i] = components[info.scanOrder[i]];
+        }
+
+        restartInterval = info.restartInterval;
+        exifOrientation = info.exifOrientation;
+        exifFound = true;
+        headerDecoded = true;
+        insideSOS = true;
+        currentMCURow = startMCURow;
+        if(restartInterval != 0) {
+            restartMarkerIdx = ((startMCURow * mcuCountX) / restartInterval) & 7;
+        }
+        reset();
     }
 
     public boolean isIgnoreIOerror() {
@@ -118,6 +259,176 @@ public class JPEGDecoder {
         this.ignoreIOerror = ignoreIOerror;
     }
 
+    public ErrorConcealment getErrorConcealment() {
+        return errorConcealment;
+    }
+
+    /**
+     * Controls the behavior on corrupt image data.
+     *
+     * <p>When enabled the decoder skips forward to the next restart marker
+     * and replaces the lost MCUs instead of throwing an IOException. If the
+     * image has no restart markers the remainder of the image is replaced.
+     * A scan which is cut off by the end of the input is handled the same
+     * way.</p>
+     *
+     * @param errorConcealment the error concealment mode
+     * @see #getNumConcealedMCUs() 
+     */
+    public void setErrorConcealment(ErrorConcealment errorConcealment) {
+        if(errorConcealment == null) {
+            throw new NullPointerException("errorConcealment");
+        }
+        this.errorConcealment = errorConcealment;
+    }
+
+    /**
+     * Returns the number of MCUs which have been replaced due to corrupt image data.
+     *
+     * @return the number of concealed MCUs
+     * @see #setErrorConcealment(de.matthiasmann.jpegdecoder.ErrorConcealment) 
+     */
+    public int getNumConcealedMCUs() {
+        return numConcealedMCUs;
+    }
+
+    public UpsamplingMode getUpsamplingMode() {
+        return upsamplingMode;
+    }
+
+    /**
+     * Selects how sub sampled color components are upsampled.
+     * The default is {@link UpsamplingMode#FANCY}.
+     *
+     * @param upsamplingMode the upsampling mode
+     */
+    public void setUpsamplingMode(UpsamplingMode upsamplingMode) {
+        if(upsamplingMode == null) {
+            throw new NullPointerException("upsamplingMode");
+        }
+        this.upsamplingMode = upsamplingMode;
+    }
+
+    /**
+     * Enables speculative parallel decoding of huffman coded images without
+     * restart markers.
+     *
+     * <p>The entropy coded data is read into memory and split into chunks
+     * which are parsed in parallel. Because huffman codes self-synchronize
+     * each chunk quickly falls into step with the real block boundaries,
+     * the remaining misaligned blocks are re-decoded and the DC predictors
+     * are fixed up afterwards. The MCU rows are then decoded and transformed
+     * in parallel into one plane per component, from which the decode
+     * methods read.</p>
+     *
+     * <p>It is only used when error concealment is disabled. Images with
+     * restart markers, multiple scans or arithmetic coding are decoded as
+     * usual. {@link #decodeDCTCoeffs(java.nio.ShortBuffer[], int) } and
+     * {@link #decodeFingerprint() } are not available while it is used.</p>
+     *
+     * @param executor the executor which runs the decode tasks or null to disable parallel decoding
+     * @param numTasks the number of tasks, usually the number of available processors
+     */
+    public void setParallelDecoding(ExecutorService executor, int numTasks) {
+        if(numTasks < 1) {
+            throw new IllegalArgumentException("numTasks");
+        }
+        this.parallelExecutor = executor;
+        this.parallelTasks = numTasks;
+    }
+
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    /**
+     * Limits the number of pixels of an image. The limit is checked when
+     * the frame header is read - before any image sized memory is allocated.
+     * By default there is no limit.
+     *
+     * @param maxPixels the maximum value of width * height
+     * @see #setMaxScratchBytes(long) 
+     */
+    public void setMaxPixels(long maxPixels) {
+        if(maxPixels <= 0) {
+            throw new IllegalArgumentException("maxPixels");
+        }
+        this.maxPixels = maxPixels;
+    }
+
+    public long getMaxScratchBytes() {
+        return maxScratchBytes;
+    }
+
+    /**
+     * Limits the temporary memory allocated by this decoder for one image.
+     *
+     * <p>The memory needed for the MCU row buffers is checked when the frame
+     * header is read. The component planes of images with multiple scans or
+     * parallel decoding and the buffered entropy coded data are checked
+     * before they are allocated. The output buffers are not included.
+     * By default there is no limit.</p>
+     *
+     * @param maxScratchBytes the maximum number of temporary bytes
+     * @see #setMaxPixels(long) 
+     */
+    public void setMaxScratchBytes(long maxScratchBytes) {
+        if(maxScratchBytes <= 0) {
+            throw new IllegalArgumentException("maxScratchBytes");
+        }
+        this.maxScratchBytes = maxScratchBytes;
+    }
+
+    /**
+     * Sets a deadline for decoding. The deadline is checked between MCU rows,
+     * while reading the entropy coded data for parallel decoding and by the
+     * parallel decode tasks. After it has passed the decode methods throw an
+     * InterruptedIOException.
+     *
+     * @param deadline the deadline in the time base of {@link System#nanoTime() }
+     * @see #clearDeadline() 
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+        this.hasDeadline = true;
+    }
+
+    /**
+     * Removes the deadline.
+     * @see #setDeadline(long) 
+     */
+    public void clearDeadline() {
+        this.hasDeadline = false;
+    }
+
+    /**
+     * Cancels decoding. This method can be called from any thread. The
+     * decode methods check for cancellation at the same places as for the
+     * deadline and throw an InterruptedIOException. A cancelled decoder stays
+     * cancelled.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public DecodeListener getDecodeListener() {
+        return listener;
+    }
+
+    /**
+     * Sets a listener which is notified about the decode progress.
+     * Timing information is only collected while a listener is set.
+     *
+     * @param listener the listener or null
+     */
+    public void setDecodeListener(DecodeListener listener) {
+        this.listener = listener;
+    }
+
     /**
      * Decodes the JPEG header. This must be called before the image size can be queried.
      * 
@@ -127,12 +438,13 @@ public class JPEGDecoder {
         if(!headerDecoded) {
             headerDecoded = true;
 
+            final long startTime = (listener != null) ? System.nanoTime() : 0;
             int m = getMarker();
             if(m != 0xD8) {
                 throw new IOException("no SOI");
             }
             m = getMarker();
-            while(m != 0xC0 && m != 0xC1) { // SOF
+            while(m != 0xC0 && m != 0xC1 && m != 0xC9) { // SOF
                 processMarker(m);
                 m = getMarker();
                 while(m == MARKER_NONE) {
@@ -140,7 +452,12 @@ public class JPEGDecoder {
                 }
             }
 
+            arithmeticCoding = m == 0xC9;
             processSOF();
+
+            if(listener != null) {
+                listener.headerDecoded(this, getBytesConsumed(), System.nanoTime() - startTime);
+            }
         }
     }
 
@@ -189,6 +506,192 @@ public class JPEGDecoder {
         return components[idx];
     }
 
+    /**
+     * Returns the EXIF orientation of the image. The values are defined by
+     * the EXIF standard:
+     * <ol>
+     * <li>normal</li>
+     * <li>mirrored horizontally</li>
+     * <li>rotated by 180 degrees</li>
+     * <li>mirrored vertically</li>
+     * <li>mirrored horizontally and rotated by 270 degrees clockwise</li>
+     * <li>rotated by 90 degrees clockwise</li>
+     * <li>mirrored horizontally and rotated by 90 degrees clockwise</li>
+     * <li>rotated by 270 degrees clockwise</li>
+     * </ol>
+     * {@link #decodeHeader() } must be called before the orientation can be queried.
+     *
+     * @return the orientation from 1 to 8. 1 if the image has no EXIF orientation.
+     * @see #decodeOriented(java.nio.ByteBuffer, int, int, int, de.matthiasmann.jpegdecoder.YUVDecoder) 
+     */
+    public int getExifOrientation() {
+        ensureHeaderDecoded();
+        return exifOrientation;
+    }
+
+    /**
+     * Checks if the image contains an EXIF thumbnail.
+     * {@link #decodeHeader() } must be called before the thumbnail can be queried.
+     *
+     * @return true if the image contains an EXIF thumbnail
+     * @see #createThumbnailDecoder() 
+     */
+    public boolean hasExifThumbnail() {
+        ensureHeaderDecoded();
+        return exifThumbnail != null;
+    }
+
+    /**
+     * Creates a new decoder for the EXIF thumbnail of the image. The
+     * thumbnail data is kept in memory by this decoder, so no additional
+     * read of the input is needed.
+     * {@link #decodeHeader() } must be called before the thumbnail can be queried.
+     *
+     * @return a new JPEGDecoder for the thumbnail or null if the image has no EXIF thumbnail
+     * @see #getPreviewDecoder(int, int) 
+     */
+    public JPEGDecoder createThumbnailDecoder() {
+        ensureHeaderDecoded();
+        if(exifThumbnail == null) {
+            return null;
+        }
+        JPEGDecoder decoder = new JPEGDecoder(exifThumbnail);
+        decoder.setIgnoreIOerror(ignoreIOerror);
+        decoder.setErrorConcealment(errorConcealment);
+        decoder.setUpsamplingMode(upsamplingMode);
+        decoder.maxPixels = maxPixels;
+        decoder.maxScratchBytes = maxScratchBytes;
+        decoder.hasDeadline = hasDeadline;
+        decoder.deadline = deadline;
+        return decoder;
+    }
+
+    /**
+     * Selects the cheapest decoder for a preview of at least the requested size.
+     * When the EXIF thumbnail is large enough a decoder for the thumbnail
+     * with an already decoded header is returned, otherwise this decoder.
+     * {@link #decodeHeader() } must be called before this method.
+     *
+     * @param minWidth the minimum width of the preview
+     * @param minHeight the minimum height of the preview
+     * @return the decoder for the thumbnail or this decoder
+     * @see #createThumbnailDecoder() 
+     */
+    public JPEGDecoder getPreviewDecoder(int minWidth, int minHeight) {
+        JPEGDecoder decoder = createThumbnailDecoder();
+        if(decoder != null) {
+            try {
+                decoder.decodeHeader();
+                if(decoder.getImageWidth() >= minWidth && decoder.getImageHeight() >= minHeight) {
+                    return decoder;
+                }
+            } catch(IOException ex) {
+                // broken thumbnail - use the full image
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Selects if the payload of an APPn or COM marker segment is kept.
+     * By default all these segments are skipped.
+     * This must be called before {@link #decodeHeader() }
+     *
+     * @param marker the marker from {@link JPEGSegment#APP0} to {@link JPEGSegment#APP15} or {@link JPEGSegment#COM}
+     * @param capture true if the segments should be kept
+     * @see #getCapturedSegments() 
+     */
+    public void setCaptureMarker(int marker, boolean capture) {
+        if(headerDecoded) {
+            throw new IllegalStateException("header already decoded");
+        }
+        int bit = captureBit(marker);
+        if(bit < 0) {
+            throw new IllegalArgumentException("marker");
+        }
+        if(capture) {
+            captureMask |= 1 << bit;
+        } else {
+            captureMask &= ~(1 << bit);
+        }
+    }
+
+    public boolean isCaptureMarker(int marker) {
+        int bit = captureBit(marker);
+        return bit >= 0 && (captureMask & (1 << bit)) != 0;
+    }
+
+    /**
+     * Returns the captured marker segments in the order they appear in the file.
+     * Segments which follow a scan are added when the decoder reaches them.
+     * {@link #decodeHeader() } must be called before the segments can be queried.
+     *
+     * @return an unmodifiable list of the captured segments
+     * @see #setCaptureMarker(int, boolean) 
+     */
+    public List<JPEGSegment> getCapturedSegments() {
+        ensureHeaderDecoded();
+        return Collections.unmodifiableList(capturedSegments);
+    }
+
+    /**
+     * Reassembles the ICC profile from the captured APP2 segments.
+     * APP2 segments must be captured for this method to work.
+     * {@link #decodeHeader() } must be called before the profile can be queried.
+     *
+     * @return the ICC profile or null if the image has no (complete) ICC profile
+     * @see #setCaptureMarker(int, boolean) 
+     */
+    public byte[] getICCProfile() {
+        ensureHeaderDecoded();
+        ByteBuffer[] chunks = null;
+        int size = 0;
+        for(JPEGSegment segment : capturedSegments) {
+            if(segment.getMarker() != JPEGSegment.APP2 || !segment.hasIdentifier("ICC_PROFILE")) {
+                continue;
+            }
+            ByteBuffer chunk = segment.getData();
+            if(chunk.remaining() < 14) {
+                return null;
+            }
+            int seqNo = chunk.get(chunk.position() + 12) & 255;
+            int count = chunk.get(chunk.position() + 13) & 255;
+            if(chunks == null) {
+                chunks = new ByteBuffer[count];
+            }
+            if(count != chunks.length || seqNo < 1 || seqNo > count || chunks[seqNo-1] != null) {
+                return null;
+            }
+            chunk.position(chunk.position() + 14);
+            chunks[seqNo-1] = chunk;
+            size += chunk.remaining();
+        }
+        if(chunks == null) {
+            return null;
+        }
+        byte[] profile = new byte[size];
+        int pos = 0;
+        for(ByteBuffer chunk : chunks) {
+            if(chunk == null) {
+                return null;
+            }
+            int len = chunk.remaining();
+            chunk.get(profile, pos, len);
+            pos += len;
+        }
+        return profile;
+    }
+
+    private static int captureBit(int marker) {
+        if(marker >= JPEGSegment.APP0 && marker <= JPEGSegment.APP15) {
+            return marker - JPEGSegment.APP0;
+        }
+        if(marker == JPEGSegment.COM) {
+            return 16;
+        }
+        return -1;
+    }
+
     /**
      * Returns the height of a MCU row. This is the smallest granularity for
      * the raw decode API.
@@ -230,6 +733,9 @@ public class JPEGDecoder {
      * of the image data. It also checks if that JPEG file can be decoded by this
      * library.
      *
+     * <p>When the components are stored in separate scans all scans are
+     * decoded by this method into one plane per component.</p>
+     *
      * @return true if the JPEG can be decoded.
      * @throws IOException if an IO error occurred
      */
@@ -242,13 +748,24 @@ public class JPEGDecoder {
         }
 
         decodeHeader();
+        final long startTime = (listener != null) ? System.nanoTime() : 0;
         int m = getMarker();
         while(m != 0xD9) {  // EOI
             if(m == 0xDA) { // SOS
                 processScanHeader();
                 insideSOS = true;
                 currentMCURow = 0;
+                restartMarkerIdx = 0;
                 reset();
+                if(listener != null) {
+                    listener.scanStarted(this, order.length, getBytesConsumed(), System.nanoTime() - startTime);
+                }
+                if(order.length != components.length) {
+                    decodeMultiScan(startTime);
+                } else if(parallelExecutor != null && !arithmeticCoding && restartInterval == 0 &&
+                        errorConcealment == ErrorConcealment.NONE) {
+                    decodeParallel();
+                }
                 return true;
             } else {
                 processMarker(m);
@@ -260,6 +777,105 @@ public class JPEGDecoder {
         return false;
     }
 
+    /**
+     * Returns the immutable header information of the current image which
+     * can be shared between threads to create independent decoders.
+     * {@link #startDecode() } must be called before this method and no
+     * MCU row may have been decoded.
+     *
+     * <p>The image must be read from a ByteBuffer, have one huffman coded
+     * scan which contains all components and must not be decoded with
+     * {@link #setParallelDecoding(java.util.concurrent.ExecutorService, int) }.</p>
+     *
+     * @return the image info
+     * @throws IllegalStateException if {@link #startDecode() } has not been called or decoding has progressed
+     * @throws UnsupportedOperationException if the image or input is not supported
+     * @see JPEGImageInfo#createDecoder(int) 
+     */
+    public JPEGImageInfo getImageInfo() {
+        if(!insideSOS || currentMCURow != 0 || multiScan) {
+            throw new IllegalStateException("decode not started");
+        }
+        if(inputByteBuffer == null) {
+            throw new UnsupportedOperationException("image info requires a ByteBuffer as input");
+        }
+        if(arithmeticCoding || order.length != components.length) {
+            throw new UnsupportedOperationException("image info requires one huffman coded scan with all components");
+        }
+
+        ByteBuffer entropyData = inputByteBuffer.duplicate();
+        entropyData.position(inputByteBufferStart + (int)getBytesConsumed());
+        return new JPEGImageInfo(imageWidth, imageHeight, mcuCountX, mcuCountY, imgVMax * 8,
+                restartInterval, exifOrientation, components, order, entropyData.slice());
+    }
+
+    /**
+     * Advances to the next image in a stream of back-to-back JPEG images
+     * like Motion-JPEG. The remaining data of the current image is skipped.
+     *
+     * <p>Huffman and quantization tables defined by previous images stay
+     * defined - images without DHT segments use the typical tables from
+     * Annex K of the JPEG standard. All settings and buffers are kept, so
+     * no allocation is needed when the next image has the same size. The
+     * {@link Component} objects are reused when the component IDs match.</p>
+     *
+     * <p>After this method returned true the next image can be decoded
+     * with {@link #decodeHeader() } and {@link #startDecode() }.</p>
+     *
+     * @return true if another image follows, false at the end of the stream
+     * @throws IOException if an IO error occurred
+     */
+    public boolean nextFrame() throws IOException {
+        decodeHeader();
+        do {
+            if(multiScan) {
+                marker = multiScanMarker;
+                multiScan = false;
+                insideSOS = false;
+            } else if(insideSOS) {
+                // skip the remaining entropy coded data
+                takeArithmeticMarker();
+                while(marker == MARKER_NONE || (marker >= 0xD0 && marker <= 0xD7)) {
+                    marker = findMarker();
+                }
+                concealMCUs = 0;
+                insideSOS = false;
+            }
+        } while(startDecode());
+
+        // skip padding between the images
+        int prev = 0;
+        for(;;) {
+            if(!hasMoreInput()) {
+                return false;
+            }
+            int b = getU8();
+            if(prev == 0xFF && b == 0xD8) {
+                break;
+            }
+            prev = b;
+        }
+
+        headerDecoded = false;
+        insideSOS = false;
+        foundEOI = false;
+        currentMCURow = 0;
+        marker = 0xD8;  // SOI has already been read
+        restartInterval = 0;
+        concealMCUs = 0;
+        numConcealedMCUs = 0;
+        exifOrientation = 1;
+        exifFound = false;
+        exifThumbnail = null;
+        if(!capturedSegments.isEmpty()) {
+            capturedSegments = new ArrayList<JPEGSegment>();
+        }
+        if(arithmetic != null) {
+            arithmetic.setDefaultConditioning();
+        }
+        return true;
+    }
+
     /**
      * Decodes a number of MCU rows into the specified ByteBuffer as RGBA data.
      * {@link #startDecode() } must be called before this method.
@@ -329,12 +945,23 @@ public class JPEGDecoder {
             throw new UnsupportedOperationException("RGB decode only supported for 3 channels");
         }
 
+        final long startTime = (listener != null) ? System.nanoTime() : 0;
+        final int startMCURow = currentMCURow;
         final int YUVstride = mcuCountX * imgHMax * 8;
-        final boolean requiresUpsampling = allocateDecodeTmp(YUVstride);
+        final boolean replicate = upsamplingMode == UpsamplingMode.REPLICATE &&
+                (order[0].upsampler | order[1].upsampler | order[2].upsampler) != 0;
+        final boolean requiresUpsampling;
+        if(replicate) {
+            allocateDecodeTmp();
+            allocateLineTmp(YUVstride);
+            requiresUpsampling = false;
+        } else {
+            requiresUpsampling = allocateDecodeTmp(YUVstride);
+        }
 
-        final byte[] YtoRGB = (order[0].upsampler != 0) ? upsampleTmp[0] : decodeTmp[0];
-        final byte[] UtoRGB = (order[1].upsampler != 0) ? upsampleTmp[1] : decodeTmp[1];
-        final byte[] VtoRGB = (order[2].upsampler != 0) ? upsampleTmp[2] : decodeTmp[2];
+        final byte[] YtoRGB = (order[0].upsampler != 0 && !replicate) ? upsampleTmp[0] : decodeTmp[0];
+        final byte[] UtoRGB = (order[1].upsampler != 0 && !replicate) ? upsampleTmp[1] : decodeTmp[1];
+        final byte[] VtoRGB = (order[2].upsampler != 0 && !replicate) ? upsampleTmp[2] : decodeTmp[2];
 
         for(int j=0 ; j<numMCURows ; j++) {
             decodeMCUrow();
@@ -346,9 +973,17 @@ public class JPEGDecoder {
             int outPos = dst.position();
             int n = imgVMax*8;
             n = Math.min(imageHeight - (currentMCURow-1)*n, n);
-            for(int i=0 ; i<n ; i++) {
-                decoder.decode(dst, outPos, YtoRGB, UtoRGB, VtoRGB, i*YUVstride, imageWidth);
-                outPos += stride;
+            if(replicate) {
+                for(int i=0 ; i<n ; i++) {
+                    int inPos = replicateLine(i);
+                    decoder.decode(dst, outPos, lineIn[0], lineIn[1], lineIn[2], inPos, imageWidth);
+                    outPos += stride;
+                }
+            } else {
+                for(int i=0 ; i<n ; i++) {
+                    decoder.decode(dst, outPos, YtoRGB, UtoRGB, VtoRGB, i*YUVstride, imageWidth);
+                    outPos += stride;
+                }
             }
             dst.position(outPos);
 
@@ -358,68 +993,636 @@ public class JPEGDecoder {
         }
         
         checkDecodeEnd();
+
+        if(listener != null) {
+            listener.rowsDecoded(this, DecodeListener.Operation.DECODE,
+                    currentMCURow - startMCURow, getBytesConsumed(), System.nanoTime() - startTime);
+        }
     }
 
     /**
-     * Decodes each color component of the JPEG file separately into a separate
-     * ByteBuffer. The number of buffers must match the number of color channels.
-     * Each color channel can have a different sub sampling factor.
+     * Decodes the whole image into a buffer from the pool.
+     * {@link #startDecode() } must be called before this method and no MCU
+     * rows may have been decoded yet.
      *
-     * @param buffer the ByteBuffers for each color component
-     * @param strides the distance in bytes from the start of one line to the start of the next for each color component
-     * @param numMCURows the number of MCU rows to decode.
+     * <p>The image is stored without padding, the stride is
+     * {@code getImageWidth() * bytesPerPixel }. The buffer is returned to the
+     * pool with {@link DecodedImage#release() }. When decoding fails the
+     * buffer is returned to the pool before the exception is thrown.</p>
+     *
+     * @param pool the buffer pool
+     * @param decoder the {@link YUVDecoder} instance to decode the YUV data
+     * @param bytesPerPixel the number of bytes written by the YUV decoder for each pixel
+     * @return the decoded image
      * @throws IOException if an IO error occurred
-     * @throws IllegalArgumentException if numMCURows is invalid, or if the number of buffers / strides is not enough
+     * @throws IllegalArgumentException if bytesPerPixel is invalid or the image is too large
      * @throws IllegalStateException if {@link #startDecode() } has not been called
-     * @throws UnsupportedOperationException if the color components are not in the same SOS chunk
-     * @see #getNumComponents()
-     * @see #getNumMCURows()
+     *         or MCU rows have already been decoded
+     * @throws UnsupportedOperationException if the JPEG is not a color JPEG
+     * @see BufferPool#acquire(int) 
      */
-    public void decodeRAW(ByteBuffer[] buffer, int[] strides, int numMCURows) throws IOException {
+    public DecodedImage decodeImage(BufferPool pool, YUVDecoder decoder, int bytesPerPixel) throws IOException {
+        if(pool == null) {
+            throw new NullPointerException("pool");
+        }
         if(!insideSOS) {
             throw new IllegalStateException("decode not started");
         }
-
-        if(numMCURows <= 0 || currentMCURow + numMCURows > mcuCountY) {
-            throw new IllegalArgumentException("numMCURows");
+        if(currentMCURow != 0) {
+            throw new IllegalStateException("MCU rows have already been decoded");
         }
-        
-        int scanN = order.length;
-        if(scanN != components.length) {
-            throw new UnsupportedOperationException("for RAW decode all components need to be decoded at once");
+        if(bytesPerPixel <= 0) {
+            throw new IllegalArgumentException("bytesPerPixel");
         }
-        if(scanN > buffer.length || scanN > strides.length) {
-            throw new IllegalArgumentException("not enough buffers");
+        if(order.length != 3) {
+            throw new UnsupportedOperationException("RGB decode only supported for 3 channels");
         }
 
-        for(int compIdx=0 ; compIdx<scanN ; compIdx++) {
-            order[compIdx].outPos = buffer[compIdx].position();
+        final long size = (long)imageWidth * imageHeight * bytesPerPixel;
+        if(size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("image too large for a ByteBuffer");
         }
 
-        outer: for(int j=0 ; j<numMCURows ; j++) {
-            ++currentMCURow;
-            for(int i=0 ; i<mcuCountX ; i++) {
-                for(int compIdx=0 ; compIdx<scanN ; compIdx++) {
-                    Component c = order[compIdx];
-                    int outStride = strides[compIdx];
-                    int outPosY = c.outPos + 8*(i*c.blocksPerMCUHorz + j*c.blocksPerMCUVert*outStride);
-
-                    for(int y=0 ; y<c.blocksPerMCUVert ; y++,outPosY+=8*outStride) {
-                        for(int x=0,outPos=outPosY ; x<c.blocksPerMCUHorz ; x++,outPos+=8) {
-                            try {
-                                decodeBlock(data, c);
-                            } catch (ArrayIndexOutOfBoundsException ex) {
-                                throwBadHuffmanCode();
-                            }
-                            idct2D.compute(buffer[compIdx], outPos, outStride, data);
-                        }
-                    }
-                }
-                if(--todo <= 0) {
-                    if(!checkRestart()) {
-                        break outer;
-                    }
-                }
+        final int stride = imageWidth * bytesPerPixel;
+        final ByteBuffer buffer = pool.acquire((int)size);
+        boolean success = false;
+        try {
+            decode(buffer, stride, mcuCountY, decoder);
+            success = true;
+        } finally {
+            if(!success) {
+                pool.release(buffer);
+            }
+        }
+        buffer.position(0).limit((int)size);
+        return new DecodedImage(imageWidth, imageHeight, stride, bytesPerPixel, buffer, pool);
+    }
+
+    /**
+     * Decodes the remaining image into a float RGB tensor.
+     * {@link #startDecode() } must be called before this method.
+     *
+     * <p>The tensor of the whole image starts at {@code dst.position() } and
+     * has {@code 3 * getImageWidth() * getImageHeight() } elements. The color
+     * conversion writes the normalized floats directly in the requested
+     * layout. Lines which have already been decoded by other methods are
+     * not written. After decoding the buffer position is at the end of the
+     * tensor. A {@code float[]} can be used with {@link FloatBuffer#wrap(float[]) }.</p>
+     *
+     * @param dst the target FloatBuffer
+     * @param format the layout and normalization of the tensor
+     * @throws IOException if an IO error occurred
+     * @throws IllegalArgumentException if dst is too small
+     * @throws IllegalStateException if {@link #startDecode() } has not been called
+     * @throws UnsupportedOperationException if the JPEG is not a color JPEG
+     */
+    public void decodeTensor(FloatBuffer dst, TensorFormat format) throws IOException {
+        if(format == null) {
+            throw new NullPointerException("format");
+        }
+
+        if(!insideSOS) {
+            throw new IllegalStateException("decode not started");
+        }
+
+        if(order.length != 3) {
+            throw new UnsupportedOperationException("RGB decode only supported for 3 channels");
+        }
+
+        final long planeSize = (long)imageWidth * imageHeight;
+        if(dst.remaining() < planeSize * 3) {
+            throw new IllegalArgumentException("dst too small");
+        }
+
+        final long startTime = (listener != null) ? System.nanoTime() : 0;
+        final int startMCURow = currentMCURow;
+        final int YUVstride = mcuCountX * imgHMax * 8;
+        final boolean replicate = upsamplingMode == UpsamplingMode.REPLICATE &&
+                (order[0].upsampler | order[1].upsampler | order[2].upsampler) != 0;
+        final boolean requiresUpsampling;
+        if(replicate) {
+            allocateDecodeTmp();
+            allocateLineTmp(YUVstride);
+            requiresUpsampling = false;
+        } else {
+            requiresUpsampling = allocateDecodeTmp(YUVstride);
+        }
+
+        final byte[] YtoRGB = (order[0].upsampler != 0 && !replicate) ? upsampleTmp[0] : decodeTmp[0];
+        final byte[] UtoRGB = (order[1].upsampler != 0 && !replicate) ? upsampleTmp[1] : decodeTmp[1];
+        final byte[] VtoRGB = (order[2].upsampler != 0 && !replicate) ? upsampleTmp[2] : decodeTmp[2];
+
+        final boolean chw = format.getLayout() == TensorFormat.Layout.CHW;
+        final int pixelStep = chw ? 1 : 3;
+        final int channelStep = chw ? (int)planeSize : 1;
+        final int lineStride = imageWidth * pixelStep;
+        final int base = dst.position();
+        final int mcuRowHeight = imgVMax*8;
+
+        while(currentMCURow < mcuCountY) {
+            decodeMCUrow();
+
+            if(requiresUpsampling) {
+                doUpsampling(YUVstride);
+            }
+
+            int line = (currentMCURow-1) * mcuRowHeight;
+            int n = Math.min(imageHeight - line, mcuRowHeight);
+            int outPos = base + line * lineStride;
+            if(replicate) {
+                for(int i=0 ; i<n ; i++) {
+                    int inPos = replicateLine(i);
+                    format.convert(dst, outPos, pixelStep, channelStep, lineIn[0], lineIn[1], lineIn[2], inPos, imageWidth);
+                    outPos += lineStride;
+                }
+            } else {
+                for(int i=0 ; i<n ; i++) {
+                    format.convert(dst, outPos, pixelStep, channelStep, YtoRGB, UtoRGB, VtoRGB, i*YUVstride, imageWidth);
+                    outPos += lineStride;
+                }
+            }
+
+            if(marker != MARKER_NONE) {
+                break;
+            }
+        }
+        dst.position(base + (int)(planeSize * 3));
+
+        checkDecodeEnd();
+
+        if(listener != null) {
+            listener.rowsDecoded(this, DecodeListener.Operation.DECODE_TENSOR,
+                    currentMCURow - startMCURow, getBytesConsumed(), System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Decodes the remaining image into the specified ByteBuffer and applies
+     * an orientation while writing the pixels.
+     * {@link #startDecode() } must be called before this method.
+     *
+     * <p>For the orientations 5 to 8 the width and height of the output are
+     * swapped. These orientations write each MCU row as a vertical band by
+     * transposing the decoded lines - no additional image sized memory is needed.
+     * The first output line is placed at {@code dst.position() }, the second
+     * at {@code dst.position() + stride } and so on. After decoding the
+     * buffer position is at {@code dst.position() + n*stride } where n is
+     * the output height.</p>
+     *
+     * @param dst the target ByteBuffer
+     * @param stride the distance in bytes from the start of one output line to the start
+     *               of the next, can also be negative.
+     * @param bytesPerPixel the number of bytes written by the YUV decoder for each pixel
+     * @param orientation the EXIF orientation from 1 to 8
+     * @param decoder the {@link YUVDecoder} instance to decode the YUV data
+     * @throws IOException if an IO error occurred
+     * @throws IllegalArgumentException if orientation is invalid
+     * @throws IllegalStateException if {@link #startDecode() } has not been called
+     * @throws UnsupportedOperationException if the JPEG is not a color JPEG
+     * @see #getExifOrientation() 
+     */
+    public void decodeOriented(ByteBuffer dst, int stride, int bytesPerPixel, int orientation, YUVDecoder decoder) throws IOException {
+        if(decoder == null) {
+            throw new NullPointerException("decoder");
+        }
+
+        if(!insideSOS) {
+            throw new IllegalStateException("decode not started");
+        }
+
+        if(orientation < 1 || orientation > 8) {
+            throw new IllegalArgumentException("orientation");
+        }
+
+        if(order.length != 3) {
+            throw new UnsupportedOperationException("RGB decode only supported for 3 channels");
+        }
+
+        final long startTime = (listener != null) ? System.nanoTime() : 0;
+        final int startMCURow = currentMCURow;
+        final int YUVstride = mcuCountX * imgHMax * 8;
+        final boolean replicate = upsamplingMode == UpsamplingMode.REPLICATE &&
+                (order[0].upsampler | order[1].upsampler | order[2].upsampler) != 0;
+        final boolean requiresUpsampling;
+        if(replicate) {
+            allocateDecodeTmp();
+            allocateLineTmp(YUVstride);
+            requiresUpsampling = false;
+        } else {
+            requiresUpsampling = allocateDecodeTmp(YUVstride);
+        }
+
+        final byte[] YtoRGB = (order[0].upsampler != 0 && !replicate) ? upsampleTmp[0] : decodeTmp[0];
+        final byte[] UtoRGB = (order[1].upsampler != 0 && !replicate) ? upsampleTmp[1] : decodeTmp[1];
+        final byte[] VtoRGB = (order[2].upsampler != 0 && !replicate) ? upsampleTmp[2] : decodeTmp[2];
+
+        final int mcuRowHeight = imgVMax * 8;
+        final boolean transpose = orientation >= 5;
+        final boolean flipX = orientation == 2 || orientation == 3;
+        final boolean flipY = orientation == 3 || orientation == 4;
+        final boolean reverse = orientation == 6 || orientation == 7;
+        final boolean mirror = orientation == 7 || orientation == 8;
+        final int tmpSize = transpose ? imageWidth * mcuRowHeight : imageWidth;
+        if(orientTmp == null || orientTmp[0].length < tmpSize) {
+            orientTmp = new byte[3][tmpSize];
+        }
+
+        final int base = dst.position();
+
+        while(currentMCURow < mcuCountY) {
+            int y0 = currentMCURow * mcuRowHeight;
+            decodeMCUrow();
+
+            if(requiresUpsampling) {
+                doUpsampling(YUVstride);
+            }
+
+            int n = Math.min(imageHeight - y0, mcuRowHeight);
+            for(int i=0 ; i<n ; i++) {
+                byte[] inY = YtoRGB;
+                byte[] inU = UtoRGB;
+                byte[] inV = VtoRGB;
+                int inPos = i*YUVstride;
+                if(replicate) {
+                    inPos = replicateLine(i);
+                    inY = lineIn[0];
+                    inU = lineIn[1];
+                    inV = lineIn[2];
+                }
+
+                if(transpose) {
+                    int k = reverse ? n-1-i : i;
+                    transposeLine(orientTmp[0], inY, inPos, n, k);
+                    transposeLine(orientTmp[1], inU, inPos, n, k);
+                    transposeLine(orientTmp[2], inV, inPos, n, k);
+                } else {
+                    int y = y0 + i;
+                    int outPos = base + (flipY ? imageHeight-1-y : y) * stride;
+                    if(flipX) {
+                        reverseLine(orientTmp[0], inY, inPos);
+                        reverseLine(orientTmp[1], inU, inPos);
+                        reverseLine(orientTmp[2], inV, inPos);
+                        decoder.decode(dst, outPos, orientTmp[0], orientTmp[1], orientTmp[2], 0, imageWidth);
+                    } else {
+                        decoder.decode(dst, outPos, inY, inU, inV, inPos, imageWidth);
+                    }
+                }
+            }
+
+            if(transpose) {
+                int outPos = base + (reverse ? imageHeight - y0 - n : y0) * bytesPerPixel;
+                for(int oy=0 ; oy<imageWidth ; oy++,outPos+=stride) {
+                    int sx = mirror ? imageWidth-1-oy : oy;
+                    decoder.decode(dst, outPos, orientTmp[0], orientTmp[1], orientTmp[2], sx*n, n);
+                }
+            }
+
+            if(marker != MARKER_NONE) {
+                break;
+            }
+        }
+
+        dst.position(base + (transpose ? imageWidth : imageHeight) * stride);
+        checkDecodeEnd();
+
+        if(listener != null) {
+            listener.rowsDecoded(this, DecodeListener.Operation.DECODE,
+                    currentMCURow - startMCURow, getBytesConsumed(), System.nanoTime() - startTime);
+        }
+    }
+
+    private void transposeLine(byte[] out, byte[] in, int inPos, int n, int k) {
+        for(int x=0,outPos=k ; x<imageWidth ; x++,outPos+=n) {
+            out[outPos] = in[inPos+x];
+        }
+    }
+
+    private void reverseLine(byte[] out, byte[] in, int inPos) {
+        for(int x=0,outPos=imageWidth-1 ; x<imageWidth ; x++,outPos--) {
+            out[outPos] = in[inPos+x];
+        }
+    }
+
+    /**
+     * Decodes a number of MCU rows into a file using the specified YUV decoder.
+     * {@link #startDecode() } must be called before this method.
+     *
+     * <p>The output is written through memory mapped windows of the file, so
+     * the decoded image can be larger than 2 GB and is not held on the heap.
+     * The file is extended when needed. The first decoded line is placed at
+     * {@code position}, the second line at {@code position + stride} and so on.</p>
+     *
+     * @param dst the target file - must be opened for reading and writing
+     * @param position the file position of the first decoded line
+     * @param stride the distance in bytes from the start of one line to the start
+     *               of the next, must be positive.
+     * @param numMCURows the number of MCU rows to decode.
+     * @param decoder the {@link YUVDecoder} instance to decode the YUV data
+     * @return the file position after the last decoded line
+     * @throws IOException if an IO error occurred
+     * @throws IllegalArgumentException if numMCURows or stride is invalid
+     * @throws IllegalStateException if {@link #startDecode() } has not been called
+     * @throws UnsupportedOperationException if the JPEG is not a color JPEG
+     * @see #decode(java.nio.ByteBuffer, int, int, de.matthiasmann.jpegdecoder.YUVDecoder) 
+     */
+    public long decode(FileChannel dst, long position, long stride, int numMCURows, YUVDecoder decoder) throws IOException {
+        if(dst == null) {
+            throw new NullPointerException("dst");
+        }
+        if(!insideSOS) {
+            throw new IllegalStateException("decode not started");
+        }
+        if(numMCURows <= 0 || currentMCURow + numMCURows > mcuCountY) {
+            throw new IllegalArgumentException("numMCURows");
+        }
+
+        final int mcuRowHeight = imgVMax * 8;
+        if(stride <= 0 || stride > Integer.MAX_VALUE / mcuRowHeight) {
+            throw new IllegalArgumentException("stride");
+        }
+
+        final int rowsPerWindow = (int)Math.max(1, MAPPING_WINDOW_SIZE / (stride * mcuRowHeight));
+        while(numMCURows > 0 && insideSOS) {
+            int rows = Math.min(numMCURows, rowsPerWindow);
+            int lines = Math.min(rows * mcuRowHeight, imageHeight - currentMCURow * mcuRowHeight);
+            MappedByteBuffer buf = dst.map(FileChannel.MapMode.READ_WRITE, position, lines * stride);
+            decode(buf, (int)stride, rows, decoder);
+            position += buf.position();
+            numMCURows -= rows;
+        }
+        return position;
+    }
+
+    /**
+     * Decodes a number of MCU rows into planar YUV 4:2:0 data (I420).
+     * {@link #startDecode() } must be called before this method.
+     *
+     * <p>The Y plane is {@link #getImageWidth() } x {@link #getImageHeight() } samples,
+     * the U and V planes have half the width and height (rounded up). Chroma
+     * components with a higher resolution are downsampled with a box filter,
+     * gray scale images produce U and V planes filled with 128.</p>
+     *
+     * <p>The buffer positions are advanced like in
+     * {@link #decode(java.nio.ByteBuffer, int, int, de.matthiasmann.jpegdecoder.YUVDecoder) }
+     * by the number of decoded Y or U/V lines.</p>
+     *
+     * @param dstY the target ByteBuffer for the Y plane
+     * @param strideY the distance in bytes from the start of one Y line to the start of the next
+     * @param dstU the target ByteBuffer for the U plane
+     * @param dstV the target ByteBuffer for the V plane
+     * @param strideUV the distance in bytes from the start of one U or V line to the start of the next
+     * @param numMCURows the number of MCU rows to decode.
+     * @throws IOException if an IO error occurred
+     * @throws IllegalArgumentException if numMCURows is invalid
+     * @throws IllegalStateException if {@link #startDecode() } has not been called
+     * @throws UnsupportedOperationException if the color components are not in the same SOS chunk
+     * @see #getNumMCURows()
+     */
+    public void decodeI420(ByteBuffer dstY, int strideY, ByteBuffer dstU, ByteBuffer dstV, int strideUV, int numMCURows) throws IOException {
+        if(dstU == null || dstV == null) {
+            throw new NullPointerException("dstU, dstV");
+        }
+        decodeYUV420(dstY, strideY, dstU, dstV, strideUV, numMCURows, DecodeListener.Operation.DECODE_I420);
+    }
+
+    /**
+     * Decodes a number of MCU rows into semi planar YUV 4:2:0 data (NV12).
+     * {@link #startDecode() } must be called before this method.
+     *
+     * <p>Same as {@link #decodeI420(java.nio.ByteBuffer, int, java.nio.ByteBuffer, java.nio.ByteBuffer, int, int) }
+     * except that U and V are interleaved into one plane.</p>
+     *
+     * @param dstY the target ByteBuffer for the Y plane
+     * @param strideY the distance in bytes from the start of one Y line to the start of the next
+     * @param dstUV the target ByteBuffer for the interleaved U/V plane
+     * @param strideUV the distance in bytes from the start of one U/V line to the start of the next
+     * @param numMCURows the number of MCU rows to decode.
+     * @throws IOException if an IO error occurred
+     * @throws IllegalArgumentException if numMCURows is invalid
+     * @throws IllegalStateException if {@link #startDecode() } has not been called
+     * @throws UnsupportedOperationException if the color components are not in the same SOS chunk
+     * @see #getNumMCURows()
+     */
+    public void decodeNV12(ByteBuffer dstY, int strideY, ByteBuffer dstUV, int strideUV, int numMCURows) throws IOException {
+        if(dstUV == null) {
+            throw new NullPointerException("dstUV");
+        }
+        decodeYUV420(dstY, strideY, dstUV, null, strideUV, numMCURows, DecodeListener.Operation.DECODE_NV12);
+    }
+
+    /**
+     * Decodes a number of MCU rows of the luma (Y) component into the
+     * specified ByteBuffer as 8 bit gray scale data.
+     * {@link #startDecode() } must be called before this method.
+     *
+     * <p>The blocks of the chroma components are only parsed to advance in
+     * the entropy coded data - they are not dequantized or transformed and
+     * no upsampling or color conversion takes place. A luma component with
+     * a lower resolution than the image is upsampled.</p>
+     *
+     * <p>The first decoded line is placed at {@code dst.position() },
+     * the second line at {@code dst.position() + stride } and so on. After decoding
+     * the buffer position is at {@code dst.position() + n*stride } where n is
+     * the number of decoded lines which might be less than
+     * {@code numMCURows * getMCURowHeight() } at the end of the image.</p>
+     *
+     * @param dst the target ByteBuffer
+     * @param stride the distance in bytes from the start of one line to the start
+     *               of the next, can also be negative.
+     * @param numMCURows the number of MCU rows to decode.
+     * @throws IOException if an IO error occurred
+     * @throws IllegalArgumentException if numMCURows is invalid
+     * @throws IllegalStateException if {@link #startDecode() } has not been called
+     * @throws UnsupportedOperationException if not all components are decoded at once
+     * @see #getNumMCURows() 
+     */
+    public void decodeLuma(ByteBuffer dst, int stride, int numMCURows) throws IOException {
+        if(!insideSOS) {
+            throw new IllegalStateException("decode not started");
+        }
+
+        if(numMCURows <= 0 || currentMCURow + numMCURows > mcuCountY) {
+            throw new IllegalArgumentException("numMCURows");
+        }
+
+        if(order.length != components.length) {
+            throw new UnsupportedOperationException("for luma decode all components need to be decoded at once");
+        }
+
+        final long startTime = (listener != null) ? System.nanoTime() : 0;
+        final int startMCURow = currentMCURow;
+        allocateDecodeTmp();
+
+        for(int j=0 ; j<numMCURows ; j++) {
+            decodeMCUrow(true);
+
+            int n = imgVMax*8;
+            n = Math.min(imageHeight - (currentMCURow-1)*n, n);
+
+            int outPos = dst.position();
+            for(int i=0 ; i<n ; i++) {
+                downsampleRow(dst, outPos, 1, 0, i, 1, imageWidth);
+                outPos += stride;
+            }
+            dst.position(outPos);
+
+            if(marker != MARKER_NONE) {
+                break;
+            }
+        }
+
+        checkDecodeEnd();
+
+        if(listener != null) {
+            listener.rowsDecoded(this, DecodeListener.Operation.DECODE_LUMA,
+                    currentMCURow - startMCURow, getBytesConsumed(), System.nanoTime() - startTime);
+        }
+    }
+
+    private void decodeYUV420(ByteBuffer dstY, int strideY, ByteBuffer dstU, ByteBuffer dstV, int strideUV, int numMCURows, DecodeListener.Operation op) throws IOException {
+        if(!insideSOS) {
+            throw new IllegalStateException("decode not started");
+        }
+
+        if(numMCURows <= 0 || currentMCURow + numMCURows > mcuCountY) {
+            throw new IllegalArgumentException("numMCURows");
+        }
+
+        if(order.length != components.length) {
+            throw new UnsupportedOperationException("for YUV decode all components need to be decoded at once");
+        }
+
+        final long startTime = (listener != null) ? System.nanoTime() : 0;
+        final int startMCURow = currentMCURow;
+        final int widthUV = (imageWidth + 1) >> 1;
+        final int stepUV = (dstV == null) ? 2 : 1;
+        allocateDecodeTmp();
+
+        for(int j=0 ; j<numMCURows ; j++) {
+            decodeMCUrow();
+
+            int n = imgVMax*8;
+            n = Math.min(imageHeight - (currentMCURow-1)*n, n);
+
+            int outPos = dstY.position();
+            for(int i=0 ; i<n ; i++) {
+                downsampleRow(dstY, outPos, 1, 0, i, 1, imageWidth);
+                outPos += strideY;
+            }
+            dstY.position(outPos);
+
+            int outPosU = dstU.position();
+            int outPosV = (dstV == null) ? outPosU + 1 : dstV.position();
+            for(int i=0,nUV=(n+1)>>1 ; i<nUV ; i++) {
+                if(order.length == 3) {
+                    downsampleRow(dstU, outPosU, stepUV, 1, i, 2, widthUV);
+                    downsampleRow((dstV == null) ? dstU : dstV, outPosV, stepUV, 2, i, 2, widthUV);
+                } else {
+                    for(int x=0 ; x<widthUV*stepUV ; x++) {
+                        dstU.put(outPosU + x, (byte)128);
+                    }
+                    if(dstV != null) {
+                        for(int x=0 ; x<widthUV ; x++) {
+                            dstV.put(outPosV + x, (byte)128);
+                        }
+                    }
+                }
+                outPosU += strideUV;
+                outPosV += strideUV;
+            }
+            dstU.position(outPosU);
+            if(dstV != null) {
+                dstV.position(outPosV);
+            }
+
+            if(marker != MARKER_NONE) {
+                break;
+            }
+        }
+
+        checkDecodeEnd();
+
+        if(listener != null) {
+            listener.rowsDecoded(this, op,
+                    currentMCURow - startMCURow, getBytesConsumed(), System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Decodes each color component of the JPEG file separately into a separate
+     * ByteBuffer. The number of buffers must match the number of color channels.
+     * Each color channel can have a different sub sampling factor.
+     *
+     * @param buffer the ByteBuffers for each color component
+     * @param strides the distance in bytes from the start of one line to the start of the next for each color component
+     * @param numMCURows the number of MCU rows to decode.
+     * @throws IOException if an IO error occurred
+     * @throws IllegalArgumentException if numMCURows is invalid, or if the number of buffers / strides is not enough
+     * @throws IllegalStateException if {@link #startDecode() } has not been called
+     * @see #getNumComponents()
+     * @see #getNumMCURows()
+     */
+    public void decodeRAW(ByteBuffer[] buffer, int[] strides, int numMCURows) throws IOException {
+        if(!insideSOS) {
+            throw new IllegalStateException("decode not started");
+        }
+
+        if(numMCURows <= 0 || currentMCURow + numMCURows > mcuCountY) {
+            throw new IllegalArgumentException("numMCURows");
+        }
+        
+        int scanN = order.length;
+        if(scanN != components.length) {
+            throw new UnsupportedOperationException("for RAW decode all components need to be decoded at once");
+        }
+        if(scanN > buffer.length || scanN > strides.length) {
+            throw new IllegalArgumentException("not enough buffers");
+        }
+
+        final long startTime = (listener != null) ? System.nanoTime() : 0;
+        final int startMCURow = currentMCURow;
+        for(int compIdx=0 ; compIdx<scanN ; compIdx++) {
+            order[compIdx].outPos = buffer[compIdx].position();
+        }
+
+        if(multiScan) {
+            checkAbort();
+            for(int compIdx=0 ; compIdx<scanN ; compIdx++) {
+                Component c = order[compIdx];
+                ByteBuffer bb = buffer[compIdx].duplicate();
+                int lines = numMCURows * c.blocksPerMCUVert * 8;
+                int inPos = currentMCURow * c.blocksPerMCUVert * 8 * c.minReqWidth;
+                for(int y=0,outPos=c.outPos ; y<lines ; y++,outPos+=strides[compIdx],inPos+=c.minReqWidth) {
+                    bb.position(outPos);
+                    bb.put(planes[compIdx], inPos, c.minReqWidth);
+                }
+            }
+            currentMCURow += numMCURows;
+        } else {
+            outer: for(int j=0 ; j<numMCURows ; j++) {
+                checkAbort();
+                ++currentMCURow;
+                for(int i=0 ; i<mcuCountX ; i++) {
+                    for(int compIdx=0 ; compIdx<scanN ; compIdx++) {
+                        Component c = order[compIdx];
+                        int outStride = strides[compIdx];
+                        int outPosY = c.outPos + 8*(i*c.blocksPerMCUHorz + j*c.blocksPerMCUVert*outStride);
+
+                        for(int y=0 ; y<c.blocksPerMCUVert ; y++,outPosY+=8*outStride) {
+                            for(int x=0,outPos=outPosY ; x<c.blocksPerMCUHorz ; x++,outPos+=8) {
+                                try {
+                                    decodeBlock(data, c);
+                                } catch (ArrayIndexOutOfBoundsException ex) {
+                                    concealCorruptData();
+                                }
+                                idct2D.compute(buffer[compIdx], outPos, outStride, data);
+                            }
+                        }
+                    }
+                    if(!nextMCU()) {
+                        break outer;
+                    }
+                }
             }
         }
 
@@ -429,6 +1632,11 @@ public class JPEGDecoder {
             Component c = order[compIdx];
             buffer[compIdx].position(c.outPos + numMCURows * c.blocksPerMCUVert * 8 * strides[compIdx]);
         }
+
+        if(listener != null) {
+            listener.rowsDecoded(this, DecodeListener.Operation.DECODE_RAW,
+                    currentMCURow - startMCURow, getBytesConsumed(), System.nanoTime() - startTime);
+        }
     }
 
     /**
@@ -458,15 +1666,21 @@ public class JPEGDecoder {
         if(scanN != components.length) {
             throw new UnsupportedOperationException("for RAW decode all components need to be decoded at once");
         }
+        if(multiScan) {
+            throw new UnsupportedOperationException("DCT coefficients are not available for multi scan images or parallel decoding");
+        }
         if(scanN > buffer.length) {
             throw new IllegalArgumentException("not enough buffers");
         }
 
+        final long startTime = (listener != null) ? System.nanoTime() : 0;
+        final int startMCURow = currentMCURow;
         for(int compIdx=0 ; compIdx<scanN ; compIdx++) {
             order[compIdx].outPos = buffer[compIdx].position();
         }
 
         outer: for(int j=0 ; j<numMCURows ; j++) {
+            checkAbort();
             ++currentMCURow;
             for(int i=0 ; i<mcuCountX ; i++) {
                 for(int compIdx=0 ; compIdx<scanN ; compIdx++) {
@@ -481,17 +1695,15 @@ public class JPEGDecoder {
                             try {
                                 decodeBlock(data, c);
                             } catch (ArrayIndexOutOfBoundsException ex) {
-                                throwBadHuffmanCode();
+                                concealCorruptData();
                             }
                             sb.put(data);
                         }
                         outPos += outStride;
                     }
                 }
-                if(--todo <= 0) {
-                    if(!checkRestart()) {
-                        break outer;
-                    }
+                if(!nextMCU()) {
+                    break outer;
                 }
             }
         }
@@ -503,12 +1715,388 @@ public class JPEGDecoder {
             int outStride = 64 * c.blocksPerMCUHorz * mcuCountX;
             buffer[compIdx].position(c.outPos + numMCURows * c.blocksPerMCUVert * outStride);
         }
+
+        if(listener != null) {
+            listener.rowsDecoded(this, DecodeListener.Operation.DECODE_DCT_COEFFS,
+                    currentMCURow - startMCURow, getBytesConsumed(), System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Decodes the dequantizied DCT coefficients of a number of MCU rows in a
+     * sparse format. Only the non zero coefficients are stored - without the
+     * dense block layout of {@link #decodeDCTCoeffs(java.nio.ShortBuffer[], int) }.
+     * The components are stored in the order of the scan.
+     *
+     * @param dst the target which is cleared before decoding and can be reused
+     * @param numMCURows the number of MCU rows to decode.
+     * @throws IOException if an IO error occurred
+     * @throws IllegalArgumentException if numMCURows is invalid
+     * @throws IllegalStateException if {@link #startDecode() } has not been called
+     * @throws UnsupportedOperationException if the color components are not in the same SOS chunk
+     * @see SparseCoefficients#iterator(int) 
+     */
+    public void decodeSparseCoeffs(SparseCoefficients dst, int numMCURows) throws IOException {
+        if(!insideSOS) {
+            throw new IllegalStateException("decode not started");
+        }
+
+        if(numMCURows <= 0 || currentMCURow + numMCURows > mcuCountY) {
+            throw new IllegalArgumentException("numMCURows");
+        }
+
+        int scanN = order.length;
+        if(scanN != components.length) {
+            throw new UnsupportedOperationException("for sparse coefficient decode all components need to be decoded at once");
+        }
+        if(multiScan) {
+            throw new UnsupportedOperationException("DCT coefficients are not available for multi scan images or parallel decoding");
+        }
+
+        final long startTime = (listener != null) ? System.nanoTime() : 0;
+        final int startMCURow = currentMCURow;
+        dst.reset(order, mcuCountX, currentMCURow);
+
+        outer: for(int j=0 ; j<numMCURows ; j++) {
+            checkAbort();
+            ++currentMCURow;
+            for(int i=0 ; i<mcuCountX ; i++) {
+                for(int compIdx=0 ; compIdx<scanN ; compIdx++) {
+                    Component c = order[compIdx];
+                    int n = c.blocksPerMCUHorz * c.blocksPerMCUVert;
+                    int[] out = dst.ensureCapacity(compIdx, n * 65);
+                    int pos = dst.length[compIdx];
+                    for(int b=0 ; b<n ; b++) {
+                        try {
+                            pos = decodeBlockSparse(out, pos, c);
+                        } catch (ArrayIndexOutOfBoundsException ex) {
+                            concealCorruptData();
+                            out[pos++] = 0;
+                        }
+                    }
+                    dst.length[compIdx] = pos;
+                    dst.numBlocks[compIdx] += n;
+                }
+                if(!nextMCU()) {
+                    break outer;
+                }
+            }
+        }
+
+        checkDecodeEnd();
+
+        if(listener != null) {
+            listener.rowsDecoded(this, DecodeListener.Operation.DECODE_SPARSE_COEFFS,
+                    currentMCURow - startMCURow, getBytesConsumed(), System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * Computes a perceptual fingerprint of the image from the DC coefficients.
+     * {@link #startDecode() } must be called before this method and no MCU rows
+     * must have been decoded yet. The remaining image data is consumed.
+     *
+     * <p>Only the huffman codes are decoded - AC coefficients are skipped and
+     * no IDCT, upsampling or color conversion is performed.</p>
+     *
+     * @return the fingerprint of the image
+     * @throws IOException if an IO error occurred
+     * @throws IllegalStateException if {@link #startDecode() } has not been called or MCU rows have already been decoded
+     * @throws UnsupportedOperationException if the color components are not in the same SOS chunk
+     */
+    public JPEGFingerprint decodeFingerprint() throws IOException {
+        if(!insideSOS || currentMCURow != 0) {
+            throw new IllegalStateException("decode not started");
+        }
+
+        int scanN = order.length;
+        if(scanN != components.length || multiScan) {
+            throw new UnsupportedOperationException("for fingerprint decode all components need to be decoded at once");
+        }
+
+        final long startTime = (listener != null) ? System.nanoTime() : 0;
+        final Component luma = components[0];
+        final int blocksX = (luma.width + 7) >> 3;
+        final int blocksY = (luma.height + 7) >> 3;
+        final byte[] thumbnail = new byte[blocksX * blocksY];
+
+        outer: for(int j=0 ; j<mcuCountY ; j++) {
+            checkAbort();
+            ++currentMCURow;
+            for(int i=0 ; i<mcuCountX ; i++) {
+                for(int compIdx=0 ; compIdx<scanN ; compIdx++) {
+                    Component c = order[compIdx];
+                    for(int y=0 ; y<c.blocksPerMCUVert ; y++) {
+                        int by = j*c.blocksPerMCUVert + y;
+                        for(int x=0 ; x<c.blocksPerMCUHorz ; x++) {
+                            int dc = 0;
+                            try {
+                                dc = decodeBlockDC(c);
+                            } catch (ArrayIndexOutOfBoundsException ex) {
+                                concealCorruptData();
+                            }
+                            int bx = i*c.blocksPerMCUHorz + x;
+                            if(c == luma && bx < blocksX && by < blocksY) {
+                                int v = 128 + (dc >> 3);
+                                thumbnail[by*blocksX + bx] = (byte)((v < 0) ? 0 : (v > 255) ? 255 : v);
+                            }
+                        }
+                    }
+                }
+                if(!nextMCU()) {
+                    break outer;
+                }
+            }
+        }
+
+        checkDecodeEnd();
+
+        if(listener != null) {
+            listener.rowsDecoded(this, DecodeListener.Operation.DECODE_FINGERPRINT,
+                    currentMCURow, getBytesConsumed(), System.nanoTime() - startTime);
+        }
+
+        return new JPEGFingerprint(blocksX, blocksY, thumbnail);
+    }
+
+    /**
+     * Decodes all scans of a non-interleaved image into one plane per
+     * component. The decode methods then read the MCU rows from these planes.
+     *
+     * @param startTime the start time for the listener
+     */
+    private void decodeMultiScan(long startTime) throws IOException {
+        allocatePlanes();
+
+        int decodedComponents = 0;
+        for(;;) {
+            decodeScanToPlanes();
+            for(Component c : order) {
+                decodedComponents |= 1 << indexOf(c);
+            }
+
+            currentMCURow = mcuCountY;
+            checkDecodeEnd();
+
+            if(decodedComponents == (1 << components.length) - 1) {
+                break;
+            }
+
+            int m = getMarker();
+            while(m != 0xDA && m != 0xD9) {
+                processMarker(m);
+                m = getMarker();
+            }
+            if(m == 0xD9) {
+                // missing scans - the components stay gray
+                marker = m;
+                break;
+            }
+
+            processScanHeader();
+            restartMarkerIdx = 0;
+            reset();
+            if(listener != null) {
+                listener.scanStarted(this, order.length, getBytesConsumed(), System.nanoTime() - startTime);
+            }
+        }
+
+        order = components;
+        multiScan = true;
+        multiScanMarker = marker;
+        marker = MARKER_NONE;
+        insideSOS = true;
+        currentMCURow = 0;
+    }
+
+    /**
+     * Decodes the current scan with the {@link ParallelHuffmanDecoder} into
+     * one plane per component.
+     */
+    private void decodeParallel() throws IOException {
+        int length = readEntropyData();
+        checkAbort();
+        allocatePlanes();
+
+        if(scanPlanes == null || scanPlanes.length != order.length) {
+            scanPlanes = new byte[order.length][];
+        }
+        for(int compIdx=0 ; compIdx<order.length ; compIdx++) {
+            scanPlanes[compIdx] = planes[indexOf(order[compIdx])];
+        }
+
+        if(parallelDecoder == null) {
+            parallelDecoder = new ParallelHuffmanDecoder(this);
+        }
+        parallelDecoder.decode(scanData, length, order, scanPlanes,
+                mcuCountX, mcuCountY, parallelExecutor, parallelTasks);
+
+        order = components;
+        multiScan = true;
+        multiScanMarker = marker;
+        marker = MARKER_NONE;
+    }
+
+    /**
+     * Reads the entropy coded data up to the next marker into scanData and
+     * removes the stuffed zero bytes. The marker is stored in marker.
+     *
+     * @return the number of bytes in scanData
+     */
+    private int readEntropyData() throws IOException {
+        byte[] buf = scanData;
+        if(buf == null) {
+            buf = new byte[65536];
+        }
+        int len = 0;
+        for(;;) {
+            if(inputBufferPos == inputBufferValid) {
+                fetch();
+                checkAbort();
+            }
+            if(len == buf.length) {
+                if(len >= MAX_SCAN_DATA_SIZE) {
+                    throw new IOException("entropy coded data too large for parallel decoding");
+                }
+                int newLen = Math.min(len * 2, MAX_SCAN_DATA_SIZE);
+                checkScratchBytes(rowScratchBytes + planeScratchBytes + newLen);
+                byte[] newBuf = new byte[newLen];
+                System.arraycopy(buf, 0, newBuf, 0, len);
+                buf = newBuf;
+            }
+
+            final byte[] in = inputBuffer;
+            int pos = inputBufferPos;
+            int end = Math.min(inputBufferValid, pos + buf.length - len);
+            while(pos < end && in[pos] != (byte)0xFF) {
+                buf[len++] = in[pos++];
+            }
+            inputBufferPos = pos;
+
+            if(pos < end) {
+                inputBufferPos++;
+                int m = getU8();
+                while(m == 0xFF) {
+                    m = getU8();
+                }
+                if(m != 0) {
+                    marker = m;
+                    scanData = buf;
+                    return len;
+                }
+                buf[len++] = (byte)0xFF;
+            }
+        }
+    }
+
+    private void decodeScanToPlanes() throws IOException {
+        if(order.length == 1) {
+            // non-interleaved scans have one block per MCU
+            Component c = order[0];
+            byte[] plane = planes[indexOf(c)];
+            int stride = c.minReqWidth;
+            int blocksX = (c.width + 7) >> 3;
+            int blocksY = (c.height + 7) >> 3;
+
+            outer: for(int by=0 ; by<blocksY ; by++) {
+                checkAbort();
+                for(int bx=0,outPos=by*8*stride ; bx<blocksX ; bx++,outPos+=8) {
+                    try {
+                        decodeBlock(data, c);
+                    } catch (ArrayIndexOutOfBoundsException ex) {
+                        concealCorruptData();
+                    }
+                    idct2D.compute(plane, outPos, stride, data);
+                    if(!nextMCU()) {
+                        break outer;
+                    }
+                }
+            }
+
+            // replicate the edge into the MCU padding
+            for(int y=0,pos=0 ; y<blocksY*8 ; y++,pos+=stride) {
+                Arrays.fill(plane, pos + blocksX*8, pos + stride, plane[pos + blocksX*8 - 1]);
+            }
+            for(int y=blocksY*8 ; y<c.minReqHeight ; y++) {
+                System.arraycopy(plane, (blocksY*8 - 1)*stride, plane, y*stride, stride);
+            }
+        } else {
+            outer: for(int j=0 ; j<mcuCountY ; j++) {
+                checkAbort();
+                for(int i=0 ; i<mcuCountX ; i++) {
+                    for(int compIdx=0 ; compIdx<order.length ; compIdx++) {
+                        Component c = order[compIdx];
+                        byte[] plane = planes[indexOf(c)];
+                        int stride = c.minReqWidth;
+                        int outPosY = 8*(i*c.blocksPerMCUHorz + j*c.blocksPerMCUVert*stride);
+
+                        for(int y=0 ; y<c.blocksPerMCUVert ; y++,outPosY+=8*stride) {
+                            for(int x=0,outPos=outPosY ; x<c.blocksPerMCUHorz ; x++,outPos+=8) {
+                                try {
+                                    decodeBlock(data, c);
+                                } catch (ArrayIndexOutOfBoundsException ex) {
+                                    concealCorruptData();
+                                }
+                                idct2D.compute(plane, outPos, stride, data);
+                            }
+                        }
+                    }
+                    if(!nextMCU()) {
+                        break outer;
+                    }
+                }
+            }
+        }
+    }
+
+    private int indexOf(Component c) {
+        int idx = 0;
+        while(components[idx] != c) {
+            idx++;
+        }
+        return idx;
+    }
+
+    private void allocatePlanes() throws IOException {
+        checkScratchBytes(rowScratchBytes + planeScratchBytes);
+        if(planes == null || planes.length < components.length) {
+            planes = new byte[components.length][];
+        }
+        for(int compIdx=0 ; compIdx<components.length ; compIdx++) {
+            Component c = components[compIdx];
+            int reqSize = c.minReqWidth * c.minReqHeight;
+            if(planes[compIdx] == null || planes[compIdx].length < reqSize) {
+                planes[compIdx] = new byte[reqSize];
+            }
+            // components without a scan are gray
+            Arrays.fill(planes[compIdx], 0, reqSize, (byte)128);
+        }
     }
 
     private void checkDecodeEnd() throws IOException {
+        if(multiScan) {
+            if(currentMCURow >= mcuCountY) {
+                insideSOS = false;
+                multiScan = false;
+                marker = multiScanMarker;
+            }
+            return;
+        }
+        takeArithmeticMarker();
+        if(arithmeticCoding && currentMCURow >= mcuCountY && marker == MARKER_NONE) {
+            marker = findMarker();
+        }
         if(currentMCURow >= mcuCountY || marker != MARKER_NONE) {
             insideSOS = false;
-            if(marker == MARKER_NONE) {
+            if(concealMCUs > 0) {
+                concealMCUs = 0;
+                marker = concealMarker;
+            }
+            if(errorConcealment != ErrorConcealment.NONE) {
+                while(marker == MARKER_NONE || (marker >= 0xD0 && marker <= 0xD7)) {
+                    marker = findMarker();
+                }
+            } else if(marker == MARKER_NONE) {
                 skipPadding();
             }
         }
@@ -516,10 +2104,7 @@ public class JPEGDecoder {
 
     private void fetch() throws IOException {
         try {
-            inputBufferPos = 0;
-            inputBufferValid = is.read(inputBuffer);
-            
-            if(inputBufferValid <= 0) {
+            if(!readInput()) {
                 throw new EOFException();
             }
         } catch (IOException ex) {
@@ -527,12 +2112,40 @@ public class JPEGDecoder {
             inputBuffer[0] = (byte)0xFF;
             inputBuffer[1] = (byte)0xD9;    // EOI
 
-            if(!ignoreIOerror) {
+            // with error concealment the injected EOI ends a truncated scan
+            // and the missing MCUs are concealed
+            if(!ignoreIOerror && (errorConcealment == ErrorConcealment.NONE || !insideSOS)) {
                 throw ex;
             }
         }
     }
 
+    private boolean readInput() throws IOException {
+        inputBuffer = fetchBuffer;
+        inputBufferPos = 0;
+        if(is != null) {
+            inputBufferValid = is.read(inputBuffer);
+        } else {
+            inputBufferValid = Math.min(inputByteBuffer.remaining(), inputBuffer.length);
+            inputByteBuffer.get(inputBuffer, 0, inputBufferValid);
+        }
+
+        if(inputBufferValid <= 0) {
+            inputBufferValid = 0;
+            return false;
+        }
+        inputBytesFetched += inputBufferValid;
+        return true;
+    }
+
+    private boolean hasMoreInput() throws IOException {
+        return inputBufferPos < inputBufferValid || readInput();
+    }
+
+    private long getBytesConsumed() {
+        return inputBytesFetched - (inputBufferValid - inputBufferPos);
+    }
+
     private void read(byte[] buf, int off, int len) throws IOException {
         while(len > 0) {
             int avail = inputBufferValid - inputBufferPos;
@@ -548,7 +2161,7 @@ public class JPEGDecoder {
         }
     }
 
-    private int getU8() throws IOException {
+    int getU8() throws IOException {
         if(inputBufferPos == inputBufferValid) {
             fetch();
         }
@@ -589,6 +2202,8 @@ public class JPEGDecoder {
                 if(b == 0xff) {
                     growBufferCheckMarker();
                 }
+            } else {
+                paddingBits += 8;
             }
             codeBuffer |= b << (24 - codeBits);
             codeBits   += 8;
@@ -641,6 +2256,16 @@ public class JPEGDecoder {
 
     private void decodeBlock(short[] data, Component c) throws IOException {
         Arrays.fill(data, (short)0);
+        if(concealMCUs > 0) {
+            return;
+        }
+
+        if(arithmeticCoding) {
+            if(!arithmetic.decodeBlock(data, c)) {
+                concealArithmeticError();
+            }
+            return;
+        }
 
         final byte[] dq = c.dequant;
 
@@ -671,10 +2296,207 @@ public class JPEGDecoder {
         } while(++k < 64);
     }
 
+    /**
+     * Decodes a block into the packed format of {@link SparseCoefficients}.
+     *
+     * @param out the output array with room for 65 ints
+     * @param pos the position of the block header
+     * @param c the color component
+     * @return the position after the block
+     */
+    private int decodeBlockSparse(int[] out, int pos, Component c) throws IOException {
+        final int headerPos = pos++;
+
+        if(concealMCUs > 0 || arithmeticCoding) {
+            decodeBlock(data, c);
+            int eob = 0;
+            for(int k=0 ; k<64 ; k++) {
+                int v = data[dezigzag[k]];
+                if(v != 0) {
+                    out[pos++] = (v << 6) | k;
+                    eob = k + 1;
+                }
+            }
+            out[headerPos] = (eob << 8) | (pos - headerPos - 1);
+            return pos;
+        }
+
+        final byte[] dq = c.dequant;
+        int eob = 0;
+
+        {
+            int t = decode(c.huffDC);
+            int dc = c.dcPred;
+            if(t > 0) {
+                dc += extendReceive(t);
+                c.dcPred = dc;
+            }
+            if(dc != 0) {
+                out[pos++] = (dc * (dq[0] & 0xFF)) << 6;
+                eob = 1;
+            }
+        }
+
+        final Huffman hac = c.huffAC;
+
+        int k = 1;
+        do {
+            int rs = decode(hac);
+            k += rs >> 4;
+            int s = rs & 15;
+            if(s != 0) {
+                int v = extendReceive(s) * (dq[k] & 0xFF);
+                out[pos++] = (v << 6) | k;
+                eob = k + 1;
+            } else if(rs != 0xF0) {
+                break;
+            }
+        } while(++k < 64);
+
+        out[headerPos] = (eob << 8) | (pos - headerPos - 1);
+        return pos;
+    }
+
+    /**
+     * Decodes only the DC coefficient of a block and skips the AC coefficients.
+     *
+     * @param c the color component
+     * @return the dequantized DC coefficient
+     */
+    private int decodeBlockDC(Component c) throws IOException {
+        if(concealMCUs > 0) {
+            return 0;
+        }
+
+        if(arithmeticCoding) {
+            // the AC decisions can't be skipped
+            decodeBlock(data, c);
+            return data[0];
+        }
+
+        int t = decode(c.huffDC);
+        int dc = c.dcPred;
+        if(t > 0) {
+            dc += extendReceive(t);
+            c.dcPred = dc;
+        }
+
+        final Huffman hac = c.huffAC;
+
+        int k = 1;
+        do {
+            int rs = decode(hac);
+            k += rs >> 4;
+            int s = rs & 15;
+            if(s != 0) {
+                if(k > 63) {
+                    // decodeBlock() fails at the same point
+                    concealCorruptData();
+                    return 0;
+                }
+                if(codeBits < s) {
+                    growBufferUnsafe();
+                }
+                codeBuffer <<= s;
+                codeBits    -= s;
+            } else if(rs != 0xF0) {
+                break;
+            }
+        } while(++k < 64);
+
+        return dc * (c.dequant[0] & 0xFF);
+    }
+
     private static void throwBadHuffmanCode() throws IOException {
         throw new IOException("Bad huffman code");
     }
 
+    private void concealArithmeticError() throws IOException {
+        if(errorConcealment == ErrorConcealment.NONE) {
+            throw new IOException("Bad arithmetic code");
+        }
+        takeArithmeticMarker();
+        concealCorruptData();
+    }
+
+    private void takeArithmeticMarker() {
+        if(arithmeticCoding && marker == MARKER_NONE) {
+            marker = arithmetic.takeMarker();
+        }
+    }
+
+    private void concealCorruptData() throws IOException {
+        if(errorConcealment == ErrorConcealment.NONE) {
+            throwBadHuffmanCode();
+        }
+        Arrays.fill(data, (short)0);
+        concealUntilMarker(todo);
+    }
+
+    /**
+     * Skips the entropy coded data up to the next marker and computes the
+     * number of MCUs which are lost.
+     *
+     * @param remaining the number of MCUs left in the current restart interval
+     */
+    private void concealUntilMarker(int remaining) throws IOException {
+        int m = marker;
+        if(m == MARKER_NONE) {
+            m = findMarker();
+        }
+        marker = MARKER_NONE;
+        concealMarker = m;
+        if(restartInterval != 0 && m >= 0xD0 && m <= 0xD7) {
+            concealMCUs = remaining + ((m - 0xD0 - restartMarkerIdx) & 7) * restartInterval;
+            if(concealMCUs == 0) {
+                endConcealment();
+            }
+        } else {
+            concealMCUs = Integer.MAX_VALUE;
+        }
+    }
+
+    private void endConcealment() {
+        restartMarkerIdx = (concealMarker - 0xD0 + 1) & 7;
+        if(listener != null) {
+            listener.restartMarker(this, concealMarker, currentMCURow, getBytesConsumed());
+        }
+        reset();
+    }
+
+    private boolean nextMCU() throws IOException {
+        if(concealMCUs > 0) {
+            ++numConcealedMCUs;
+            if(--concealMCUs == 0) {
+                endConcealment();
+            }
+            return true;
+        }
+        if(--todo <= 0) {
+            return checkRestart();
+        }
+        if(codeBits <= paddingBits && marker != MARKER_NONE &&
+                errorConcealment != ErrorConcealment.NONE && !arithmeticCoding) {
+            // the data before the marker is used up inside a restart interval
+            concealUntilMarker(todo);
+        }
+        return true;
+    }
+
+    private int findMarker() throws IOException {
+        for(;;) {
+            int m = getU8();
+            if(m == 0xFF) {
+                do {
+                    m = getU8();
+                } while(m == 0xFF);
+                if(m != 0) {
+                    return m;
+                }
+            }
+        }
+    }
+
     private int getMarker() throws IOException {
         int m = marker;
         if(m != MARKER_NONE) {
@@ -694,6 +2516,7 @@ public class JPEGDecoder {
     private void reset() {
         codeBits = 0;
         codeBuffer = 0;
+        paddingBits = 0;
         nomore = false;
         marker = MARKER_NONE;
 
@@ -706,17 +2529,37 @@ public class JPEGDecoder {
         for(Component c : components) {
             c.dcPred = 0;
         }
+
+        if(arithmeticCoding) {
+            arithmetic.reset(order);
+        }
     }
 
     private boolean checkRestart() throws IOException {
-        if(codeBits < 24) {
+        if(arithmeticCoding) {
+            // the arithmetic decoder does not consume all bytes before the marker
+            takeArithmeticMarker();
+            if(marker == MARKER_NONE) {
+                marker = findMarker();
+            }
+        } else if(codeBits < 24) {
             growBufferUnsafe();
         }
-        if(marker >= 0xD0 && marker <= 0xD7) {
-            reset();
-            return true;
+        if(errorConcealment != ErrorConcealment.NONE) {
+            if(marker == 0xD0 + restartMarkerIdx) {
+                restartMarkerIdx = (restartMarkerIdx + 1) & 7;
+            } else {
+                concealUntilMarker(0);
+                return true;
+            }
+        } else if(marker < 0xD0 || marker > 0xD7) {
+            return false;
         }
-        return false;
+        if(listener != null) {
+            listener.restartMarker(this, marker, currentMCURow, getBytesConsumed());
+        }
+        reset();
+        return true;
     }
 
     private void processMarker(int marker) throws IOException {
@@ -725,7 +2568,12 @@ public class JPEGDecoder {
             if(l < 0) {
                 throw new IOException("bad length");
             }
-            skip(l);
+            boolean capture = isCaptureMarker(marker);
+            if(capture || (marker == JPEGSegment.APP1 && !exifFound)) {
+                processSegment(marker, l, capture);
+            } else {
+                skip(l);
+            }
             return;
         }
 
@@ -736,6 +2584,31 @@ public class JPEGDecoder {
             case 0xC2:      // SOF - progressive
                 throw new IOException("Progressive JPEG not supported");
 
+            case 0xCC: {    // DAC - define arithmetic coding conditioning
+                int l = getU16() - 2;
+                if(l < 0 || (l & 1) != 0) {
+                    throw new IOException("bad DAC length");
+                }
+                if(arithmetic == null) {
+                    arithmetic = new ArithmeticDecoder(this);
+                }
+                for(; l > 0 ; l -= 2) {
+                    int t = getU8();
+                    int v = getU8();
+                    int tc = t >> 4;
+                    int tb = t & 15;
+                    if(tc > 1 || tb > 3) {
+                        throw new IOException("bad DAC table");
+                    }
+                    if(tc == 0) {
+                        arithmetic.setDCConditioning(tb, v & 15, v >> 4);
+                    } else {
+                        arithmetic.setACConditioning(tb, v);
+                    }
+                }
+                break;
+            }
+
             case 0xDD:      // DRI - specify restart interval
                 if(getU16() != 4) {
                     throw new IOException("bad DRI length");
@@ -773,18 +2646,20 @@ public class JPEGDecoder {
                     if(tc > 1 || th > 3) {
                         throw new IOException("bad DHT header");
                     }
-                    int[] tmp = idct2D.tmp2D;   // reuse memory
+                    read(huffmanSpec, 0, 16);
+                    int m = 0;
                     for(int i=0 ; i<16 ; i++) {
-                        tmp[i] = getU8();
+                        m += huffmanSpec[i] & 255;
                     }
-                    Huffman h = new Huffman(tmp);
-                    int m = h.getNumSymbols();
                     l -= 17 + m;
-                    if(l < 0) {
+                    if(l < 0 || m > 256) {
                         throw new IOException("bad DHT length");
                     }
-                    read(h.values, 0, m);
-                    huffmanTables[tc*4 + th] = h;
+                    read(huffmanSpec, 16, m);
+                    Huffman h = huffmanTables[tc*4 + th];
+                    if(h == null || !h.matches(huffmanSpec, 16 + m)) {
+                        huffmanTables[tc*4 + th] = Huffman.get(huffmanSpec, 16 + m);
+                    }
                 }
                 if(l != 0) {
                     throw new IOException("bad DHT length");
@@ -797,6 +2672,48 @@ public class JPEGDecoder {
         }
     }
 
+    private void processSegment(int marker, int l, boolean capture) throws IOException {
+        byte[] buf;
+        int off;
+        if(inputBuffer != fetchBuffer && inputBufferValid - inputBufferPos >= l) {
+            // zero copy from the input ByteBuffer
+            buf = inputBuffer;
+            off = inputBufferPos;
+            inputBufferPos += l;
+        } else {
+            if(capture) {
+                buf = new byte[l];
+            } else {
+                if(segmentTmp == null || segmentTmp.length < l) {
+                    segmentTmp = new byte[Math.max(l, 4096)];
+                }
+                buf = segmentTmp;
+            }
+            off = 0;
+            read(buf, 0, l);
+        }
+        if(marker == JPEGSegment.APP1 && !exifFound) {
+            Exif exif = Exif.parse(buf, off, l);
+            if(exif != null) {
+                exifOrientation = exif.orientation;
+                exifFound = true;
+                if(exif.thumbnailOffset >= 0) {
+                    if(buf == segmentTmp) {
+                        byte[] thumbnail = new byte[exif.thumbnailLength];
+                        System.arraycopy(buf, exif.thumbnailOffset, thumbnail, 0, thumbnail.length);
+                        exifThumbnail = ByteBuffer.wrap(thumbnail);
+                    } else {
+                        exifThumbnail = ByteBuffer.wrap(buf, exif.thumbnailOffset, exif.thumbnailLength).slice();
+                    }
+                }
+            }
+        }
+        if(capture) {
+            capturedSegments.add(new JPEGSegment(marker,
+                    ByteBuffer.wrap(buf, off, l).slice().asReadOnlyBuffer()));
+        }
+    }
+
     private void skipPadding() throws IOException {
         int x;
         do {
@@ -819,10 +2736,15 @@ public class JPEGDecoder {
             throw new IOException("bad SOS length");
         }
 
-        order = new Component[scanN];
+        // the order arrays are reused for each scan
+        if(scanOrders[scanN] == null) {
+            scanOrders[scanN] = new Component[scanN];
+        }
+        order = scanOrders[scanN];
         for(int i=0 ; i<scanN ; i++) {
             int id = getU8();
             int q = getU8();
+            order[i] = null;
             for(Component c : components) {
                 if(c.id == id) {
                     int hd = q >> 4;
@@ -830,10 +2752,21 @@ public class JPEGDecoder {
                     if(hd > 3 || ha > 3) {
                         throw new IOException("bad huffman table index");
                     }
-                    c.huffDC = huffmanTables[hd];
-                    c.huffAC = huffmanTables[ha + 4];
-                    if(c.huffDC == null || c.huffAC == null) {
-                        throw new IOException("bad huffman table index");
+                    if(arithmeticCoding) {
+                        c.arithDCTable = hd;
+                        c.arithACTable = ha;
+                    } else {
+                        if(huffmanTables[hd] == null) {
+                            huffmanTables[hd] = Huffman.getStandard(0, hd);
+                        }
+                        if(huffmanTables[ha + 4] == null) {
+                            huffmanTables[ha + 4] = Huffman.getStandard(1, ha);
+                        }
+                        c.huffDC = huffmanTables[hd];
+                        c.huffAC = huffmanTables[ha + 4];
+                        if(c.huffDC == null || c.huffAC == null) {
+                            throw new IOException("bad huffman table index");
+                        }
                     }
                     order[i] = c;
                     break;
@@ -854,6 +2787,10 @@ public class JPEGDecoder {
     }
 
     private void processSOF() throws IOException {
+        if(arithmeticCoding && arithmetic == null) {
+            arithmetic = new ArithmeticDecoder(this);
+        }
+
         int lf = getU16();
         if(lf < 11) {
             throw new IOException("bad SOF length");
@@ -869,6 +2806,9 @@ public class JPEGDecoder {
         if(imageWidth <= 0 || imageHeight <= 0) {
             throw new IOException("Invalid image size");
         }
+        if((long)imageWidth * imageHeight > maxPixels) {
+            throw new IOException("image size " + imageWidth + "x" + imageHeight + " exceeds the pixel limit");
+        }
 
         int numComps = getU8();
         if(numComps != 3 && numComps != 1) {
@@ -882,9 +2822,16 @@ public class JPEGDecoder {
         int hMax = 1;
         int vMax = 1;
 
-        components = new Component[numComps];
+        // reuse the components of the previous image when they match
+        if(components == null || components.length != numComps) {
+            components = new Component[numComps];
+        }
         for(int i=0 ; i<numComps ; i++) {
-            Component c = new Component(getU8());
+            int id = getU8();
+            Component c = components[i];
+            if(c == null || c.id != id) {
+                c = new Component(id);
+            }
             int q = getU8();
             int tq = getU8();
 
@@ -902,12 +2849,35 @@ public class JPEGDecoder {
             }
             c.dequant = dequant[tq];
 
+            if(numComps == 1) {
+                // a single component is always non-interleaved
+                c.blocksPerMCUHorz = 1;
+                c.blocksPerMCUVert = 1;
+            }
+
             hMax = Math.max(hMax, c.blocksPerMCUHorz);
             vMax = Math.max(vMax, c.blocksPerMCUVert);
 
             components[i] = c;
         }
 
+        setupComponents(hMax, vMax);
+
+        computeScratchBytes();
+        checkScratchBytes(rowScratchBytes);
+        if(parallelExecutor != null) {
+            checkScratchBytes(rowScratchBytes + planeScratchBytes);
+        }
+    }
+
+    /**
+     * Computes the MCU counts and the size and upsampler of each component.
+     *
+     * @param hMax the maximum horizontal sampling factor
+     * @param vMax the maximum vertical sampling factor
+     */
+    private void setupComponents(int hMax, int vMax) {
+        final int numComps = components.length;
         int mcuW = hMax * 8;
         int mcuH = vMax * 8;
 
@@ -923,13 +2893,65 @@ public class JPEGDecoder {
             c.minReqWidth = mcuCountX * c.blocksPerMCUHorz * 8;
             c.minReqHeight = mcuCountY * c.blocksPerMCUVert * 8;
 
-            if(c.blocksPerMCUHorz < hMax) {
-                c.upsampler |= 1;
+            int h = c.blocksPerMCUHorz;
+            int v = c.blocksPerMCUVert;
+            if(h == hMax && v == vMax) {
+                c.upsampler = UPSAMPLE_NONE;
+            } else if(h*2 == hMax && v == vMax) {
+                c.upsampler = UPSAMPLE_H2;
+            } else if(h == hMax && v*2 == vMax) {
+                c.upsampler = UPSAMPLE_V2;
+            } else if(h*2 == hMax && v*2 == vMax) {
+                c.upsampler = UPSAMPLE_HV2;
+            } else {
+                c.upsampler = UPSAMPLE_GENERIC;
             }
-            if(c.blocksPerMCUVert < vMax) {
-                c.upsampler |= 2;
+        }
+    }
+
+    /**
+     * Computes the upper bound of the temporary memory for the MCU row
+     * buffers and for the component planes.
+     */
+    private void computeScratchBytes() {
+        final long mcuRowHeight = imgVMax * 8;
+        final long YUVstride = (long)mcuCountX * imgHMax * 8;
+        long rowBytes = 0;
+        long planeBytes = 0;
+        for(Component c : components) {
+            rowBytes += (long)c.minReqWidth * c.blocksPerMCUVert * 8;
+            planeBytes += (long)c.minReqWidth * c.minReqHeight;
+            if(c.upsampler != UPSAMPLE_NONE) {
+                rowBytes += mcuRowHeight * YUVstride;
             }
         }
+        if(components.length == 3) {
+            // line buffers for replicate upsampling and the transposed rows of decodeOriented
+            rowBytes += 3 * mcuRowHeight * YUVstride + 3 * imageWidth * mcuRowHeight;
+        }
+        rowScratchBytes = rowBytes;
+        planeScratchBytes = planeBytes;
+    }
+
+    private void checkScratchBytes(long bytes) throws IOException {
+        if(bytes > maxScratchBytes) {
+            throw new IOException("decode needs " + bytes + " temporary bytes which exceeds the limit");
+        }
+    }
+
+    /**
+     * Throws if the decode was cancelled or the deadline has passed.
+     * Also called by the tasks of the {@link ParallelHuffmanDecoder}.
+     *
+     * @throws InterruptedIOException if the decode should be aborted
+     */
+    void checkAbort() throws IOException {
+        if(cancelled) {
+            throw new InterruptedIOException("decode cancelled");
+        }
+        if(hasDeadline && System.nanoTime() - deadline > 0) {
+            throw new InterruptedIOException("decode deadline exceeded");
+        }
     }
 
     private void ensureHeaderDecoded() throws IllegalStateException {
@@ -938,18 +2960,26 @@ public class JPEGDecoder {
         }
     }
 
-    private boolean allocateDecodeTmp(int YUVstride) {
+    private void allocateDecodeTmp() {
         if(decodeTmp == null) {
             decodeTmp = new byte[3][];
         }
 
-        boolean requiresUpsampling = false;
-        for(int compIdx=0 ; compIdx<3 ; compIdx++) {
+        for(int compIdx=0 ; compIdx<order.length ; compIdx++) {
             Component c = order[compIdx];
             int reqSize = c.minReqWidth * c.blocksPerMCUVert * 8;
             if(decodeTmp[compIdx] == null || decodeTmp[compIdx].length < reqSize) {
                 decodeTmp[compIdx] = new byte[reqSize];
             }
+        }
+    }
+
+    private boolean allocateDecodeTmp(int YUVstride) {
+        allocateDecodeTmp();
+
+        boolean requiresUpsampling = false;
+        for(int compIdx=0 ; compIdx<3 ; compIdx++) {
+            Component c = order[compIdx];
             if(c.upsampler != 0) {
                 if(upsampleTmp == null) {
                     upsampleTmp = new byte[3][];
@@ -964,11 +2994,56 @@ public class JPEGDecoder {
         return requiresUpsampling;
     }
 
+    private void allocateLineTmp(int YUVstride) {
+        // replicated lines are placed at the position of the first component's line
+        final Component c = order[0];
+        int size = YUVstride;
+        if(c.blocksPerMCUHorz == imgHMax) {
+            size = Math.max(size, c.minReqWidth * c.blocksPerMCUVert * 8);
+        }
+        if(lineTmp == null || lineTmp[0].length < size) {
+            lineTmp = new byte[3][size];
+        }
+    }
+
     private void decodeMCUrow() throws IOException {
+        decodeMCUrow(false);
+    }
+
+    /**
+     * Decodes the next MCU row into {@code decodeTmp}.
+     *
+     * @param lumaOnly if true the blocks of the chroma components are only
+     *                 parsed and not dequantized or transformed
+     */
+    private void decodeMCUrow(boolean lumaOnly) throws IOException {
+        checkAbort();
         ++currentMCURow;
+        final int numDecoded = lumaOnly ? 1 : order.length;
+        if(multiScan) {
+            for(int compIdx=0 ; compIdx<numDecoded ; compIdx++) {
+                Component c = order[compIdx];
+                int size = c.minReqWidth * c.blocksPerMCUVert * 8;
+                System.arraycopy(planes[compIdx], (currentMCURow-1)*size, decodeTmp[compIdx], 0, size);
+            }
+            return;
+        }
+        final boolean keepPrevRow = errorConcealment == ErrorConcealment.PREVIOUS_ROW && currentMCURow > 1;
         for(int i=0 ; i<mcuCountX ; i++) {
-            for(int compIdx=0 ; compIdx<3 ; compIdx++) {
+            for(int compIdx=0 ; compIdx<order.length ; compIdx++) {
                 Component c = order[compIdx];
+                if(compIdx >= numDecoded) {
+                    // only advance in the entropy coded data
+                    for(int b=0,n=c.blocksPerMCUHorz*c.blocksPerMCUVert ; b<n ; b++) {
+                        try {
+                            decodeBlockDC(c);
+                        } catch (ArrayIndexOutOfBoundsException ex) {
+                            concealCorruptData();
+                        }
+                    }
+                    continue;
+                }
+
                 int outStride = c.minReqWidth;
                 int outPosY = 8*i*c.blocksPerMCUHorz;
 
@@ -977,16 +3052,16 @@ public class JPEGDecoder {
                         try {
                             decodeBlock(data, c);
                         } catch (ArrayIndexOutOfBoundsException ex) {
-                            throwBadHuffmanCode();
+                            concealCorruptData();
+                        }
+                        if(concealMCUs == 0 || !keepPrevRow) {
+                            idct2D.compute(decodeTmp[compIdx], outPos, outStride, data);
                         }
-                        idct2D.compute(decodeTmp[compIdx], outPos, outStride, data);
                     }
                 }
             }
-            if(--todo <= 0) {
-                if(!checkRestart()) {
-                    break;
-                }
+            if(!nextMCU()) {
+                break;
             }
         }
     }
@@ -997,32 +3072,160 @@ public class JPEGDecoder {
             int inStride = c.minReqWidth;
             int height = c.blocksPerMCUVert * 8;
             switch(c.upsampler) {
-                case 1:
+                case UPSAMPLE_H2:
                     for(int i=0 ; i<height ; i++) {
                         upsampleH2(upsampleTmp[compIdx], i*YUVstride, decodeTmp[compIdx], i*inStride, c.width);
                     }
                     break;
 
-                case 2:
-                    for(int i=0,inPos0=0,inPos1=0 ; i<height ; i++) {
-                        upsampleV2(upsampleTmp[compIdx], (i*2  )*YUVstride, decodeTmp[compIdx], inPos0, inPos1, c.width);
-                        upsampleV2(upsampleTmp[compIdx], (i*2+1)*YUVstride, decodeTmp[compIdx], inPos1, inPos0, c.width);
-                        inPos0 = inPos1;
-                        inPos1 += inStride;
+                case UPSAMPLE_V2:
+                    for(int i=0,inPos=0 ; i<height ; i++,inPos+=inStride) {
+                        int inPosPrev = (i > 0) ? inPos - inStride : inPos;
+                        int inPosNext = (i < height-1) ? inPos + inStride : inPos;
+                        upsampleV2(upsampleTmp[compIdx], (i*2  )*YUVstride, decodeTmp[compIdx], inPos, inPosPrev, c.width);
+                        upsampleV2(upsampleTmp[compIdx], (i*2+1)*YUVstride, decodeTmp[compIdx], inPos, inPosNext, c.width);
+                    }
+                    break;
+
+                case UPSAMPLE_HV2:
+                    for(int i=0,inPos=0 ; i<height ; i++,inPos+=inStride) {
+                        int inPosPrev = (i > 0) ? inPos - inStride : inPos;
+                        int inPosNext = (i < height-1) ? inPos + inStride : inPos;
+                        upsampleHV2(upsampleTmp[compIdx], (i*2  )*YUVstride, decodeTmp[compIdx], inPos, inPosPrev, c.width);
+                        upsampleHV2(upsampleTmp[compIdx], (i*2+1)*YUVstride, decodeTmp[compIdx], inPos, inPosNext, c.width);
                     }
+                    break;
 
-                case 3:
-                    for(int i=0,inPos0=0,inPos1=0 ; i<height ; i++) {
-                        upsampleHV2(upsampleTmp[compIdx], (i*2  )*YUVstride, decodeTmp[compIdx], inPos0, inPos1, c.width);
-                        upsampleHV2(upsampleTmp[compIdx], (i*2+1)*YUVstride, decodeTmp[compIdx], inPos1, inPos0, c.width);
-                        inPos0 = inPos1;
-                        inPos1 += inStride;
+                case UPSAMPLE_GENERIC:
+                    for(int i=0,n=imgVMax*8,prevPos=-1 ; i<n ; i++) {
+                        int inPos = inStride * ((i * c.blocksPerMCUVert) / imgVMax);
+                        if(inPos == prevPos) {
+                            System.arraycopy(upsampleTmp[compIdx], (i-1)*YUVstride, upsampleTmp[compIdx], i*YUVstride, imageWidth);
+                        } else {
+                            upsampleGeneric(upsampleTmp[compIdx], i*YUVstride, decodeTmp[compIdx], inPos, imageWidth, c.blocksPerMCUHorz, imgHMax);
+                            prevPos = inPos;
+                        }
                     }
                     break;
             }
         }
     }
 
+    /**
+     * Resamples one line of a decoded component in {@code decodeTmp} to
+     * 1/factor of the image resolution. Each output sample is the average of
+     * the component samples covered by it.
+     *
+     * @param out the output buffer
+     * @param outPos the position of the first output sample
+     * @param outStep the distance between output samples
+     * @param compIdx the component index
+     * @param line the output line inside the current MCU row
+     * @param factor the sub sampling factor of the output - 1 or 2
+     * @param count the number of output samples
+     */
+    private void downsampleRow(ByteBuffer out, int outPos, int outStep, int compIdx, int line, int factor, int count) {
+        final Component c = order[compIdx];
+        final byte[] in = decodeTmp[compIdx];
+        final int inPos0 = c.minReqWidth * ((line*factor * c.blocksPerMCUVert) / imgVMax);
+        final int inPos1 = c.minReqWidth * (((line*factor + factor-1) * c.blocksPerMCUVert) / imgVMax);
+
+        if(c.blocksPerMCUHorz * factor == imgHMax) {
+            if(inPos0 == inPos1) {
+                if(outStep == 1) {
+                    int pos = out.position();
+                    out.position(outPos);
+                    out.put(in, inPos0, count);
+                    out.position(pos);
+                } else {
+                    for(int x=0 ; x<count ; x++,outPos+=outStep) {
+                        out.put(outPos, in[inPos0+x]);
+                    }
+                }
+            } else {
+                for(int x=0 ; x<count ; x++,outPos+=outStep) {
+                    out.put(outPos, (byte)(((in[inPos0+x] & 255) + (in[inPos1+x] & 255) + 1) >> 1));
+                }
+            }
+        } else {
+            final int h = c.blocksPerMCUHorz;
+            for(int x=0 ; x<count ; x++,outPos+=outStep) {
+                int x0 = (x*factor * h) / imgHMax;
+                int x1 = ((x*factor + factor-1) * h) / imgHMax;
+                out.put(outPos, (byte)((
+                        (in[inPos0+x0] & 255) + (in[inPos0+x1] & 255) +
+                        (in[inPos1+x0] & 255) + (in[inPos1+x1] & 255) + 2) >> 2));
+            }
+        }
+    }
+
+    /**
+     * Prepares one image line in {@code lineIn} for the YUV decoder. Components
+     * with the full horizontal resolution are read directly from
+     * {@code decodeTmp}, the samples of sub sampled components are replicated
+     * into {@code lineTmp} at the same position.
+     *
+     * @param line the line inside the current MCU row
+     * @return the start position of the line in all arrays of {@code lineIn}
+     */
+    private int replicateLine(int line) {
+        final Component c0 = order[0];
+        int inPos = 0;
+        if(c0.blocksPerMCUHorz == imgHMax) {
+            inPos = c0.minReqWidth * ((line * c0.blocksPerMCUVert) / imgVMax);
+        }
+        for(int compIdx=0 ; compIdx<3 ; compIdx++) {
+            final Component c = order[compIdx];
+            final byte[] in = decodeTmp[compIdx];
+            final int pos = c.minReqWidth * ((line * c.blocksPerMCUVert) / imgVMax);
+            final int h = c.blocksPerMCUHorz;
+
+            if(h == imgHMax && pos == inPos) {
+                lineIn[compIdx] = in;
+            } else {
+                final byte[] out = lineTmp[compIdx];
+                if(h == imgHMax) {
+                    System.arraycopy(in, pos, out, inPos, imageWidth);
+                } else {
+                    upsampleGeneric(out, inPos, in, pos, imageWidth, h, imgHMax);
+                }
+                lineIn[compIdx] = out;
+            }
+        }
+        return inPos;
+    }
+
+    /**
+     * Horizontally upsamples one line by replicating samples. Handles every
+     * ratio between the sampling factors h and hMax.
+     */
+    private static void upsampleGeneric(byte[] out, int outPos, byte[] in, int inPos, int width, int h, int hMax) {
+        if(hMax % h == 0) {
+            final int f = hMax / h;
+            if(f == 2) {
+                for(int x=0,n=width>>1 ; x<n ; x++) {
+                    byte v = in[inPos+x];
+                    out[outPos+x*2  ] = v;
+                    out[outPos+x*2+1] = v;
+                }
+                if((width & 1) != 0) {
+                    out[outPos+width-1] = in[inPos+(width>>1)];
+                }
+            } else {
+                for(int x=0 ; x<width ; inPos++) {
+                    byte v = in[inPos];
+                    for(int k=0 ; k<f && x<width ; k++,x++) {
+                        out[outPos+x] = v;
+                    }
+                }
+            }
+        } else {
+            for(int x=0 ; x<width ; x++) {
+                out[outPos+x] = in[inPos + (x * h) / hMax];
+            }
+        }
+    }
+
     private static void upsampleH2(byte[] out, int outPos, byte[] in, int inPos, int width) {
         if(width == 1) {
             out[outPos] = out[outPos+1] = in[inPos];
@@ -1039,7 +3242,7 @@ public class JPEGDecoder {
                 i0 = i1;
                 i1 = i2;
             }
-            out[outPos+width*2-2] = (byte)((i0*3 + i1 + 2) >> 2);
+            out[outPos+width*2-2] = (byte)((i1*3 + i0 + 2) >> 2);
             out[outPos+width*2-1] = (byte)i1;
         }
     }
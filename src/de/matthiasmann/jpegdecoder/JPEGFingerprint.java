@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.util.Arrays;
+
+/**
+ * A perceptual fingerprint of a JPEG image computed from the DC coefficients.
+ *
+ * <p>The thumbnail contains the average luma of each 8x8 block of the image.
+ * The hash is a 64 bit DCT based perceptual hash of this thumbnail - similar
+ * images have hashes with a small hamming distance. Each bit compares one
+ * low frequency AC coefficient with the median, the DC term (the overall
+ * brightness) does not contribute.</p>
+ *
+ * @author Matthias Mann
+ * @see JPEGDecoder#decodeFingerprint() 
+ */
+public final class JPEGFingerprint {
+
+    static final int HASH_SIZE = 32;
+
+    private final int thumbnailWidth;
+    private final int thumbnailHeight;
+    private final byte[] thumbnail;
+    private final long hash;
+
+    JPEGFingerprint(int thumbnailWidth, int thumbnailHeight, byte[] thumbnail) {
+        this.thumbnailWidth = thumbnailWidth;
+        this.thumbnailHeight = thumbnailHeight;
+        this.thumbnail = thumbnail;
+        this.hash = computeHash(thumbnailWidth, thumbnailHeight, thumbnail);
+    }
+
+    /**
+     * Returns the 64 bit perceptual hash.
+     * @return the perceptual hash
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns the width of the DC thumbnail which is 1/8 of the image width rounded up.
+     * @return the width of the DC thumbnail
+     */
+    public int getThumbnailWidth() {
+        return thumbnailWidth;
+    }
+
+    /**
+     * Returns the height of the DC thumbnail which is 1/8 of the image height rounded up.
+     * @return the height of the DC thumbnail
+     */
+    public int getThumbnailHeight() {
+        return thumbnailHeight;
+    }
+
+    /**
+     * Returns a copy of the DC thumbnail as 8 bit gray scale data.
+     * @return the thumbnail data with a stride of {@link #getThumbnailWidth() }
+     */
+    public byte[] getThumbnail() {
+        return thumbnail.clone();
+    }
+
+    /**
+     * Computes the number of different bits of the perceptual hashes.
+     *
+     * @param other the other fingerprint
+     * @return the hamming distance between 0 and 64
+     */
+    public int distance(JPEGFingerprint other) {
+        return Long.bitCount(hash ^ other.hash);
+    }
+
+    /**
+     * Checks if two images are near duplicates.
+     *
+     * @param other the other fingerprint
+     * @param maxDistance the maximum hamming distance, eg 10
+     * @return true if the hamming distance is less or equal to maxDistance
+     */
+    public boolean isNearDuplicate(JPEGFingerprint other, int maxDistance) {
+        return distance(other) <= maxDistance;
+    }
+
+    private static long computeHash(int width, int height, byte[] thumbnail) {
+        final int n = HASH_SIZE;
+        final double[] pixels = new double[n * n];
+
+        // bilinear resize to n x n
+        for(int y=0 ; y<n ; y++) {
+            double fy = Math.max(0, (y + 0.5) * height / n - 0.5);
+            int y0 = Math.min((int)fy, height - 1);
+            int y1 = Math.min(y0 + 1, height - 1);
+            double wy = fy - y0;
+            for(int x=0 ; x<n ; x++) {
+                double fx = Math.max(0, (x + 0.5) * width / n - 0.5);
+                int x0 = Math.min((int)fx, width - 1);
+                int x1 = Math.min(x0 + 1, width - 1);
+                double wx = fx - x0;
+                double top = (thumbnail[y0*width + x0] & 255) * (1 - wx) + (thumbnail[y0*width + x1] & 255) * wx;
+                double bot = (thumbnail[y1*width + x0] & 255) * (1 - wx) + (thumbnail[y1*width + x1] & 255) * wx;
+                pixels[y*n + x] = top * (1 - wy) + bot * wy;
+            }
+        }
+
+        // like pHash use the 8x8 frequencies after the first row and column,
+        // this skips the DC term - cos[u] is for frequency u+1
+        final double[] cos = new double[8 * n];
+        for(int u=0 ; u<8 ; u++) {
+            for(int x=0 ; x<n ; x++) {
+                cos[u*n + x] = Math.cos((2*x + 1) * (u + 1) * Math.PI / (2 * n));
+            }
+        }
+
+        final double[] rows = new double[n * 8];
+        for(int y=0 ; y<n ; y++) {
+            for(int u=0 ; u<8 ; u++) {
+                double sum = 0;
+                for(int x=0 ; x<n ; x++) {
+                    sum += pixels[y*n + x] * cos[u*n + x];
+                }
+                rows[y*8 + u] = sum;
+            }
+        }
+
+        final double[] coeffs = new double[64];
+        for(int v=0 ; v<8 ; v++) {
+            for(int u=0 ; u<8 ; u++) {
+                double sum = 0;
+                for(int y=0 ; y<n ; y++) {
+                    sum += rows[y*8 + u] * cos[v*n + y];
+                }
+                coeffs[v*8 + u] = sum;
+            }
+        }
+
+        final double[] sorted = coeffs.clone();
+        Arrays.sort(sorted);
+        final double median = (sorted[31] + sorted[32]) * 0.5;
+
+        long result = 0;
+        for(int i=0 ; i<64 ; i++) {
+            if(coeffs[i] > median) {
+                result |= 1L << i;
+            }
+        }
+        return result;
+    }
+}
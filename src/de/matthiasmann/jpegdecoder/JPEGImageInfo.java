@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The immutable header information and tables of a JPEG image.
+ *
+ * <p>An instance can be shared between threads. Each thread creates its own
+ * decoder with {@link #createDecoder(int) } which starts directly at the
+ * entropy coded data - the header is not parsed again. With restart markers
+ * several decoders can decode different MCU rows of the same image in
+ * parallel.</p>
+ *
+ * <p>The JPEG data is not copied, the ByteBuffer passed to the
+ * {@link JPEGDecoder} must not be modified while this object is used.</p>
+ *
+ * @author Matthias Mann
+ * @see JPEGDecoder#getImageInfo() 
+ */
+public final class JPEGImageInfo {
+
+    final int imageWidth;
+    final int imageHeight;
+    final int mcuCountX;
+    final int mcuCountY;
+    final int mcuRowHeight;
+    final int restartInterval;
+    final int exifOrientation;
+    final int[] compIds;
+    final int[] compBlocksPerMCUHorz;
+    final int[] compBlocksPerMCUVert;
+    final byte[][] compDequant;
+    final Huffman[] compHuffDC;
+    final Huffman[] compHuffAC;
+    final int[] scanOrder;
+    final ByteBuffer entropyData;
+
+    private int[] restartOffsets;
+
+    JPEGImageInfo(int imageWidth, int imageHeight, int mcuCountX, int mcuCountY, int mcuRowHeight,
+            int restartInterval, int exifOrientation, Component[] components, Component[] order,
+            ByteBuffer entropyData) {
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.mcuCountX = mcuCountX;
+        this.mcuCountY = mcuCountY;
+        this.mcuRowHeight = mcuRowHeight;
+        this.restartInterval = restartInterval;
+        this.exifOrientation = exifOrientation;
+        this.entropyData = entropyData;
+
+        final int numComps = components.length;
+        compIds = new int[numComps];
+        compBlocksPerMCUHorz = new int[numComps];
+        compBlocksPerMCUVert = new int[numComps];
+        compDequant = new byte[numComps][];
+        compHuffDC = new Huffman[numComps];
+        compHuffAC = new Huffman[numComps];
+        for(int i=0 ; i<numComps ; i++) {
+            Component c = components[i];
+            compIds[i] = c.id;
+            compBlocksPerMCUHorz[i] = c.blocksPerMCUHorz;
+            compBlocksPerMCUVert[i] = c.blocksPerMCUVert;
+            compDequant[i] = c.dequant.clone();
+            // huffman tables are immutable
+            compHuffDC[i] = c.huffDC;
+            compHuffAC[i] = c.huffAC;
+        }
+
+        scanOrder = new int[order.length];
+        for(int i=0 ; i<order.length ; i++) {
+            int idx = 0;
+            while(components[idx] != order[i]) {
+                idx++;
+            }
+            scanOrder[i] = idx;
+        }
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    /**
+     * Returns the number of color components.
+     * @return 1 for gray scale, 3 for color
+     */
+    public int getNumComponents() {
+        return compIds.length;
+    }
+
+    public int getMCURowHeight() {
+        return mcuRowHeight;
+    }
+
+    public int getNumMCURows() {
+        return mcuCountY;
+    }
+
+    public int getNumMCUColumns() {
+        return mcuCountX;
+    }
+
+    /**
+     * Returns the restart interval.
+     * @return the number of MCUs between restart markers or 0
+     */
+    public int getRestartInterval() {
+        return restartInterval;
+    }
+
+    /**
+     * Returns the EXIF orientation.
+     * @return the orientation from 1 to 8
+     * @see JPEGDecoder#getExifOrientation() 
+     */
+    public int getExifOrientation() {
+        return exifOrientation;
+    }
+
+    /**
+     * Returns the distance of the MCU rows at which a decoder can be created.
+     * These MCU rows start with a restart marker.
+     *
+     * @return the distance in MCU rows or 0 if only the first MCU row can be used
+     * @see #createDecoder(int) 
+     */
+    public int getRestartRowInterval() {
+        if(restartInterval == 0) {
+            return 0;
+        }
+        int a = restartInterval;
+        int b = mcuCountX;
+        while(b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return restartInterval / a;
+    }
+
+    /**
+     * Creates a new decoder which starts at the specified MCU row. The
+     * decoder is ready to decode - {@link JPEGDecoder#startDecode() } must
+     * not be called. Each decoder has its own state and must only be used
+     * by one thread at a time.
+     *
+     * <p>All MCU rows from the start row to the end of the image can be decoded.
+     * The first call for a row other than 0 searches the restart markers.</p>
+     *
+     * @param startMCURow the first MCU row, must be a multiple of {@link #getRestartRowInterval() }
+     * @return a new JPEGDecoder
+     * @throws IOException if the restart marker for the row is missing
+     * @throws IllegalArgumentException if startMCURow is invalid or does not start with a restart marker
+     */
+    public JPEGDecoder createDecoder(int startMCURow) throws IOException {
+        if(startMCURow < 0 || startMCURow >= mcuCountY) {
+            throw new IllegalArgumentException("startMCURow");
+        }
+
+        int offset = 0;
+        if(startMCURow > 0) {
+            long mcu = (long)startMCURow * mcuCountX;
+            if(restartInterval == 0 || mcu % restartInterval != 0) {
+                throw new IllegalArgumentException("MCU row does not start with a restart marker");
+            }
+            int segment = (int)(mcu / restartInterval);
+            int[] offsets = getRestartOffsets();
+            if(segment >= offsets.length) {
+                throw new IOException("restart marker missing");
+            }
+            offset = offsets[segment];
+        }
+
+        ByteBuffer src = entropyData.duplicate();
+        src.position(offset);
+        return new JPEGDecoder(this, src, startMCURow);
+    }
+
+    /**
+     * Returns the start offsets of the restart intervals in the entropy coded data.
+     * @return the offsets - index 0 is the start of the scan
+     */
+    private synchronized int[] getRestartOffsets() {
+        if(restartOffsets == null) {
+            final ByteBuffer data = entropyData;
+            int[] offsets = new int[16];
+            int count = 1;
+            for(int i=0,end=data.limit()-1 ; i<end ; i++) {
+                if(data.get(i) == (byte)0xFF) {
+                    int m = data.get(i+1) & 255;
+                    if(m >= 0xD0 && m <= 0xD7) {
+                        if(count == offsets.length) {
+                            int[] tmp = new int[count * 2];
+                            System.arraycopy(offsets, 0, tmp, 0, count);
+                            offsets = tmp;
+                        }
+                        offsets[count++] = i + 2;
+                        i++;
+                    } else if(m != 0 && m != 0xFF) {
+                        // end of the scan
+                        break;
+                    }
+                }
+            }
+            restartOffsets = new int[count];
+            System.arraycopy(offsets, 0, restartOffsets, 0, count);
+        }
+        return restartOffsets;
+    }
+}
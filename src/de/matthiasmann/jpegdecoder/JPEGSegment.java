@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A captured APPn or COM marker segment.
+ *
+ * @author Matthias Mann
+ * @see JPEGDecoder#setCaptureMarker(int, boolean) 
+ */
+public final class JPEGSegment {
+
+    /** The APP0 marker, the APPn marker is {@code APP0 + n} */
+    public static final int APP0 = 0xE0;
+    /** The APP1 marker used for EXIF and XMP */
+    public static final int APP1 = 0xE1;
+    /** The APP2 marker used for ICC profiles */
+    public static final int APP2 = 0xE2;
+    /** The APP15 marker */
+    public static final int APP15 = 0xEF;
+    /** The COM marker */
+    public static final int COM = 0xFE;
+
+    private final int marker;
+    private final ByteBuffer data;
+
+    JPEGSegment(int marker, ByteBuffer data) {
+        this.marker = marker;
+        this.data = data;
+    }
+
+    /**
+     * Returns the marker of this segment
+     * @return the marker code, eg {@link #APP1}
+     */
+    public int getMarker() {
+        return marker;
+    }
+
+    /**
+     * Returns the length of the segment payload.
+     * @return the length in bytes without the marker and length field
+     */
+    public int getLength() {
+        return data.remaining();
+    }
+
+    /**
+     * Returns the segment payload. When the decoder reads from a ByteBuffer
+     * the returned buffer shares the memory with the input.
+     *
+     * @return a read only ByteBuffer with the payload
+     */
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    /**
+     * Checks if the payload starts with the specified zero terminated
+     * identifier, eg "ICC_PROFILE" or "http://ns.adobe.com/xap/1.0/"
+     *
+     * @param identifier the identifier without the terminating zero
+     * @return true if the payload starts with the identifier
+     */
+    public boolean hasIdentifier(String identifier) {
+        int len = identifier.length();
+        if(data.remaining() <= len) {
+            return false;
+        }
+        int pos = data.position();
+        for(int i=0 ; i<len ; i++) {
+            if(data.get(pos + i) != (byte)identifier.charAt(i)) {
+                return false;
+            }
+        }
+        return data.get(pos + len) == 0;
+    }
+}
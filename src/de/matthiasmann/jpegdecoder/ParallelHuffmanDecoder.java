@@ -0,0 +1,432 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Speculative parallel decoder for huffman coded scans without restart markers.
+ *
+ * <p>The entropy coded data is split into chunks at arbitrary bit positions.
+ * Each chunk is parsed in parallel assuming that a block of the first MCU
+ * component starts there, recording the position and the DC difference of
+ * every block. Because huffman codes self-synchronize the parse of a chunk
+ * usually reaches a block boundary of the real decode path after a few
+ * blocks.</p>
+ *
+ * <p>The real path is then followed from the start of the data: at each chunk
+ * the blocks are decoded sequentially until a recorded block matches the
+ * position and MCU slot of the real path - from there on the records of that
+ * chunk are correct. Misaligned records are replaced by this re-decode. The DC
+ * differences are summed up to the DC predictor of every block, after which
+ * the MCU rows are decoded and transformed in parallel.</p>
+ *
+ * @author Matthias Mann
+ */
+final class ParallelHuffmanDecoder {
+
+    /**
+     * Chunks smaller than this are not worth the synchronization
+     */
+    static final int MIN_CHUNK_SIZE = 4096;
+
+    /**
+     * Number of blocks between two abort checks while parsing
+     */
+    static final int ABORT_CHECK_BLOCKS = 1024;
+
+    private static final int SLOT_MASK = 0x7F;
+    private static final int SLOT_RESTARTED = 0x80;
+
+    private final int[] dcPred;
+
+    private Huffman[] slotDC;
+    private Huffman[] slotAC;
+    private int[] slotComp;
+    private int[] slotX;
+    private int[] slotY;
+    private Chunk[] chunks;
+    private int[] blockPos;
+    private int[] blockDC;
+    private final JPEGDecoder owner;
+
+    /**
+     * Creates a new parallel decoder.
+     *
+     * @param owner the decoder which is checked for cancel and deadline
+     */
+    ParallelHuffmanDecoder(JPEGDecoder owner) {
+        this.owner = owner;
+        this.dcPred = new int[4];
+    }
+
+    /**
+     * Decodes an interleaved huffman coded scan into one plane per component.
+     *
+     * @param data the entropy coded data without stuffed bytes
+     * @param length the number of bytes in data
+     * @param order the components in scan order
+     * @param planes the planes for each component in scan order
+     * @param mcuCountX the number of MCUs per row
+     * @param mcuCountY the number of MCU rows
+     * @param executor the executor which runs the tasks
+     * @param numTasks the number of tasks to use
+     * @throws IOException if the data is corrupt or the decode was interrupted
+     */
+    void decode(byte[] data, int length, Component[] order, byte[][] planes,
+            int mcuCountX, int mcuCountY, ExecutorService executor, int numTasks) throws IOException {
+        int blocksPerMCU = 0;
+        for(Component c : order) {
+            blocksPerMCU += c.blocksPerMCUHorz * c.blocksPerMCUVert;
+        }
+        if(slotComp == null || slotComp.length < blocksPerMCU) {
+            slotDC = new Huffman[blocksPerMCU];
+            slotAC = new Huffman[blocksPerMCU];
+            slotComp = new int[blocksPerMCU];
+            slotX = new int[blocksPerMCU];
+            slotY = new int[blocksPerMCU];
+        }
+
+        blocksPerMCU = 0;
+        for(int compIdx=0 ; compIdx<order.length ; compIdx++) {
+            Component c = order[compIdx];
+            for(int y=0 ; y<c.blocksPerMCUVert ; y++) {
+                for(int x=0 ; x<c.blocksPerMCUHorz ; x++,blocksPerMCU++) {
+                    slotDC[blocksPerMCU] = c.huffDC;
+                    slotAC[blocksPerMCU] = c.huffAC;
+                    slotComp[blocksPerMCU] = compIdx;
+                    slotX[blocksPerMCU] = x;
+                    slotY[blocksPerMCU] = y;
+                }
+            }
+        }
+
+        final int totalBlocks = mcuCountX * mcuCountY * blocksPerMCU;
+        if(blockPos == null || blockPos.length < totalBlocks) {
+            blockPos = new int[totalBlocks];
+            blockDC = new int[totalBlocks];
+        }
+
+        int numChunks = Math.max(1, Math.min(numTasks, length / MIN_CHUNK_SIZE));
+        if(chunks == null || chunks.length < numChunks) {
+            Chunk[] newChunks = new Chunk[numChunks];
+            for(int i=0 ; i<numChunks ; i++) {
+                newChunks[i] = (chunks != null && i < chunks.length) ? chunks[i] : new Chunk();
+            }
+            chunks = newChunks;
+        }
+
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(Math.max(numChunks, numTasks));
+        for(int i=0 ; i<numChunks ; i++) {
+            Chunk chunk = chunks[i];
+            chunk.init(data, length, blocksPerMCU,
+                    (int)((long)length * i / numChunks) << 3,
+                    (int)((long)length * (i+1) / numChunks) << 3);
+            tasks.add(chunk);
+        }
+        runAll(executor, tasks);
+
+        synchronize(data, length, numChunks, totalBlocks, blocksPerMCU);
+
+        // the DC difference of each block becomes the predicted DC value
+        for(int i=0 ; i<order.length ; i++) {
+            dcPred[i] = 0;
+        }
+        for(int n=0,slot=0 ; n<totalBlocks ; n++) {
+            int compIdx = slotComp[slot];
+            blockDC[n] = dcPred[compIdx] += blockDC[n];
+            if(++slot == blocksPerMCU) {
+                slot = 0;
+            }
+        }
+
+        tasks.clear();
+        numTasks = Math.min(numTasks, mcuCountY);
+        for(int i=0 ; i<numTasks ; i++) {
+            tasks.add(new RowTask(data, length, order, planes, mcuCountX, blocksPerMCU,
+                    mcuCountY * i / numTasks, mcuCountY * (i+1) / numTasks));
+        }
+        runAll(executor, tasks);
+    }
+
+    /**
+     * Follows the real decode path through all chunks and fills blockPos
+     * and blockDC.
+     */
+    private void synchronize(byte[] data, int length, int numChunks, int totalBlocks, int blocksPerMCU) throws IOException {
+        final EntropyDecoder decoder = new EntropyDecoder(data, length);
+        int curPos = 0;
+        int curSlot = 0;
+        boolean seek = true;
+        int n = 0;
+
+        for(int i=0 ; i<numChunks && n<totalBlocks ; i++) {
+            final Chunk chunk = chunks[i];
+            int r = 0;
+            owner.checkAbort();
+            while(n < totalBlocks) {
+                while(r < chunk.count && chunk.pos[r] < curPos) {
+                    r++;
+                }
+                if(r == chunk.count) {
+                    break;
+                }
+                if(chunk.pos[r] == curPos && (chunk.slot[r] & SLOT_MASK) == curSlot) {
+                    // the chunk is in sync - the remaining records are correct
+                    blockPos[n] = curPos;
+                    blockDC[n++] = chunk.diff[r];
+                    for(r++ ; r<chunk.count && n<totalBlocks ; r++) {
+                        if((chunk.slot[r] & SLOT_RESTARTED) != 0) {
+                            throwBadHuffmanCode();
+                        }
+                        blockPos[n] = chunk.pos[r];
+                        blockDC[n++] = chunk.diff[r];
+                    }
+                    curPos = chunk.exitPos;
+                    curSlot = chunk.exitSlot;
+                    seek = true;
+                    break;
+                }
+                if(seek) {
+                    decoder.seek(curPos);
+                    seek = false;
+                }
+                if((n % ABORT_CHECK_BLOCKS) == 0) {
+                    owner.checkAbort();
+                }
+                int diff = decoder.skipBlock(slotDC[curSlot], slotAC[curSlot]);
+                if(diff == EntropyDecoder.INVALID) {
+                    throwBadHuffmanCode();
+                }
+                blockPos[n] = curPos;
+                blockDC[n++] = diff;
+                curPos = decoder.position();
+                if(++curSlot == blocksPerMCU) {
+                    curSlot = 0;
+                }
+            }
+        }
+
+        if(n < totalBlocks) {
+            decoder.seek(curPos);
+            for(; n<totalBlocks ; n++) {
+                if((n % ABORT_CHECK_BLOCKS) == 0) {
+                    owner.checkAbort();
+                }
+                int diff = decoder.skipBlock(slotDC[curSlot], slotAC[curSlot]);
+                if(diff == EntropyDecoder.INVALID) {
+                    throwBadHuffmanCode();
+                }
+                blockPos[n] = curPos;
+                blockDC[n] = diff;
+                curPos = decoder.position();
+                if(++curSlot == blocksPerMCU) {
+                    curSlot = 0;
+                }
+            }
+        }
+    }
+
+    private static void runAll(ExecutorService executor, List<Callable<Void>> tasks) throws IOException {
+        try {
+            for(Future<Void> f : executor.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException ex) {
+            throw (InterruptedIOException)new InterruptedIOException().initCause(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw (IOException)new IOException("parallel decode failed").initCause(cause);
+        }
+    }
+
+    static void throwBadHuffmanCode() throws IOException {
+        throw new IOException("Bad huffman code");
+    }
+
+    /**
+     * Speculative parse of one chunk of the entropy coded data
+     */
+    final class Chunk implements Callable<Void> {
+        byte[] data;
+        int length;
+        int blocksPerMCU;
+        int start;
+        int end;
+
+        int count;
+        int[] pos;
+        byte[] slot;
+        int[] diff;
+        int exitPos;
+        int exitSlot;
+
+        void init(byte[] data, int length, int blocksPerMCU, int start, int end) {
+            this.data = data;
+            this.length = length;
+            this.blocksPerMCU = blocksPerMCU;
+            this.start = start;
+            this.end = end;
+            this.count = 0;
+
+            // an estimate - typical blocks need more than 32 bits
+            int capacity = Math.max(256, (end - start) >> 5);
+            if(pos == null || pos.length < capacity) {
+                pos = new int[capacity];
+                slot = new byte[capacity];
+                diff = new int[capacity];
+            }
+        }
+
+        public Void call() throws IOException {
+            final EntropyDecoder decoder = new EntropyDecoder(data, length);
+            final Huffman[] dcTables = slotDC;
+            final Huffman[] acTables = slotAC;
+            int p = start;
+            int s = 0;
+            int flags = 0;
+            int checkCounter = 0;
+
+            decoder.seek(p);
+            while(p < end) {
+                if(++checkCounter == ABORT_CHECK_BLOCKS) {
+                    owner.checkAbort();
+                    checkCounter = 0;
+                }
+                int d = decoder.skipBlock(dcTables[s], acTables[s]);
+                if(d == EntropyDecoder.INVALID) {
+                    // not on a block boundary - retry one bit later
+                    decoder.seek(++p);
+                    s = 0;
+                    flags = SLOT_RESTARTED;
+                    continue;
+                }
+                if(count == pos.length) {
+                    grow();
+                }
+                pos[count] = p;
+                slot[count] = (byte)(s | flags);
+                diff[count] = d;
+                count++;
+                flags = 0;
+                p = decoder.position();
+                if(++s == blocksPerMCU) {
+                    s = 0;
+                }
+            }
+
+            exitPos = p;
+            exitSlot = s;
+            return null;
+        }
+
+        private void grow() {
+            int capacity = count * 2;
+            int[] newPos = new int[capacity];
+            byte[] newSlot = new byte[capacity];
+            int[] newDiff = new int[capacity];
+            System.arraycopy(pos, 0, newPos, 0, count);
+            System.arraycopy(slot, 0, newSlot, 0, count);
+            System.arraycopy(diff, 0, newDiff, 0, count);
+            pos = newPos;
+            slot = newSlot;
+            diff = newDiff;
+        }
+    }
+
+    /**
+     * Decodes and transforms a range of MCU rows
+     */
+    final class RowTask implements Callable<Void> {
+        private final byte[] data;
+        private final int length;
+        private final Component[] order;
+        private final byte[][] planes;
+        private final int mcuCountX;
+        private final int blocksPerMCU;
+        private final int startRow;
+        private final int endRow;
+
+        RowTask(byte[] data, int length, Component[] order, byte[][] planes,
+                int mcuCountX, int blocksPerMCU, int startRow, int endRow) {
+            this.data = data;
+            this.length = length;
+            this.order = order;
+            this.planes = planes;
+            this.mcuCountX = mcuCountX;
+            this.blocksPerMCU = blocksPerMCU;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        public Void call() throws IOException {
+            final EntropyDecoder decoder = new EntropyDecoder(data, length);
+            final IDCT_2D idct2D = new IDCT_2D();
+            final short[] coeffs = new short[64];
+
+            int n = startRow * mcuCountX * blocksPerMCU;
+            if(startRow < endRow) {
+                decoder.seek(blockPos[n]);
+            }
+
+            for(int j=startRow ; j<endRow ; j++) {
+                owner.checkAbort();
+                for(int i=0 ; i<mcuCountX ; i++) {
+                    for(int s=0 ; s<blocksPerMCU ; s++,n++) {
+                        Component c = order[slotComp[s]];
+                        if(!decoder.decodeBlock(coeffs, c, blockDC[n])) {
+                            throwBadHuffmanCode();
+                        }
+                        int stride = c.minReqWidth;
+                        int outPos = 8*((j*c.blocksPerMCUVert + slotY[s])*stride + i*c.blocksPerMCUHorz + slotX[s]);
+                        idct2D.compute(planes[slotComp[s]], outPos, stride, coeffs);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
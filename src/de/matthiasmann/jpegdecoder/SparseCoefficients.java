@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+/**
+ * Sparse dequantized DCT coefficients of a number of MCU rows.
+ *
+ * <p>Each component is stored as a packed int array. Each block starts with
+ * a header {@code (eob << 8) | count} followed by {@code count} entries
+ * {@code (value << 6) | zigzagIndex} for the non zero coefficients in zig-zag
+ * order. The end of block index {@code eob} is one more than the zig-zag index
+ * of the last non zero coefficient, or 0 for a block without coefficients.
+ * The blocks are stored in the order of the entropy coded data - MCU by MCU.</p>
+ *
+ * <p>An instance can be reused for further decode calls, the arrays only
+ * grow when needed.</p>
+ *
+ * @author Matthias Mann
+ * @see JPEGDecoder#decodeSparseCoeffs(de.matthiasmann.jpegdecoder.SparseCoefficients, int) 
+ */
+public final class SparseCoefficients {
+
+    int numComponents;
+    int mcuCountX;
+    int startMCURow;
+    int[] blocksPerMCUHorz;
+    int[] blocksPerMCUVert;
+    int[][] data;
+    int[] length;
+    int[] numBlocks;
+
+    public SparseCoefficients() {
+        this.blocksPerMCUHorz = new int[0];
+        this.blocksPerMCUVert = new int[0];
+        this.data = new int[0][];
+        this.length = new int[0];
+        this.numBlocks = new int[0];
+    }
+
+    public int getNumComponents() {
+        return numComponents;
+    }
+
+    /**
+     * Returns the first MCU row contained in this object.
+     * @return the MCU row
+     */
+    public int getStartMCURow() {
+        return startMCURow;
+    }
+
+    /**
+     * Returns the number of blocks of a component.
+     * @param compIdx the component index
+     * @return the number of blocks
+     */
+    public int getNumBlocks(int compIdx) {
+        checkComponent(compIdx);
+        return numBlocks[compIdx];
+    }
+
+    /**
+     * Returns the packed data of a component. The array is shared and
+     * can be larger than the used length.
+     *
+     * @param compIdx the component index
+     * @return the packed data
+     * @see #getDataLength(int) 
+     */
+    public int[] getData(int compIdx) {
+        checkComponent(compIdx);
+        return data[compIdx];
+    }
+
+    /**
+     * Returns the number of used ints in the packed data of a component.
+     * @param compIdx the component index
+     * @return the number of used ints
+     */
+    public int getDataLength(int compIdx) {
+        checkComponent(compIdx);
+        return length[compIdx];
+    }
+
+    /**
+     * Returns the size of the packed data of all components.
+     * @return the size in bytes
+     */
+    public long getSizeInBytes() {
+        long size = 0;
+        for(int i=0 ; i<numComponents ; i++) {
+            size += length[i] * 4L;
+        }
+        return size;
+    }
+
+    /**
+     * Creates an iterator over the blocks of a component.
+     * @param compIdx the component index
+     * @return a new iterator positioned before the first block
+     */
+    public BlockIterator iterator(int compIdx) {
+        checkComponent(compIdx);
+        return new BlockIterator(this, compIdx);
+    }
+
+    void reset(Component[] components, int mcuCountX, int startMCURow) {
+        final int n = components.length;
+        if(data.length < n) {
+            int[][] newData = new int[n][];
+            System.arraycopy(data, 0, newData, 0, data.length);
+            data = newData;
+            blocksPerMCUHorz = new int[n];
+            blocksPerMCUVert = new int[n];
+            length = new int[n];
+            numBlocks = new int[n];
+        }
+        for(int i=0 ; i<n ; i++) {
+            blocksPerMCUHorz[i] = components[i].blocksPerMCUHorz;
+            blocksPerMCUVert[i] = components[i].blocksPerMCUVert;
+            length[i] = 0;
+            numBlocks[i] = 0;
+        }
+        this.numComponents = n;
+        this.mcuCountX = mcuCountX;
+        this.startMCURow = startMCURow;
+    }
+
+    /**
+     * Makes sure that the data array of a component has room for the specified number of ints.
+     * @return the data array
+     */
+    int[] ensureCapacity(int compIdx, int required) {
+        int[] d = data[compIdx];
+        int needed = length[compIdx] + required;
+        if(d == null || d.length < needed) {
+            int[] newData = new int[Math.max(needed, (d == null) ? 4096 : d.length * 2)];
+            if(d != null) {
+                System.arraycopy(d, 0, newData, 0, length[compIdx]);
+            }
+            data[compIdx] = d = newData;
+        }
+        return d;
+    }
+
+    private void checkComponent(int compIdx) {
+        if(compIdx < 0 || compIdx >= numComponents) {
+            throw new IndexOutOfBoundsException("compIdx");
+        }
+    }
+
+    /**
+     * Iterates over the blocks of one component without allocating objects.
+     */
+    public static final class BlockIterator {
+        private final int[] data;
+        private final int end;
+        private final int h;
+        private final int v;
+        private final int mcuCountX;
+        private final int startMCURow;
+        private int pos;
+        private int next;
+        private int block;
+        private int header;
+
+        BlockIterator(SparseCoefficients coeffs, int compIdx) {
+            this.data = coeffs.data[compIdx];
+            this.end = coeffs.length[compIdx];
+            this.h = coeffs.blocksPerMCUHorz[compIdx];
+            this.v = coeffs.blocksPerMCUVert[compIdx];
+            this.mcuCountX = coeffs.mcuCountX;
+            this.startMCURow = coeffs.startMCURow;
+            this.block = -1;
+        }
+
+        /**
+         * Advances to the next block.
+         * @return true if there is a block, false at the end
+         */
+        public boolean next() {
+            if(next >= end) {
+                return false;
+            }
+            pos = next;
+            header = data[pos];
+            next = pos + 1 + (header & 255);
+            block++;
+            return true;
+        }
+
+        /**
+         * Returns the horizontal position of the block in the component in blocks.
+         * @return the block column
+         */
+        public int getBlockX() {
+            int perMCU = h * v;
+            int mcu = block / perMCU;
+            return (mcu % mcuCountX) * h + (block - mcu*perMCU) % h;
+        }
+
+        /**
+         * Returns the vertical position of the block in the component in blocks.
+         * @return the block row
+         */
+        public int getBlockY() {
+            int perMCU = h * v;
+            int mcu = block / perMCU;
+            return (startMCURow + mcu / mcuCountX) * v + (block - mcu*perMCU) / h;
+        }
+
+        /**
+         * Returns the end of block index.
+         * @return one more than the zig-zag index of the last non zero coefficient, 0 for an empty block
+         */
+        public int getEndOfBlock() {
+            return header >> 8;
+        }
+
+        /**
+         * Returns the number of non zero coefficients of the block.
+         * @return the number of coefficients
+         */
+        public int getNumCoefficients() {
+            return header & 255;
+        }
+
+        /**
+         * Returns the zig-zag index of a non zero coefficient.
+         * @param idx the index from 0 to {@link #getNumCoefficients() }-1
+         * @return the zig-zag index from 0 to 63
+         */
+        public int getZigZagIndex(int idx) {
+            return data[pos + 1 + idx] & 63;
+        }
+
+        /**
+         * Returns the dequantized value of a non zero coefficient.
+         * @param idx the index from 0 to {@link #getNumCoefficients() }-1
+         * @return the coefficient value
+         */
+        public int getValue(int idx) {
+            return data[pos + 1 + idx] >> 6;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Describes the layout and normalization of a float RGB tensor.
+ *
+ * <p>Each channel value is computed as {@code (v / 255 - mean) / std}
+ * where v is the 8 bit RGB value. The normalization is applied with a
+ * lookup table while converting the YUV data - no additional pass over
+ * the image is needed.</p>
+ *
+ * @author Matthias Mann
+ * @see JPEGDecoder#decodeTensor(java.nio.FloatBuffer, de.matthiasmann.jpegdecoder.TensorFormat) 
+ */
+public final class TensorFormat {
+
+    /**
+     * The order of the tensor dimensions
+     */
+    public enum Layout {
+        /** channel planes: R plane, G plane, B plane */
+        CHW,
+        /** interleaved channels: RGB, RGB, ... */
+        HWC
+    }
+
+    private final Layout layout;
+    private final float[] mean;
+    private final float[] std;
+    private final float[] lutR;
+    private final float[] lutG;
+    private final float[] lutB;
+
+    /**
+     * Creates a tensor format which scales the values to the range 0 to 1.
+     *
+     * @param layout the tensor layout
+     */
+    public TensorFormat(Layout layout) {
+        this(layout, new float[] { 0, 0, 0 }, new float[] { 1, 1, 1 });
+    }
+
+    /**
+     * Creates a tensor format with per channel normalization.
+     *
+     * @param layout the tensor layout
+     * @param mean the mean of the R, G and B channel in the range 0 to 1
+     * @param std the standard deviation of the R, G and B channel in the range 0 to 1
+     * @throws IllegalArgumentException if mean or std don't have 3 values or std contains 0
+     */
+    public TensorFormat(Layout layout, float[] mean, float[] std) {
+        if(layout == null) {
+            throw new NullPointerException("layout");
+        }
+        if(mean.length != 3) {
+            throw new IllegalArgumentException("mean");
+        }
+        if(std.length != 3 || std[0] == 0 || std[1] == 0 || std[2] == 0) {
+            throw new IllegalArgumentException("std");
+        }
+        this.layout = layout;
+        this.mean = mean.clone();
+        this.std = std.clone();
+        this.lutR = createLUT(mean[0], std[0]);
+        this.lutG = createLUT(mean[1], std[1]);
+        this.lutB = createLUT(mean[2], std[2]);
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns the mean of a channel.
+     * @param channel the channel: 0 = R, 1 = G, 2 = B
+     * @return the mean
+     */
+    public float getMean(int channel) {
+        return mean[channel];
+    }
+
+    /**
+     * Returns the standard deviation of a channel.
+     * @param channel the channel: 0 = R, 1 = G, 2 = B
+     * @return the standard deviation
+     */
+    public float getStd(int channel) {
+        return std[channel];
+    }
+
+    /**
+     * Converts one line of YUV data into normalized RGB floats.
+     *
+     * @param out the output buffer
+     * @param outPos the position of the R value of the first pixel
+     * @param pixelStep the distance between two pixels
+     * @param channelStep the distance between the channels of a pixel
+     */
+    void convert(FloatBuffer out, int outPos, int pixelStep, int channelStep, byte[] inY, byte[] inU, byte[] inV, int inPos, int count) {
+        final float[] lr = lutR;
+        final float[] lg = lutG;
+        final float[] lb = lutB;
+        final int channelStep2 = channelStep * 2;
+        do {
+            int y = (inY[inPos] & 255);
+            int u = (inU[inPos] & 255) - 128;
+            int v = (inV[inPos] & 255) - 128;
+            int r = y + ((32768 + v*91881           ) >> 16);
+            int g = y + ((32768 - v*46802 - u* 22554) >> 16);
+            int b = y + ((32768           + u*116130) >> 16);
+            if(r > 255) r = 255; else if(r < 0) r = 0;
+            if(g > 255) g = 255; else if(g < 0) g = 0;
+            if(b > 255) b = 255; else if(b < 0) b = 0;
+            out.put(outPos, lr[r]);
+            out.put(outPos + channelStep, lg[g]);
+            out.put(outPos + channelStep2, lb[b]);
+            outPos += pixelStep;
+            inPos++;
+        } while(--count > 0);
+    }
+
+    private static float[] createLUT(float mean, float std) {
+        float[] lut = new float[256];
+        for(int i=0 ; i<256 ; i++) {
+            lut[i] = (i / 255f - mean) / std;
+        }
+        return lut;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Checks that a reused decoder does not allocate when decoding a stream of
+ * images with the same shape.
+ *
+ * @author Matthias Mann
+ */
+public class AllocationTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int WARMUP_FRAMES = 2000;
+    private static final int FRAMES = 1000;
+    private static final int ROUNDS = 5;
+
+    public AllocationTest() {
+    }
+
+    @Test
+    public void testYUV420() throws Exception {
+        checkAllocations(new int[][] {{2,2}, {1,1}, {1,1}});
+    }
+
+    @Test
+    public void testYUV444() throws Exception {
+        checkAllocations(new int[][] {{1,1}, {1,1}, {1,1}});
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        BufferedImage gray = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+        gray.getGraphics().drawImage(TestImages.createPattern(WIDTH, HEIGHT), 0, 0, null);
+        byte[] jpeg = TestImages.encode(gray, null, 0.9f);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for(int i=0 ; i<WARMUP_FRAMES+FRAMES*ROUNDS ; i++) {
+            baos.write(jpeg);
+        }
+        checkAllocations(baos.toByteArray(), 1);
+    }
+
+    private static void checkAllocations(int[][] samplingFactors) throws Exception {
+        // alternate between two images to exercise the table reloading
+        byte[] jpeg0 = TestImages.encode(TestImages.createPattern(WIDTH, HEIGHT), samplingFactors, 0.9f);
+        byte[] jpeg1 = TestImages.encode(TestImages.createPattern(WIDTH, HEIGHT), samplingFactors, 0.5f);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for(int i=0 ; i<WARMUP_FRAMES+FRAMES*ROUNDS ; i++) {
+            baos.write(((i & 1) == 0) ? jpeg0 : jpeg1);
+        }
+        checkAllocations(baos.toByteArray(), 3);
+    }
+
+    private static void checkAllocations(byte[] stream, int numComponents) throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)threadMXBean;
+        assumeTrue(bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        final long threadId = Thread.currentThread().getId();
+        final JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(stream));
+        final ByteBuffer dst = ByteBuffer.allocate(WIDTH * HEIGHT * 4);
+        final ByteBuffer[] dstRAW = { dst };
+        final int[] strides = { WIDTH + 8 };
+
+        // the first decode and the first call to the bean may allocate
+        decodeFrames(decoder, dst, dstRAW, strides, numComponents, true, WARMUP_FRAMES);
+        bean.getThreadAllocatedBytes(threadId);
+
+        // JIT compilation can charge a few bytes to the thread while the code
+        // is still being optimized - a real allocation shows up in every round
+        long allocated = Long.MAX_VALUE;
+        for(int round=0 ; round<ROUNDS && allocated > 0 ; round++) {
+            long allocatedBefore = bean.getThreadAllocatedBytes(threadId);
+            decodeFrames(decoder, dst, dstRAW, strides, numComponents, false, FRAMES);
+            allocated = bean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+
+        assertEquals(numComponents, decoder.getNumComponents());
+        assertEquals("bytes allocated for " + FRAMES + " frames", 0, allocated);
+    }
+
+    private static void decodeFrames(JPEGDecoder decoder, ByteBuffer dst, ByteBuffer[] dstRAW, int[] strides,
+            int numComponents, boolean firstFrame, int count) throws Exception {
+        for(int i=0 ; i<count ; i++) {
+            if((i > 0 || !firstFrame) && !decoder.nextFrame()) {
+                fail("missing frame");
+            }
+            if(!decoder.startDecode()) {
+                fail("no image data");
+            }
+            dst.clear();
+            if(numComponents == 1) {
+                decoder.decodeRAW(dstRAW, strides, decoder.getNumMCURows());
+            } else {
+                decoder.decode(dst, WIDTH * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+            }
+        }
+    }
+}
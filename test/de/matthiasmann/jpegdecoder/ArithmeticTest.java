@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Decodes arithmetic coded JPEGs and compares them with the huffman coded
+ * original. Both contain the same DCT coefficients.
+ *
+ * @author Matthias Mann
+ */
+public class ArithmeticTest {
+
+    private static final int[][] SCANS_INTERLEAVED = {{0, 1, 2}};
+    private static final int[][] SCANS_SEPARATE = {{0}, {1}, {2}};
+
+    public ArithmeticTest() {
+    }
+
+    @Test
+    public void testArithmetic() throws Exception {
+        for(int[][] samplingFactors : new int[][][] {
+                {{1,1}, {1,1}, {1,1}},
+                {{2,2}, {1,1}, {1,1}},
+                {{2,1}, {1,1}, {1,1}}}) {
+            byte[] jpeg = TestImages.encode(TestImages.createPattern(101, 77), samplingFactors, 0.9f);
+            byte[] ref = decode(jpeg);
+
+            ArithmeticWriter writer = new ArithmeticWriter(jpeg);
+            ArithmeticWriter writerDAC = new ArithmeticWriter(jpeg, 1, 3, 2);
+            for(int[][] scans : new int[][][] { SCANS_INTERLEAVED, SCANS_SEPARATE }) {
+                for(int restartInterval : new int[] { 0, 3 }) {
+                    byte[] arith = writer.write(scans, restartInterval);
+                    assertTrue(arith.length < jpeg.length);
+                    assertArrayEquals(ref, decode(arith));
+                    assertArrayEquals(ref, decode(writerDAC.write(scans, restartInterval)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        BufferedImage img = new BufferedImage(70, 50, BufferedImage.TYPE_BYTE_GRAY);
+        img.getGraphics().drawImage(TestImages.createPattern(70, 50), 0, 0, null);
+        byte[] jpeg = TestImages.encode(img, null, 0.9f);
+        byte[] arith = new ArithmeticWriter(jpeg).write(new int[][] {{0}}, 4);
+        assertArrayEquals(decodeRAW(jpeg), decodeRAW(arith));
+    }
+
+    @Test
+    public void testFingerprint() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(128, 96), null, 0.9f);
+        byte[] arith = new ArithmeticWriter(jpeg).write(SCANS_INTERLEAVED, 0);
+
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        decoder.startDecode();
+        JPEGFingerprint ref = decoder.decodeFingerprint();
+        decoder = new JPEGDecoder(new ByteArrayInputStream(arith));
+        decoder.startDecode();
+        assertEquals(ref.getHash(), decoder.decodeFingerprint().getHash());
+    }
+
+    @Test
+    public void testCorruptData() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(101, 77), null, 0.9f);
+        byte[] arith = new ArithmeticWriter(jpeg).write(SCANS_INTERLEAVED, 2);
+        // overwrite some entropy coded bytes in the middle of the image
+        for(int i=arith.length/2 ; i<arith.length/2+20 ; i++) {
+            if(arith[i] != (byte)0xFF && arith[i-1] != (byte)0xFF) {
+                arith[i] = (byte)(arith[i] * 31 + 7);
+            }
+        }
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(arith));
+        decoder.setErrorConcealment(ErrorConcealment.GRAY);
+        assertTrue(decoder.startDecode());
+        ByteBuffer dst = ByteBuffer.allocate(101 * 77 * 4);
+        decoder.decode(dst, 101 * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        assertFalse(dst.hasRemaining());
+        assertFalse(decoder.startDecode());
+    }
+
+    private static byte[] decode(byte[] jpeg) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        assertTrue(decoder.startDecode());
+        int width = decoder.getImageWidth();
+        ByteBuffer dst = ByteBuffer.allocate(width * decoder.getImageHeight() * 4);
+        decoder.decode(dst, width * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        assertFalse(decoder.startDecode());
+        return dst.array();
+    }
+
+    private static byte[] decodeRAW(byte[] jpeg) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        assertTrue(decoder.startDecode());
+        Component c = decoder.getComponent(0);
+        ByteBuffer dst = ByteBuffer.allocate(c.getMinReqWidth() * c.getMinReqHeight());
+        decoder.decodeRAW(new ByteBuffer[] { dst }, new int[] { c.getMinReqWidth() }, decoder.getNumMCURows());
+        assertFalse(decoder.startDecode());
+        return dst.array();
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Rewrites a baseline JPEG as sequential arithmetic coded JPEG (SOF9).
+ * This is a port of the sequential part of the IJG arithmetic encoder.
+ *
+ * @author Matthias Mann
+ */
+class ArithmeticWriter extends MultiScanWriter {
+
+    private final int dcL;
+    private final int dcU;
+    private final int acK;
+    private final byte[][] dcStats;
+    private final byte[][] acStats;
+    private final byte[] fixedBin;
+    private final int[] lastDC;
+    private final int[] dcContext;
+
+    private int c;
+    private int a;
+    private int sc;
+    private int zc;
+    private int ct;
+    private int buffer;
+
+    /**
+     * Creates an arithmetic writer with the default conditioning (no DAC segment)
+     *
+     * @param jpeg the source JPEG
+     */
+    ArithmeticWriter(byte[] jpeg) throws IOException {
+        this(jpeg, 0, 1, 5);
+    }
+
+    /**
+     * Creates an arithmetic writer with the specified conditioning for all tables
+     *
+     * @param jpeg the source JPEG
+     * @param dcL the DC lower bound L
+     * @param dcU the DC upper bound U
+     * @param acK the AC threshold Kx
+     */
+    ArithmeticWriter(byte[] jpeg, int dcL, int dcU, int acK) throws IOException {
+        super(jpeg);
+        this.dcL = dcL;
+        this.dcU = dcU;
+        this.acK = acK;
+        this.dcStats = new byte[4][64];
+        this.acStats = new byte[4][256];
+        this.fixedBin = new byte[1];
+        this.lastDC = new int[compId.length];
+        this.dcContext = new int[compId.length];
+    }
+
+    @Override
+    void writeSegment(byte[] segment) throws IOException {
+        int marker = segment[1] & 255;
+        if(marker == 0xC4) {
+            return;     // no huffman tables
+        }
+        if(marker == 0xC0) {
+            segment = segment.clone();
+            segment[1] = (byte)0xC9;
+            out.write(segment);
+            if(dcL != 0 || dcU != 1 || acK != 5) {
+                out.write(new byte[] { (byte)0xFF, (byte)0xCC, 0, 2 + 4*2,
+                    0x00, (byte)((dcU << 4) | dcL), 0x01, (byte)((dcU << 4) | dcL),
+                    0x10, (byte)acK, 0x11, (byte)acK });
+            }
+            return;
+        }
+        super.writeSegment(segment);
+    }
+
+    @Override
+    void startScan(int[] scan) {
+        for(byte[] stats : dcStats) {
+            Arrays.fill(stats, (byte)0);
+        }
+        for(byte[] stats : acStats) {
+            Arrays.fill(stats, (byte)0);
+        }
+        Arrays.fill(lastDC, 0);
+        Arrays.fill(dcContext, 0);
+        fixedBin[0] = 113;
+        c = 0;
+        a = 0x10000;
+        sc = 0;
+        zc = 0;
+        ct = 11;
+        buffer = -1;
+    }
+
+    @Override
+    void finishScan() {
+        int temp = (a - 1 + c) & 0xFFFF0000;
+        if(temp < c) {
+            c = temp + 0x8000;
+        } else {
+            c = temp;
+        }
+        c <<= ct;
+        if((c & 0xF8000000) != 0) {
+            if(buffer >= 0) {
+                emitZeros();
+                emitByte(buffer + 1);
+                if(buffer + 1 == 0xFF) {
+                    emitByte(0);
+                }
+            }
+            zc += sc;
+            sc = 0;
+        } else {
+            if(buffer == 0) {
+                ++zc;
+            } else if(buffer >= 0) {
+                emitZeros();
+                emitByte(buffer);
+            }
+            if(sc != 0) {
+                emitZeros();
+                do {
+                    emitByte(0xFF);
+                    emitByte(0);
+                } while(--sc != 0);
+            }
+        }
+        if((c & 0x7FFF800) != 0) {
+            emitZeros();
+            emitByte((c >> 19) & 0xFF);
+            if(((c >> 19) & 0xFF) == 0xFF) {
+                emitByte(0);
+            }
+            if((c & 0x7F800) != 0) {
+                emitByte((c >> 11) & 0xFF);
+                if(((c >> 11) & 0xFF) == 0xFF) {
+                    emitByte(0);
+                }
+            }
+        }
+    }
+
+    @Override
+    void encodeBlock(int compIdx, int[] zz) {
+        int dcTable = compTables[compIdx] >> 4;
+        int acTable = compTables[compIdx] & 15;
+
+        byte[] stats = dcStats[dcTable];
+        int st = dcContext[compIdx];
+        int v = zz[0] - lastDC[compIdx];
+        if(v == 0) {
+            encode(stats, st, 0);
+            dcContext[compIdx] = 0;
+        } else {
+            lastDC[compIdx] = zz[0];
+            encode(stats, st, 1);
+            if(v > 0) {
+                encode(stats, st + 1, 0);
+                st += 2;
+                dcContext[compIdx] = 4;
+            } else {
+                v = -v;
+                encode(stats, st + 1, 1);
+                st += 3;
+                dcContext[compIdx] = 8;
+            }
+            int m = 0;
+            if((v -= 1) != 0) {
+                encode(stats, st, 1);
+                m = 1;
+                int v2 = v;
+                st = 20;
+                while((v2 >>= 1) != 0) {
+                    encode(stats, st, 1);
+                    m <<= 1;
+                    st++;
+                }
+            }
+            encode(stats, st, 0);
+            if(m < ((1 << dcL) >> 1)) {
+                dcContext[compIdx] = 0;
+            } else if(m > ((1 << dcU) >> 1)) {
+                dcContext[compIdx] += 8;
+            }
+            st += 14;
+            while((m >>= 1) != 0) {
+                encode(stats, st, ((m & v) != 0) ? 1 : 0);
+            }
+        }
+
+        stats = acStats[acTable];
+        int ke = 63;
+        while(ke > 0 && zz[ke] == 0) {
+            ke--;
+        }
+        int k = 0;
+        while(k < ke) {
+            st = 3 * k;
+            encode(stats, st, 0);
+            while((v = zz[++k]) == 0) {
+                encode(stats, st + 1, 0);
+                st += 3;
+            }
+            encode(stats, st + 1, 1);
+            if(v > 0) {
+                encode(fixedBin, 0, 0);
+            } else {
+                v = -v;
+                encode(fixedBin, 0, 1);
+            }
+            st += 2;
+            int m = 0;
+            if((v -= 1) != 0) {
+                encode(stats, st, 1);
+                m = 1;
+                int v2 = v;
+                if((v2 >>= 1) != 0) {
+                    encode(stats, st, 1);
+                    m <<= 1;
+                    st = (k <= acK) ? 189 : 217;
+                    while((v2 >>= 1) != 0) {
+                        encode(stats, st, 1);
+                        m <<= 1;
+                        st++;
+                    }
+                }
+            }
+            encode(stats, st, 0);
+            st += 14;
+            while((m >>= 1) != 0) {
+                encode(stats, st, ((m & v) != 0) ? 1 : 0);
+            }
+        }
+        if(k < 63) {
+            encode(stats, 3 * k, 1);
+        }
+    }
+
+    private void encode(byte[] stats, int idx, int val) {
+        int sv = stats[idx] & 255;
+        int qe = ArithmeticDecoder.QE_TABLE[sv & 0x7F];
+        int nl = qe & 0xFF;
+        int nm = (qe >> 8) & 0xFF;
+        qe >>>= 16;
+
+        a -= qe;
+        if(val != (sv >> 7)) {
+            if(a >= qe) {
+                c += a;
+                a = qe;
+            }
+            stats[idx] = (byte)((sv & 0x80) ^ nl);
+        } else {
+            if(a >= 0x8000) {
+                return;
+            }
+            if(a < qe) {
+                c += a;
+                a = qe;
+            }
+            stats[idx] = (byte)((sv & 0x80) ^ nm);
+        }
+
+        do {
+            a <<= 1;
+            c <<= 1;
+            if(--ct == 0) {
+                int temp = c >> 19;
+                if(temp > 0xFF) {
+                    if(buffer >= 0) {
+                        emitZeros();
+                        emitByte(buffer + 1);
+                        if(buffer + 1 == 0xFF) {
+                            emitByte(0);
+                        }
+                    }
+                    zc += sc;
+                    sc = 0;
+                    buffer = temp & 0xFF;
+                } else if(temp == 0xFF) {
+                    ++sc;
+                } else {
+                    if(buffer == 0) {
+                        ++zc;
+                    } else if(buffer >= 0) {
+                        emitZeros();
+                        emitByte(buffer);
+                    }
+                    if(sc != 0) {
+                        emitZeros();
+                        do {
+                            emitByte(0xFF);
+                            emitByte(0);
+                        } while(--sc != 0);
+                    }
+                    buffer = temp & 0xFF;
+                }
+                c &= 0x7FFFF;
+                ct += 8;
+            }
+        } while(a < 0x8000);
+    }
+
+    private void emitZeros() {
+        for(; zc > 0 ; zc--) {
+            emitByte(0);
+        }
+    }
+
+    private void emitByte(int b) {
+        out.write(b);
+    }
+}
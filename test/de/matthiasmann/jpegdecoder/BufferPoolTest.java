@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the buffer pool and the pooled decode.
+ *
+ * @author Matthias Mann
+ */
+public class BufferPoolTest {
+
+    public BufferPoolTest() {
+    }
+
+    @Test
+    public void testSizeClasses() {
+        assertEquals(4096, BufferPool.classSize(1));
+        assertEquals(4096, BufferPool.classSize(4096));
+        assertEquals(5120, BufferPool.classSize(4097));
+        assertEquals(8192, BufferPool.classSize(8192));
+        assertEquals(10240, BufferPool.classSize(8193));
+        assertEquals(8 << 20, BufferPool.classSize(1920*1080*4));
+        assertEquals(10 << 20, BufferPool.classSize((8 << 20) + 1));
+        assertEquals(1 << 30, BufferPool.classSize((1 << 30) - 1));
+
+        int prevSize = 0;
+        int prevIdx = -1;
+        for(int size=1 ; size<=(1<<30) && size>0 ; size+=1+(size>>5)) {
+            int c = BufferPool.classSize(size);
+            int idx = BufferPool.classIndex(size);
+            assertTrue(c >= size);
+            assertTrue(c - size <= size / 4 + BufferPool.MIN_SIZE);
+            assertEquals(idx, BufferPool.classIndex(c));
+            if(c == prevSize) {
+                assertEquals(prevIdx, idx);
+            } else {
+                assertTrue(c > prevSize);
+                assertTrue(idx == prevIdx + 1);
+            }
+            assertTrue(idx < BufferPool.NUM_CLASSES);
+            prevSize = c;
+            prevIdx = idx;
+        }
+    }
+
+    @Test
+    public void testAcquireRelease() {
+        for(boolean direct : new boolean[] { false, true }) {
+            BufferPool pool = new BufferPool(direct, 1 << 16);
+            ByteBuffer a = pool.acquire(10000);
+            assertEquals(direct, a.isDirect());
+            assertEquals(0, a.position());
+            assertEquals(10000, a.limit());
+            assertEquals(10240, a.capacity());
+            assertEquals(1, pool.getMisses());
+
+            pool.release(a);
+            assertEquals(10240, pool.getPooledBytes());
+            assertSame(a, pool.acquire(9000));
+            assertEquals(9000, a.limit());
+            assertEquals(1, pool.getHits());
+            assertEquals(0, pool.getPooledBytes());
+
+            pool.release(a);
+            try {
+                pool.release(a);
+                fail("expected IllegalStateException");
+            } catch(IllegalStateException ex) {
+                // expected
+            }
+
+            // not from this pool or above the byte limit
+            pool.release(ByteBuffer.allocate(1000));
+            pool.release(pool.acquire(1 << 17));
+            assertEquals(2, pool.getDiscarded());
+            assertEquals(10240, pool.getPooledBytes());
+        }
+    }
+
+    @Test
+    public void testDoubleReleaseAtLimit() {
+        BufferPool pool = new BufferPool(false, 10240);
+        ByteBuffer a = pool.acquire(10000);
+        pool.release(a);
+        assertEquals(10240, pool.getPooledBytes());
+
+        // the pool is full, but the buffer is still detected
+        try {
+            pool.release(a);
+            fail("expected IllegalStateException");
+        } catch(IllegalStateException ex) {
+            // expected
+        }
+        assertEquals(0, pool.getDiscarded());
+        assertEquals(10240, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testDecodeImage() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(123, 77), null, 0.9f);
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        ByteBuffer expected = ByteBuffer.allocate(123*77*4);
+        decoder.decode(expected, 123*4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        expected.flip();
+
+        BufferPool pool = new BufferPool(true, 1 << 20);
+        ByteBuffer first = null;
+        for(int i=0 ; i<3 ; i++) {
+            decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+            assertTrue(decoder.startDecode());
+            DecodedImage img = decoder.decodeImage(pool, YUVtoRGBA.instance, 4);
+            assertEquals(123, img.getWidth());
+            assertEquals(77, img.getHeight());
+            assertEquals(123*4, img.getStride());
+            assertEquals(123*77*4, img.getSizeInBytes());
+            assertEquals(expected, img.getData());
+            img.release();
+            img.release();
+            try {
+                img.getData();
+                fail("expected IllegalStateException");
+            } catch(IllegalStateException ex) {
+                // expected
+            }
+        }
+        assertEquals(1, pool.getMisses());
+        assertEquals(2, pool.getHits());
+    }
+
+    @Test
+    public void testDecodeImageAfterPartialDecode() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(64, 48), null, 0.9f);
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        decoder.decode(ByteBuffer.allocate(64*48*4), 64*4, 1, YUVtoRGBA.instance);
+
+        BufferPool pool = new BufferPool(false, 1 << 20);
+        try {
+            decoder.decodeImage(pool, YUVtoRGBA.instance, 4);
+            fail("expected IllegalStateException");
+        } catch(IllegalStateException ex) {
+            // expected
+        }
+        assertEquals(0, pool.getMisses());
+    }
+}
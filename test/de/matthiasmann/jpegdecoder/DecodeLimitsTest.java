@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the pixel and memory limits, the deadline and cancellation.
+ *
+ * @author Matthias Mann
+ */
+public class DecodeLimitsTest {
+
+    public DecodeLimitsTest() {
+    }
+
+    @Test
+    public void testMaxPixels() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(64, 48), null, 0.8f);
+        // claim 65535x65535 pixels in the frame header
+        for(int i=0 ; i<jpeg.length-1 ; i++) {
+            if(jpeg[i] == (byte)0xFF && jpeg[i+1] == (byte)0xC0) {
+                for(int j=5 ; j<9 ; j++) {
+                    jpeg[i+j] = (byte)0xFF;
+                }
+                break;
+            }
+        }
+
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.setMaxPixels(4096 * 4096);
+        try {
+            decoder.decodeHeader();
+            fail("expected IOException");
+        } catch(IOException ex) {
+            assertTrue(ex.getMessage().contains("65535x65535"));
+        }
+
+        decoder = new JPEGDecoder(ByteBuffer.wrap(TestImages.encode(TestImages.createPattern(64, 48), null, 0.8f)));
+        decoder.setMaxPixels(64 * 48);
+        assertTrue(decoder.startDecode());
+    }
+
+    @Test
+    public void testMaxScratchBytes() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(640, 480), null, 0.8f);
+
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.setMaxScratchBytes(1024);
+        try {
+            decoder.decodeHeader();
+            fail("expected IOException");
+        } catch(IOException ex) {
+            // expected
+        }
+
+        decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.setMaxScratchBytes(1 << 20);
+        assertTrue(decoder.startDecode());
+        decoder.decode(ByteBuffer.allocate(640*480*4), 640*4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(64, 48), null, 0.8f);
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        ByteBuffer dst = ByteBuffer.allocate(64*48*4);
+        decoder.decode(dst, 64*4, 1, YUVtoRGBA.instance);
+        decoder.cancel();
+        assertTrue(decoder.isCancelled());
+        try {
+            decoder.decode(dst, 64*4, 1, YUVtoRGBA.instance);
+            fail("expected InterruptedIOException");
+        } catch(InterruptedIOException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(64, 48), null, 0.8f);
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.setDeadline(System.nanoTime() - 1);
+        assertTrue(decoder.startDecode());
+        ByteBuffer dst = ByteBuffer.allocate(64*48*4);
+        try {
+            decoder.decode(dst, 64*4, 1, YUVtoRGBA.instance);
+            fail("expected InterruptedIOException");
+        } catch(InterruptedIOException ex) {
+            // expected
+        }
+
+        decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.setDeadline(System.nanoTime() - 1);
+        decoder.clearDeadline();
+        assertTrue(decoder.startDecode());
+        decoder.decode(dst, 64*4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+    }
+
+    @Test
+    public void testCancelParallel() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(640, 480), null, 0.95f);
+        final JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        checkParallelAbort(decoder, new Runnable() {
+            public void run() {
+                decoder.cancel();
+            }
+        });
+    }
+
+    @Test
+    public void testDeadlineParallel() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(640, 480), null, 0.95f);
+        final JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.setDeadline(System.nanoTime() + 60000000000L);
+        checkParallelAbort(decoder, new Runnable() {
+            public void run() {
+                decoder.setDeadline(System.nanoTime() - 1);
+            }
+        });
+    }
+
+    /**
+     * Runs a parallel decode where the abort condition is triggered when the
+     * first task starts.
+     */
+    private static void checkParallelAbort(JPEGDecoder decoder, final Runnable trigger) throws Exception {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            protected void beforeExecute(Thread t, Runnable r) {
+                trigger.run();
+            }
+        };
+        try {
+            decoder.setParallelDecoding(executor, 4);
+            decoder.startDecode();
+            fail("expected InterruptedIOException");
+        } catch(InterruptedIOException ex) {
+            // the tasks of the parallel decoder must notice the abort
+            boolean found = false;
+            for(StackTraceElement e : ex.getStackTrace()) {
+                found |= e.getClassName().startsWith(ParallelHuffmanDecoder.class.getName());
+            }
+            assertTrue(found);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the events reported to a {@link DecodeListener} and the number of
+ * consumed bytes passed with them.
+ *
+ * @author Matthias Mann
+ */
+public class DecodeListenerTest {
+
+    public DecodeListenerTest() {
+    }
+
+    @Test
+    public void testStreamInput() throws Exception {
+        byte[] jpeg = createJPEG();
+        check(jpeg, new JPEGDecoder(new ByteArrayInputStream(jpeg)));
+    }
+
+    @Test
+    public void testByteBufferInput() throws Exception {
+        byte[] jpeg = createJPEG();
+        check(jpeg, new JPEGDecoder(ByteBuffer.wrap(jpeg)));
+    }
+
+    @Test
+    public void testOperations() throws Exception {
+        byte[] jpeg = createJPEG();
+        RecordingListener l = new RecordingListener();
+
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.setDecodeListener(l);
+        assertTrue(decoder.startDecode());
+        decoder.decodeLuma(ByteBuffer.allocate(64 * 48), 64, 1);
+        int w = decoder.getImageWidth();
+        int h = decoder.getImageHeight();
+        ByteBuffer dstY = ByteBuffer.allocate(w * h);
+        ByteBuffer dstU = ByteBuffer.allocate(w * h / 4);
+        ByteBuffer dstV = ByteBuffer.allocate(w * h / 4);
+        decoder.decodeI420(dstY, w, dstU, dstV, w / 2, 1);
+        decoder.decode(ByteBuffer.allocate(w * h * 4), w * 4, decoder.getNumMCURows() - 2, YUVtoRGBA.instance);
+
+        assertEquals(3, l.rows.size());
+        assertEquals("DECODE_LUMA 1", l.rows.get(0));
+        assertEquals("DECODE_I420 1", l.rows.get(1));
+        assertEquals("DECODE " + (decoder.getNumMCURows() - 2), l.rows.get(2));
+    }
+
+    private static void check(byte[] jpeg, JPEGDecoder decoder) throws Exception {
+        RecordingListener l = new RecordingListener();
+        decoder.setDecodeListener(l);
+        assertSame(l, decoder.getDecodeListener());
+
+        decoder.decodeHeader();
+        assertEquals(1, l.numHeaders);
+        assertEquals(findSegmentEnd(jpeg, 0xC0), l.headerBytes);
+
+        assertTrue(decoder.startDecode());
+        assertEquals(1, l.numScans);
+        assertEquals(3, l.scanComponents);
+        assertEquals(findSegmentEnd(jpeg, 0xDA), l.scanBytes);
+
+        int width = decoder.getImageWidth();
+        int numMCURows = decoder.getNumMCURows();
+        ByteBuffer dst = ByteBuffer.allocate(width * decoder.getImageHeight() * 4);
+        decoder.decode(dst, width * 4, 1, YUVtoRGBA.instance);
+        decoder.decode(dst, width * 4, numMCURows - 1, YUVtoRGBA.instance);
+        assertFalse(decoder.startDecode());
+        assertEquals(1, l.numHeaders);
+        assertEquals(1, l.numScans);
+
+        assertEquals(2, l.rows.size());
+        assertEquals("DECODE 1", l.rows.get(0));
+        assertEquals("DECODE " + (numMCURows - 1), l.rows.get(1));
+        assertTrue(l.rowBytes.get(0) > l.scanBytes);
+        assertTrue(l.rowBytes.get(1) > l.rowBytes.get(0));
+        assertTrue(l.rowBytes.get(1) <= jpeg.length);
+
+        // one restart marker after every 4 MCUs except at the end
+        int numMCUs = numMCURows * ((width + 15) / 16);
+        int numRestarts = (numMCUs + 3) / 4 - 1;
+        assertEquals(numRestarts, l.restartMarkers.size());
+        long lastBytes = l.scanBytes;
+        int lastRow = 0;
+        for(int i=0 ; i<numRestarts ; i++) {
+            int marker = l.restartMarkers.get(i);
+            int mcuRow = l.restartRows.get(i);
+            long bytes = l.restartBytes.get(i);
+            assertEquals(0xD0 + (i & 7), marker);
+            assertTrue(mcuRow >= lastRow);
+            assertTrue(bytes > lastBytes);
+            // the marker has just been consumed
+            assertEquals((byte)0xFF, jpeg[(int)bytes - 2]);
+            assertEquals((byte)marker, jpeg[(int)bytes - 1]);
+            lastBytes = bytes;
+            lastRow = mcuRow;
+        }
+    }
+
+    private static byte[] createJPEG() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(64, 48),
+                new int[][] {{2,2}, {1,1}, {1,1}}, 0.9f);
+        return new MultiScanWriter(jpeg).write(new int[][] {{0,1,2}}, 4);
+    }
+
+    private static long findSegmentEnd(byte[] jpeg, int marker) {
+        int pos = 2;
+        for(;;) {
+            assertEquals((byte)0xFF, jpeg[pos]);
+            int len = ((jpeg[pos+2] & 255) << 8) | (jpeg[pos+3] & 255);
+            if((jpeg[pos+1] & 255) == marker) {
+                return pos + 2 + len;
+            }
+            pos += 2 + len;
+        }
+    }
+
+    static class RecordingListener extends DecodeListener {
+        int numHeaders;
+        long headerBytes;
+        int numScans;
+        int scanComponents;
+        long scanBytes;
+        final ArrayList<String> rows = new ArrayList<String>();
+        final ArrayList<Long> rowBytes = new ArrayList<Long>();
+        final ArrayList<Integer> restartMarkers = new ArrayList<Integer>();
+        final ArrayList<Integer> restartRows = new ArrayList<Integer>();
+        final ArrayList<Long> restartBytes = new ArrayList<Long>();
+
+        @Override
+        public void headerDecoded(JPEGDecoder decoder, long bytesConsumed, long durationNanos) {
+            assertTrue(durationNanos >= 0);
+            numHeaders++;
+            headerBytes = bytesConsumed;
+        }
+
+        @Override
+        public void scanStarted(JPEGDecoder decoder, int numScanComponents, long bytesConsumed, long durationNanos) {
+            assertTrue(durationNanos >= 0);
+            numScans++;
+            scanComponents = numScanComponents;
+            scanBytes = bytesConsumed;
+        }
+
+        @Override
+        public void rowsDecoded(JPEGDecoder decoder, Operation op, int numMCURows, long bytesConsumed, long durationNanos) {
+            assertTrue(durationNanos >= 0);
+            rows.add(op + " " + numMCURows);
+            rowBytes.add(bytesConsumed);
+        }
+
+        @Override
+        public void restartMarker(JPEGDecoder decoder, int marker, int mcuRow, long bytesConsumed) {
+            restartMarkers.add(marker);
+            restartRows.add(mcuRow);
+            restartBytes.add(bytesConsumed);
+        }
+    }
+}
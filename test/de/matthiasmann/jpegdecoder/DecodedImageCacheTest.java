@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the decoded image cache.
+ *
+ * @author Matthias Mann
+ */
+public class DecodedImageCacheTest {
+
+    public DecodedImageCacheTest() {
+    }
+
+    @Test
+    public void testCacheAndEvict() throws Exception {
+        ByteBuffer a = ByteBuffer.wrap(TestImages.encode(TestImages.createPattern(64, 48), null, 0.8f));
+        ByteBuffer b = ByteBuffer.wrap(TestImages.encode(TestImages.createPattern(48, 64), null, 0.8f));
+        DecodedImageCache.Params params = new DecodedImageCache.Params(YUVtoRGBA.instance, 4, false);
+
+        DecodedImageCache cache = new DecodedImageCache(64*48*4);
+        DecodedImage imgA = cache.get(null, a, params);
+        assertEquals(64, imgA.getWidth());
+        assertEquals(48, imgA.getHeight());
+        assertEquals(64*4, imgA.getStride());
+        assertEquals(0, a.position());
+        assertTrue(imgA.getData().isReadOnly());
+
+        JPEGDecoder decoder = new JPEGDecoder(a.duplicate());
+        decoder.startDecode();
+        ByteBuffer expected = ByteBuffer.allocate(64*48*4);
+        decoder.decode(expected, 64*4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        expected.clear();
+        assertEquals(expected, imgA.getData());
+
+        assertSame(imgA, cache.get(null, a, params));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(64*48*4, cache.getCurrentBytes());
+
+        // different source or parameters are different entries
+        assertNotSame(imgA, cache.get("a.jpg", a, params));
+        assertNotSame(imgA, cache.get(null, a, new DecodedImageCache.Params(YUVtoBGRA.instance, 4, false)));
+        assertEquals(3, cache.getMisses());
+
+        // only one image fits into the budget
+        cache.get(null, b, params);
+        assertNotSame(imgA, cache.get(null, a, params));
+        assertEquals(5, cache.getMisses());
+        assertEquals(64*48*4, cache.getCurrentBytes());
+
+        cache.clear();
+        assertEquals(0, cache.getCurrentBytes());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        final ByteBuffer jpeg = ByteBuffer.wrap(TestImages.encode(TestImages.createPattern(64, 48), null, 0.8f));
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger lines = new AtomicInteger();
+        final YUVDecoder blocking = new YUVDecoder() {
+            public void decode(ByteBuffer out, int outPos, byte[] inY, byte[] inU, byte[] inV, int inPos, int count) {
+                if(lines.getAndIncrement() == 0) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch(InterruptedException ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+                YUVtoRGBA.instance.decode(out, outPos, inY, inU, inV, inPos, count);
+            }
+        };
+
+        final DecodedImageCache cache = new DecodedImageCache(1 << 20);
+        final DecodedImageCache.Params params = new DecodedImageCache.Params(blocking, 4, false);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ArrayList<Future<DecodedImage>> results = new ArrayList<Future<DecodedImage>>();
+            for(int i=0 ; i<4 ; i++) {
+                results.add(executor.submit(new Callable<DecodedImage>() {
+                    public DecodedImage call() throws Exception {
+                        return cache.get(null, jpeg, params);
+                    }
+                }));
+                if(i == 0) {
+                    assertTrue(started.await(10, TimeUnit.SECONDS));
+                }
+            }
+            while(cache.getHits() < 3) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            DecodedImage first = results.get(0).get();
+            for(Future<DecodedImage> f : results) {
+                assertSame(first, f.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(3, cache.getHits());
+        assertEquals(48, lines.get());
+    }
+
+    @Test
+    public void testErrorIsNotCached() throws Exception {
+        byte[] data = TestImages.encode(TestImages.createPattern(64, 48), null, 0.8f);
+        ByteBuffer truncated = ByteBuffer.wrap(data, 0, 20).slice();
+        DecodedImageCache cache = new DecodedImageCache(1 << 20);
+        DecodedImageCache.Params params = new DecodedImageCache.Params(YUVtoRGBA.instance, 4, false);
+        for(int i=0 ; i<2 ; i++) {
+            try {
+                cache.get(null, truncated, params);
+                fail("expected IOException");
+            } catch(IOException ex) {
+                // expected
+            }
+        }
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getCurrentBytes());
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that error concealment leaves valid images unchanged and hides
+ * corrupt image data.
+ *
+ * @author Matthias Mann
+ */
+public class ErrorConcealmentTest {
+
+    public ErrorConcealmentTest() {
+    }
+
+    @Test
+    public void testValidImages() throws Exception {
+        for(int[] size : new int[][] {{257, 97}, {64, 48}, {123, 77}, {31, 200}}) {
+            for(int type : new int[] { BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_RGB }) {
+                byte[] jpeg = TestImages.encode(createNoisyPattern(size[0], size[1], type), null, 0.9f);
+                MultiScanWriter writer = new MultiScanWriter(jpeg);
+                int[][] scans = (type == BufferedImage.TYPE_BYTE_GRAY) ? new int[][] {{0}} : new int[][] {{0, 1, 2}};
+                for(int restartInterval : new int[] { 0, 1, 3, 7 }) {
+                    byte[] data = (restartInterval == 0) ? jpeg : writer.write(scans, restartInterval);
+                    byte[][] ref = decodeRAW(data, ErrorConcealment.NONE, null);
+                    for(ErrorConcealment ec : new ErrorConcealment[] { ErrorConcealment.GRAY, ErrorConcealment.PREVIOUS_ROW }) {
+                        int[] concealed = new int[1];
+                        byte[][] raw = decodeRAW(data, ec, concealed);
+                        assertEquals(0, concealed[0]);
+                        for(int i=0 ; i<ref.length ; i++) {
+                            assertArrayEquals(ref[i], raw[i]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptData() throws Exception {
+        byte[] jpeg = TestImages.encode(createNoisyPattern(256, 160, BufferedImage.TYPE_BYTE_GRAY), null, 0.9f);
+        byte[] valid = new MultiScanWriter(jpeg).write(new int[][] {{0}}, 8);
+        byte[][] ref = decodeRAW(valid, ErrorConcealment.NONE, null);
+
+        // all one bits are not a valid huffman code
+        byte[] corrupt = valid.clone();
+        int mid = corrupt.length / 2;
+        for(int i=0 ; i<64 ; i+=2) {
+            corrupt[mid + i] = (byte)0xFF;
+            corrupt[mid + i + 1] = 0;
+        }
+
+        try {
+            decodeRAW(corrupt, ErrorConcealment.NONE, null);
+            fail("expected IOException");
+        } catch(IOException ex) {
+            // expected
+        }
+
+        int[] concealed = new int[1];
+        byte[][] raw = decodeRAW(corrupt, ErrorConcealment.GRAY, concealed);
+        // 20 MCU rows of 32 MCUs - the damage is limited to a few restart intervals
+        assertTrue(concealed[0] > 0);
+        assertTrue(concealed[0] <= 4 * 8 * 32 / 8);
+
+        // the first and the last MCU row are not affected
+        int rowSize = 256 * 8;
+        for(int i=0 ; i<rowSize ; i++) {
+            assertEquals(ref[0][i], raw[0][i]);
+            assertEquals(ref[0][ref[0].length - 1 - i], raw[0][raw[0].length - 1 - i]);
+        }
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        byte[] jpeg = TestImages.encode(createNoisyPattern(160, 120, BufferedImage.TYPE_INT_RGB),
+                new int[][] {{2,2}, {1,1}, {1,1}}, 0.9f);
+        byte[] ref = decodeRGBA(jpeg, ErrorConcealment.NONE, null, false);
+        byte[] truncated = new byte[jpeg.length / 2];
+        System.arraycopy(jpeg, 0, truncated, 0, truncated.length);
+
+        for(boolean stream : new boolean[] { false, true }) {
+            try {
+                decodeRGBA(truncated, ErrorConcealment.NONE, null, stream);
+                fail("expected IOException");
+            } catch(IOException ex) {
+                // expected
+            }
+
+            for(ErrorConcealment ec : new ErrorConcealment[] { ErrorConcealment.GRAY, ErrorConcealment.PREVIOUS_ROW }) {
+                int[] concealed = new int[1];
+                byte[] rgba = decodeRGBA(truncated, ec, concealed, stream);
+                // 8 MCU rows of 10 MCUs, about half of them are lost
+                assertTrue(concealed[0] > 10);
+                assertTrue(concealed[0] < 80);
+
+                // the first MCU row is complete
+                for(int i=0 ; i<160*16*4 ; i++) {
+                    assertEquals(ref[i], rgba[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPreviousRow() throws Exception {
+        // 8x8 MCUs and one restart interval per MCU row
+        byte[] jpeg = TestImages.encode(createNoisyPattern(64, 64, BufferedImage.TYPE_INT_RGB),
+                new int[][] {{1,1}, {1,1}, {1,1}}, 0.9f);
+        byte[] valid = new MultiScanWriter(jpeg).write(new int[][] {{0, 1, 2}}, 8);
+        byte[] ref = decodeRGBA(valid, ErrorConcealment.NONE, null, false);
+
+        // replace the interval of MCU row 3 (after RST2) with invalid codes
+        int start = findMarker(valid, 0xD2) + 2;
+        int end = findMarker(valid, 0xD3);
+        byte[] corrupt = valid.clone();
+        for(int i=start ; i<end ; i++) {
+            corrupt[i] = (byte)(((i - start) & 1) == 0 ? 0xFF : 0);
+        }
+        if(((end - start) & 1) != 0) {
+            corrupt[end - 1] = 0;
+        }
+
+        int[] concealed = new int[1];
+        byte[] prev = decodeRGBA(corrupt, ErrorConcealment.PREVIOUS_ROW, concealed, false);
+        assertEquals(8, concealed[0]);
+        byte[] gray = decodeRGBA(corrupt, ErrorConcealment.GRAY, concealed, false);
+        assertEquals(8, concealed[0]);
+
+        final int stride = 64 * 4;
+        boolean different = false;
+        for(int y=0 ; y<64 ; y++) {
+            for(int i=0 ; i<stride ; i++) {
+                int pos = y*stride + i;
+                if(y >= 24 && y < 32) {
+                    // the concealed MCUs show the MCU row above
+                    assertEquals(prev[pos - 8*stride], prev[pos]);
+                    different |= gray[pos] != prev[pos];
+                } else {
+                    assertEquals(ref[pos], prev[pos]);
+                    assertEquals(ref[pos], gray[pos]);
+                }
+            }
+        }
+        assertTrue(different);
+    }
+
+    private static int findMarker(byte[] jpeg, int marker) {
+        for(int i=0 ; i<jpeg.length-1 ; i++) {
+            if(jpeg[i] == (byte)0xFF && jpeg[i+1] == (byte)marker) {
+                return i;
+            }
+        }
+        throw new AssertionError("marker not found");
+    }
+
+    private static byte[] decodeRGBA(byte[] jpeg, ErrorConcealment ec, int[] concealed, boolean stream) throws Exception {
+        JPEGDecoder decoder = stream
+                ? new JPEGDecoder(new ByteArrayInputStream(jpeg))
+                : new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.setErrorConcealment(ec);
+        assertTrue(decoder.startDecode());
+        int width = decoder.getImageWidth();
+        ByteBuffer dst = ByteBuffer.allocate(width * decoder.getImageHeight() * 4);
+        decoder.decode(dst, width * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        assertFalse(dst.hasRemaining());
+        if(concealed != null) {
+            concealed[0] = decoder.getNumConcealedMCUs();
+        }
+        return dst.array();
+    }
+
+    private static byte[][] decodeRAW(byte[] jpeg, ErrorConcealment ec, int[] concealed) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.setErrorConcealment(ec);
+        assertTrue(decoder.startDecode());
+        int numComps = decoder.getNumComponents();
+        ByteBuffer[] buffers = new ByteBuffer[numComps];
+        int[] strides = new int[numComps];
+        byte[][] result = new byte[numComps][];
+        for(int i=0 ; i<numComps ; i++) {
+            Component c = decoder.getComponent(i);
+            strides[i] = c.getMinReqWidth();
+            result[i] = new byte[strides[i] * c.getMinReqHeight()];
+            buffers[i] = ByteBuffer.wrap(result[i]);
+        }
+        decoder.decodeRAW(buffers, strides, decoder.getNumMCURows());
+        assertFalse(decoder.startDecode());
+        if(concealed != null) {
+            concealed[0] = decoder.getNumConcealedMCUs();
+        }
+        return result;
+    }
+
+    private static BufferedImage createNoisyPattern(int width, int height, int type) {
+        BufferedImage img = new BufferedImage(width, height, type);
+        img.getGraphics().drawImage(TestImages.createPattern(width, height), 0, 0, null);
+        Random r = new Random(42);
+        for(int y=0 ; y<height ; y++) {
+            for(int x=0 ; x<width ; x++) {
+                int rgb = img.getRGB(x, y) ^ (r.nextInt() & 0x3F3F3F);
+                img.setRGB(x, y, rgb);
+            }
+        }
+        return img;
+    }
+}
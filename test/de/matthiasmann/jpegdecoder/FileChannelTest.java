@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the decode into a memory mapped file with the decode into a
+ * ByteBuffer.
+ *
+ * @author Matthias Mann
+ */
+public class FileChannelTest {
+
+    private File file;
+    private RandomAccessFile raf;
+
+    public FileChannelTest() {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("jpegdecoder", ".raw");
+        raf = new RandomAccessFile(file, "rw");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        raf.close();
+        file.delete();
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        check(TestImages.encode(TestImages.createPattern(45, 31), new int[][] {{2,2}, {1,1}, {1,1}}, 0.9f), 45*4 + 12);
+        check(TestImages.encode(TestImages.createPattern(64, 40), new int[][] {{1,1}, {1,1}, {1,1}}, 0.9f), 64*4);
+    }
+
+    @Test
+    public void testMultipleWindows() throws Exception {
+        // each mapping window holds only one MCU row
+        long stride = JPEGDecoder.MAPPING_WINDOW_SIZE / 16 - 100;
+        check(TestImages.encode(TestImages.createPattern(45, 31), new int[][] {{1,1}, {1,1}, {1,1}}, 0.9f), stride);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidStride() throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(TestImages.encode(TestImages.createPattern(16, 16), null, 0.9f)));
+        assertTrue(decoder.startDecode());
+        decoder.decode(raf.getChannel(), 0, 0, 1, YUVtoRGBA.instance);
+    }
+
+    private void check(byte[] jpeg, long stride) throws Exception {
+        final long startPos = 100;
+        FileChannel channel = raf.getChannel();
+        channel.truncate(0);
+
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        final int width = decoder.getImageWidth();
+        final int height = decoder.getImageHeight();
+        final int numMCURows = decoder.getNumMCURows();
+        ByteBuffer ref = ByteBuffer.allocate(width * height * 4);
+        decoder.decode(ref, width * 4, numMCURows, YUVtoRGBA.instance);
+
+        decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        long pos = decoder.decode(channel, startPos, stride, 1, YUVtoRGBA.instance);
+        assertEquals(startPos + decoder.getMCURowHeight() * stride, pos);
+        pos = decoder.decode(channel, pos, stride, numMCURows - 1, YUVtoRGBA.instance);
+        assertEquals(startPos + height * stride, pos);
+        assertFalse(decoder.startDecode());
+
+        byte[] line = new byte[width * 4];
+        for(int y=0 ; y<height ; y++) {
+            ByteBuffer bb = ByteBuffer.wrap(line);
+            while(bb.hasRemaining()) {
+                assertTrue(channel.read(bb, startPos + y*stride + bb.position()) > 0);
+            }
+            for(int x=0 ; x<line.length ; x++) {
+                assertEquals(ref.get(y*width*4 + x), line[x]);
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the DC thumbnail and the perceptual hash of {@link JPEGFingerprint}
+ * on a few synthetic scenes.
+ *
+ * @author Matthias Mann
+ */
+public class FingerprintTest {
+
+    static final int NUM_SCENES = 10;
+
+    public FingerprintTest() {
+    }
+
+    @Test
+    public void testThumbnail() throws Exception {
+        BufferedImage img = createScene(3, 203, 117);
+        byte[] jpeg = TestImages.encode(img, new int[][] {{2,2}, {1,1}, {1,1}}, 0.95f);
+        JPEGFingerprint fp = fingerprint(jpeg);
+        assertEquals(26, fp.getThumbnailWidth());
+        assertEquals(15, fp.getThumbnailHeight());
+        byte[] thumbnail = fp.getThumbnail();
+        assertEquals(26 * 15, thumbnail.length);
+
+        // each thumbnail pixel is the average luma of its 8x8 block
+        for(int by=0 ; by<14 ; by++) {
+            for(int bx=0 ; bx<25 ; bx++) {
+                double sum = 0;
+                for(int y=0 ; y<8 ; y++) {
+                    for(int x=0 ; x<8 ; x++) {
+                        sum += luma(img.getRGB(bx*8 + x, by*8 + y));
+                    }
+                }
+                assertEquals(sum / 64, thumbnail[by*26 + bx] & 255, 3.0);
+            }
+        }
+
+        // the returned thumbnail is a copy
+        thumbnail[0] ^= 1;
+        assertEquals(thumbnail[0] ^ 1, fp.getThumbnail()[0]);
+    }
+
+    @Test
+    public void testHashBits() throws Exception {
+        for(int scene=0 ; scene<NUM_SCENES ; scene++) {
+            JPEGFingerprint fp = fingerprint(TestImages.encode(createScene(scene, 160, 120), null, 0.9f));
+            // half of the terms are above the median
+            assertEquals(32, Long.bitCount(fp.getHash()));
+            assertEquals(0, fp.distance(fp));
+        }
+    }
+
+    @Test
+    public void testBrightness() throws Exception {
+        for(int scene=0 ; scene<NUM_SCENES ; scene++) {
+            BufferedImage img = createScene(scene, 160, 120);
+            JPEGFingerprint fp = fingerprint(TestImages.encode(img, null, 0.9f));
+            JPEGFingerprint brighter = fingerprint(TestImages.encode(brighten(img, 24), null, 0.9f));
+            // the DC term is not part of the hash
+            assertTrue(fp.isNearDuplicate(brighter, 6));
+        }
+    }
+
+    @Test
+    public void testNearDuplicates() throws Exception {
+        for(int scene=0 ; scene<NUM_SCENES ; scene++) {
+            BufferedImage img = createScene(scene, 256, 192);
+            JPEGFingerprint fp = fingerprint(TestImages.encode(img, null, 0.9f));
+            JPEGFingerprint lowQuality = fingerprint(TestImages.encode(img, null, 0.3f));
+            JPEGFingerprint smaller = fingerprint(TestImages.encode(scale(img, 128, 96), null, 0.9f));
+            JPEGFingerprint larger = fingerprint(TestImages.encode(scale(img, 328, 246), null, 0.9f));
+            assertTrue(fp.isNearDuplicate(lowQuality, 6));
+            assertTrue(fp.isNearDuplicate(smaller, 6));
+            assertTrue(fp.isNearDuplicate(larger, 6));
+        }
+    }
+
+    @Test
+    public void testDifferentScenes() throws Exception {
+        JPEGFingerprint[] fps = new JPEGFingerprint[NUM_SCENES];
+        for(int scene=0 ; scene<NUM_SCENES ; scene++) {
+            fps[scene] = fingerprint(TestImages.encode(createScene(scene, 256, 192), null, 0.9f));
+        }
+        for(int i=0 ; i<NUM_SCENES ; i++) {
+            for(int j=i+1 ; j<NUM_SCENES ; j++) {
+                assertFalse(fps[i].isNearDuplicate(fps[j], 16));
+                assertEquals(fps[i].distance(fps[j]), fps[j].distance(fps[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testCorruptData() throws Exception {
+        byte[] jpeg = TestImages.encode(createScene(5, 320, 240), new int[][] {{2,2}, {1,1}, {1,1}}, 0.9f);
+        Random r = new Random(4711);
+        int numFailed = 0;
+        for(int iter=0 ; iter<200 ; iter++) {
+            byte[] corrupt = jpeg.clone();
+            for(int i=0 ; i<4 ; i++) {
+                // stay inside the entropy data and don't create markers
+                int pos = 1000 + r.nextInt(jpeg.length - 2000);
+                if(corrupt[pos-1] != (byte)0xFF && corrupt[pos] != (byte)0xFF) {
+                    corrupt[pos] = (byte)r.nextInt(255);
+                }
+            }
+
+            boolean decodeFailed = false;
+            try {
+                JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(corrupt));
+                assertTrue(decoder.startDecode());
+                decoder.decode(ByteBuffer.allocate(320*240*4), 320*4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+            } catch(IOException ex) {
+                decodeFailed = true;
+                numFailed++;
+            }
+
+            try {
+                fingerprint(corrupt);
+                assertFalse("corrupt image was fingerprinted", decodeFailed);
+            } catch(IOException ex) {
+                assertTrue(decodeFailed);
+            }
+        }
+        assertTrue(numFailed > 0);
+    }
+
+    private static JPEGFingerprint fingerprint(byte[] jpeg) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        return decoder.decodeFingerprint();
+    }
+
+    private static double luma(int rgb) {
+        return 0.299 * ((rgb >> 16) & 255) + 0.587 * ((rgb >> 8) & 255) + 0.114 * (rgb & 255);
+    }
+
+    private static BufferedImage brighten(BufferedImage src, int amount) {
+        BufferedImage img = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for(int y=0 ; y<src.getHeight() ; y++) {
+            for(int x=0 ; x<src.getWidth() ; x++) {
+                int rgb = src.getRGB(x, y);
+                int r = Math.min(255, ((rgb >> 16) & 255) + amount);
+                int g = Math.min(255, ((rgb >> 8) & 255) + amount);
+                int b = Math.min(255, (rgb & 255) + amount);
+                img.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return img;
+    }
+
+    private static BufferedImage scale(BufferedImage src, int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(src, 0, 0, width, height, null);
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * Creates a scene from a diagonal gradient and random shapes - the
+     * scene number is the random seed.
+     */
+    static BufferedImage createScene(int scene, int width, int height) {
+        Random r = new Random(scene);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.scale(width / 256.0, height / 192.0);
+        g.setPaint(new GradientPaint(0, 0, randomColor(r), 256, 192, randomColor(r)));
+        g.fillRect(0, 0, 256, 192);
+        for(int i=0 ; i<12 ; i++) {
+            g.setColor(randomColor(r));
+            int x = r.nextInt(256) - 32;
+            int y = r.nextInt(192) - 32;
+            int w = 24 + r.nextInt(96);
+            int h = 24 + r.nextInt(96);
+            if(r.nextBoolean()) {
+                g.fillOval(x, y, w, h);
+            } else {
+                g.fillRect(x, y, w, h);
+            }
+        }
+        g.dispose();
+        return img;
+    }
+
+    private static Color randomColor(Random r) {
+        return new Color(r.nextInt(256), r.nextInt(256), r.nextInt(256));
+    }
+}
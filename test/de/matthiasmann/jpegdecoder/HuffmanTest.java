@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the shared huffman table cache.
+ *
+ * @author Matthias Mann
+ */
+public class HuffmanTest {
+
+    private static int nextId = 0x12345678;
+
+    public HuffmanTest() {
+    }
+
+    @Test
+    public void testMatches() throws Exception {
+        byte[] spec = createSpec(1);
+        Huffman h = new Huffman(spec, spec.length);
+        assertEquals(4, h.getNumSymbols());
+        assertTrue(h.matches(spec, spec.length));
+        assertTrue(h.matches(createSpec(1), spec.length));
+        assertFalse(h.matches(createSpec(2), spec.length));
+        assertFalse(h.matches(spec, spec.length - 1));
+
+        // only the first specLength bytes are compared
+        byte[] longer = new byte[spec.length + 8];
+        System.arraycopy(spec, 0, longer, 0, spec.length);
+        longer[spec.length] = 42;
+        assertTrue(h.matches(longer, spec.length));
+    }
+
+    @Test
+    public void testCacheHit() throws Exception {
+        byte[] spec = createSpec(nextId++);
+        Huffman h = Huffman.get(spec, spec.length);
+        assertTrue(h.matches(spec, spec.length));
+        assertSame(h, Huffman.get(spec, spec.length));
+
+        // the cache must not keep a reference to the caller's array
+        byte[] copy = spec.clone();
+        spec[16] ^= 1;
+        assertSame(h, Huffman.get(copy, copy.length));
+        assertNotSame(h, Huffman.get(spec, spec.length));
+    }
+
+    @Test
+    public void testCacheEviction() throws Exception {
+        byte[] spec = createSpec(nextId++);
+        Huffman h = Huffman.get(spec, spec.length);
+
+        fillCache(Huffman.CACHE_SIZE - 1);
+        assertSame(h, Huffman.get(spec, spec.length));
+
+        // the lookup above made it the most recently used table
+        fillCache(1);
+        assertSame(h, Huffman.get(spec, spec.length));
+
+        fillCache(Huffman.CACHE_SIZE);
+        Huffman h2 = Huffman.get(spec, spec.length);
+        assertNotSame(h, h2);
+        assertTrue(h2.matches(spec, spec.length));
+    }
+
+    @Test(expected=IOException.class)
+    public void testInvalidTable() throws Exception {
+        byte[] spec = createSpec(nextId++);
+        spec[1] = 5; // more codes than symbols
+        Huffman.get(spec, spec.length);
+    }
+
+    private static void fillCache(int count) throws IOException {
+        for(int i=0 ; i<count ; i++) {
+            byte[] spec = createSpec(nextId++);
+            Huffman.get(spec, spec.length);
+        }
+    }
+
+    /**
+     * Creates a table with 4 codes of length 2 - the id selects the symbols.
+     */
+    private static byte[] createSpec(int id) {
+        byte[] spec = new byte[16 + 4];
+        spec[1] = 4;
+        for(int i=0 ; i<4 ; i++) {
+            spec[16 + i] = (byte)(id >> (i*8));
+        }
+        return spec;
+    }
+}
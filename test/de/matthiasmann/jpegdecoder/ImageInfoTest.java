@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks decoding with several decoders created from a shared JPEGImageInfo.
+ *
+ * @author Matthias Mann
+ */
+public class ImageInfoTest {
+
+    private static final int WIDTH = 101;
+    private static final int HEIGHT = 77;
+
+    public ImageInfoTest() {
+    }
+
+    @Test
+    public void testRestartRows() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(WIDTH, HEIGHT), new int[][] {{2,2}, {1,1}, {1,1}}, 0.9f);
+        MultiScanWriter writer = new MultiScanWriter(jpeg);
+        byte[] ref = decode(jpeg);
+
+        // the image has 7 MCU columns
+        for(int restartInterval : new int[] { 7, 3 }) {
+            byte[] withRestart = writer.write(new int[][] {{0, 1, 2}}, restartInterval);
+            JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(withRestart));
+            assertTrue(decoder.startDecode());
+            final JPEGImageInfo info = decoder.getImageInfo();
+            assertEquals(WIDTH, info.getImageWidth());
+            assertEquals(HEIGHT, info.getImageHeight());
+            assertEquals(restartInterval, info.getRestartInterval());
+            assertEquals(restartInterval == 7 ? 1 : 3, info.getRestartRowInterval());
+
+            assertArrayEquals(ref, decodeParallel(info));
+        }
+    }
+
+    @Test
+    public void testNoRestart() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(WIDTH, HEIGHT), null, 0.9f);
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        JPEGImageInfo info = decoder.getImageInfo();
+        assertEquals(0, info.getRestartRowInterval());
+
+        // two independent decoders from the same info
+        for(int i=0 ; i<2 ; i++) {
+            JPEGDecoder cursor = info.createDecoder(0);
+            ByteBuffer dst = ByteBuffer.allocate(WIDTH * HEIGHT * 4);
+            cursor.decode(dst, WIDTH * 4, cursor.getNumMCURows(), YUVtoRGBA.instance);
+            assertArrayEquals(decode(jpeg), dst.array());
+        }
+
+        try {
+            info.createDecoder(1);
+            fail("expected IllegalArgumentException");
+        } catch(IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test(expected=UnsupportedOperationException.class)
+    public void testInputStream() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(WIDTH, HEIGHT), null, 0.9f);
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        assertTrue(decoder.startDecode());
+        decoder.getImageInfo();
+    }
+
+    private static byte[] decodeParallel(final JPEGImageInfo info) throws Exception {
+        final int stride = WIDTH * 4;
+        final int rowInterval = info.getRestartRowInterval();
+        final ByteBuffer dst = ByteBuffer.allocate(stride * HEIGHT);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ArrayList<Future<Object>> results = new ArrayList<Future<Object>>();
+            for(int row=0 ; row<info.getNumMCURows() ; row+=rowInterval) {
+                final int startRow = row;
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        JPEGDecoder cursor = info.createDecoder(startRow);
+                        int numRows = Math.min(rowInterval, cursor.getNumMCURows() - startRow);
+                        ByteBuffer band = dst.duplicate();
+                        band.position(startRow * cursor.getMCURowHeight() * stride);
+                        cursor.decode(band, stride, numRows, YUVtoRGBA.instance);
+                        return null;
+                    }
+                }));
+            }
+            for(Future<Object> f : results) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return dst.array();
+    }
+
+    private static byte[] decode(byte[] jpeg) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        ByteBuffer dst = ByteBuffer.allocate(WIDTH * HEIGHT * 4);
+        decoder.decode(dst, WIDTH * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        return dst.array();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the luma only decode matches the Y plane of the I420 decode.
+ *
+ * @author Matthias Mann
+ */
+public class LumaTest {
+
+    public LumaTest() {
+    }
+
+    @Test
+    public void testLuma420() throws Exception {
+        checkLuma(new int[][] {{2,2}, {1,1}, {1,1}});
+    }
+
+    @Test
+    public void testLuma422() throws Exception {
+        checkLuma(new int[][] {{2,1}, {1,1}, {1,1}});
+    }
+
+    @Test
+    public void testLuma444() throws Exception {
+        checkLuma(new int[][] {{1,1}, {1,1}, {1,1}});
+    }
+
+    private static void checkLuma(int[][] samplingFactors) throws Exception {
+        final int width = 123;
+        final int height = 77;
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(width, height), samplingFactors, 0.9f);
+
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        int widthUV = (width + 1) / 2;
+        int heightUV = (height + 1) / 2;
+        ByteBuffer y = ByteBuffer.allocate(width * height);
+        ByteBuffer u = ByteBuffer.allocate(widthUV * heightUV);
+        ByteBuffer v = ByteBuffer.allocate(widthUV * heightUV);
+        decoder.decodeI420(y, width, u, v, widthUV, decoder.getNumMCURows());
+
+        decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        ByteBuffer luma = ByteBuffer.allocate(width * height);
+        // decode in two steps to check the buffer position
+        decoder.decodeLuma(luma, width, 1);
+        assertEquals(width * decoder.getMCURowHeight(), luma.position());
+        decoder.decodeLuma(luma, width, decoder.getNumMCURows() - 1);
+        assertEquals(width * height, luma.position());
+        assertFalse(decoder.startDecode());
+
+        y.clear();
+        luma.clear();
+        assertEquals(y, luma);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Decodes a stream of back-to-back JPEG images like Motion-JPEG.
+ *
+ * @author Matthias Mann
+ */
+public class MJPEGTest {
+
+    public MJPEGTest() {
+    }
+
+    @Test
+    public void testStandardTables() throws Exception {
+        // the ImageIO encoder writes the typical tables from Annex K
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(16, 16), null, 0.9f);
+        int pos = 2;
+        int found = 0;
+        while((jpeg[pos+1] & 255) != 0xDA) {
+            int len = ((jpeg[pos+2] & 255) << 8) | (jpeg[pos+3] & 255);
+            if((jpeg[pos+1] & 255) == 0xC4) {
+                for(int p=pos+4 ; p<pos+2+len ;) {
+                    int tc = jpeg[p] >> 4;
+                    int th = jpeg[p] & 15;
+                    Huffman h = Huffman.getStandard(tc, th);
+                    assertTrue(h.matches(copy(jpeg, p + 1, 16 + h.getNumSymbols()), 16 + h.getNumSymbols()));
+                    p += 17 + h.getNumSymbols();
+                    found++;
+                }
+            }
+            pos += len + 2;
+        }
+        assertEquals(4, found);
+    }
+
+    @Test
+    public void testFrames() throws Exception {
+        byte[][] frames = new byte[4][];
+        frames[0] = stripDHT(TestImages.encode(TestImages.createPattern(64, 48), null, 0.8f));
+        frames[1] = TestImages.insertSegment(
+                stripDHT(TestImages.encode(TestImages.createPattern(80, 40), null, 0.5f)), 0xE1,
+                TestImages.createExif(1, false, TestImages.encode(TestImages.createPattern(16, 16), null, 0.5f)));
+        frames[2] = new MultiScanWriter(TestImages.encode(TestImages.createPattern(33, 17),
+                new int[][] {{2,2}, {1,1}, {1,1}}, 0.9f)).write(new int[][] {{0}, {1}, {2}}, 2);
+        frames[3] = stripDHT(TestImages.encode(TestImages.createPattern(64, 48), null, 0.8f));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for(byte[] frame : frames) {
+            baos.write(frame);
+            baos.write(new byte[3]);    // padding between frames
+        }
+        byte[] stream = baos.toByteArray();
+
+        // decode every frame
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(stream));
+        for(int i=0 ; i<frames.length ; i++) {
+            if(i > 0) {
+                assertTrue(decoder.nextFrame());
+            }
+            assertArrayEquals(decode(new JPEGDecoder(ByteBuffer.wrap(frames[i]))), decode(decoder));
+        }
+        assertFalse(decoder.nextFrame());
+
+        // skip frames without decoding them or after a partial decode
+        decoder = new JPEGDecoder(ByteBuffer.wrap(stream));
+        assertTrue(decoder.nextFrame());
+        decoder.startDecode();
+        decoder.decode(ByteBuffer.allocate(80 * 16 * 4), 80 * 4, 1, YUVtoRGBA.instance);
+        assertTrue(decoder.nextFrame());
+        decoder.startDecode();
+        assertTrue(decoder.nextFrame());
+        assertArrayEquals(decode(new JPEGDecoder(ByteBuffer.wrap(frames[3]))), decode(decoder));
+        assertFalse(decoder.nextFrame());
+    }
+
+    private static byte[] decode(JPEGDecoder decoder) throws Exception {
+        assertTrue(decoder.startDecode());
+        int width = decoder.getImageWidth();
+        ByteBuffer dst = ByteBuffer.allocate(width * decoder.getImageHeight() * 4);
+        decoder.decode(dst, width * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        return dst.array();
+    }
+
+    private static byte[] stripDHT(byte[] jpeg) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(jpeg, 0, 2);
+        int pos = 2;
+        while((jpeg[pos+1] & 255) != 0xDA) {
+            int len = ((jpeg[pos+2] & 255) << 8) | (jpeg[pos+3] & 255);
+            if((jpeg[pos+1] & 255) != 0xC4) {
+                baos.write(jpeg, pos, len + 2);
+            }
+            pos += len + 2;
+        }
+        baos.write(jpeg, pos, jpeg.length - pos);
+        return baos.toByteArray();
+    }
+
+    private static byte[] copy(byte[] data, int off, int len) {
+        byte[] result = new byte[len];
+        System.arraycopy(data, off, result, 0, len);
+        return result;
+    }
+}
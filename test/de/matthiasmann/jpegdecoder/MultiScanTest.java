@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Decodes images with one scan per component and compares them with the
+ * interleaved original.
+ *
+ * @author Matthias Mann
+ */
+public class MultiScanTest {
+
+    private static final int[][] SCANS_SEPARATE = {{0}, {1}, {2}};
+    private static final int[][] SCANS_CHROMA = {{0}, {1, 2}};
+    private static final int[][] SCANS_REORDERED = {{2}, {0}, {1}};
+
+    public MultiScanTest() {
+    }
+
+    @Test
+    public void testMultiScan() throws Exception {
+        for(int[][] samplingFactors : new int[][][] {
+                {{1,1}, {1,1}, {1,1}},
+                {{2,2}, {1,1}, {1,1}},
+                {{2,1}, {1,1}, {1,1}},
+                {{1,2}, {1,1}, {1,1}}}) {
+            byte[] jpeg = TestImages.encode(TestImages.createPattern(101, 77), samplingFactors, 0.9f);
+            MultiScanWriter writer = new MultiScanWriter(jpeg);
+            byte[] ref = decode(jpeg);
+            byte[][] refRaw = decodeRAW(jpeg);
+
+            for(int[][] scans : new int[][][] { SCANS_SEPARATE, SCANS_CHROMA, SCANS_REORDERED }) {
+                for(int restartInterval : new int[] { 0, 5 }) {
+                    byte[] multiScan = writer.write(scans, restartInterval);
+                    assertArrayEquals(ref, decode(multiScan));
+                    byte[][] raw = decodeRAW(multiScan);
+                    for(int i=0 ; i<raw.length ; i++) {
+                        assertArrayEquals(refRaw[i], raw[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMissingScan() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(40, 30), null, 0.9f);
+        byte[] multiScan = new MultiScanWriter(jpeg).write(new int[][] {{0}}, 0);
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(multiScan));
+        assertTrue(decoder.startDecode());
+        ByteBuffer dst = ByteBuffer.allocate(40 * 30 * 4);
+        decoder.decode(dst, 40 * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        assertFalse(decoder.startDecode());
+    }
+
+    private static byte[] decode(byte[] jpeg) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        assertTrue(decoder.startDecode());
+        int width = decoder.getImageWidth();
+        ByteBuffer dst = ByteBuffer.allocate(width * decoder.getImageHeight() * 4);
+        // decode in two steps to check the row position
+        decoder.decode(dst, width * 4, 1, YUVtoRGBA.instance);
+        decoder.decode(dst, width * 4, decoder.getNumMCURows() - 1, YUVtoRGBA.instance);
+        assertFalse(dst.hasRemaining());
+        assertFalse(decoder.startDecode());
+        return dst.array();
+    }
+
+    private static byte[][] decodeRAW(byte[] jpeg) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        assertTrue(decoder.startDecode());
+        int numComps = decoder.getNumComponents();
+        ByteBuffer[] buffers = new ByteBuffer[numComps];
+        int[] strides = new int[numComps];
+        for(int i=0 ; i<numComps ; i++) {
+            Component c = decoder.getComponent(i);
+            strides[i] = c.getMinReqWidth();
+            buffers[i] = ByteBuffer.allocate(c.getMinReqWidth() * c.getMinReqHeight());
+        }
+        decoder.decodeRAW(buffers, strides, decoder.getNumMCURows());
+
+        // only compare the visible part - the MCU padding is not encoded in non-interleaved scans
+        byte[][] result = new byte[numComps][];
+        for(int i=0 ; i<numComps ; i++) {
+            Component c = decoder.getComponent(i);
+            result[i] = new byte[c.getWidth() * c.getHeight()];
+            for(int y=0 ; y<c.getHeight() ; y++) {
+                buffers[i].position(y * strides[i]);
+                buffers[i].get(result[i], y * c.getWidth(), c.getWidth());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+
+/**
+ * Rewrites a baseline JPEG with a different scan structure, eg one scan per
+ * component. The quantization and huffman tables of the source are reused.
+ *
+ * @author Matthias Mann
+ */
+class MultiScanWriter {
+
+    private final byte[] jpeg;
+    private final ArrayList<byte[]> segments;
+    private final int[][] huffCode;
+    private final int[][] huffSize;
+    private final int[][] quant;
+    private final int[] compQuant;
+    private final ShortBuffer[] coeffs;
+    private final int[] blocksPerLine;
+    private final int[] blocksX;
+    private final int[] blocksY;
+    final int[] compId;
+    final int[] compTables;
+
+    ByteArrayOutputStream out;
+    private int[] dcPred;
+    private int bitBuffer;
+    private int bitCount;
+
+    MultiScanWriter(byte[] jpeg) throws IOException {
+        this.jpeg = jpeg;
+        this.segments = new ArrayList<byte[]>();
+        this.huffCode = new int[8][];
+        this.huffSize = new int[8][];
+        this.quant = new int[4][64];
+
+        int[] tables = null;
+        int[] quantById = new int[256];
+        int pos = 2;
+        for(;;) {
+            int marker = jpeg[pos+1] & 255;
+            int len = ((jpeg[pos+2] & 255) << 8) | (jpeg[pos+3] & 255);
+            if(marker == 0xDA) {
+                tables = new int[256];
+                int ns = jpeg[pos+4] & 255;
+                for(int i=0 ; i<ns ; i++) {
+                    tables[jpeg[pos+5+i*2] & 255] = jpeg[pos+6+i*2] & 255;
+                }
+                break;
+            }
+            if(marker == 0xC4) {
+                parseDHT(pos + 4, pos + 2 + len);
+            } else if(marker == 0xDB) {
+                parseDQT(pos + 4, pos + 2 + len);
+            } else if(marker == 0xC0) {
+                int nf = jpeg[pos+9] & 255;
+                for(int i=0 ; i<nf ; i++) {
+                    quantById[jpeg[pos+10+i*3] & 255] = jpeg[pos+12+i*3] & 255;
+                }
+            }
+            if(marker != 0xDD) {
+                byte[] segment = new byte[len + 2];
+                System.arraycopy(jpeg, pos, segment, 0, segment.length);
+                segments.add(segment);
+            }
+            pos += len + 2;
+        }
+
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        decoder.startDecode();
+        int numComps = decoder.getNumComponents();
+        int mcuCountX = decoder.getNumMCUColumns();
+        int mcuCountY = decoder.getNumMCURows();
+
+        compId = new int[numComps];
+        compTables = new int[numComps];
+        compQuant = new int[numComps];
+        coeffs = new ShortBuffer[numComps];
+        blocksPerLine = new int[numComps];
+        blocksX = new int[numComps];
+        blocksY = new int[numComps];
+        for(int i=0 ; i<numComps ; i++) {
+            Component c = decoder.getComponent(i);
+            compId[i] = c.getID();
+            compTables[i] = tables[compId[i]];
+            compQuant[i] = quantById[compId[i]];
+            blocksPerLine[i] = c.getBlocksPerMCUHorz() * mcuCountX;
+            blocksX[i] = (c.getWidth() + 7) / 8;
+            blocksY[i] = (c.getHeight() + 7) / 8;
+            coeffs[i] = ShortBuffer.allocate(64 * blocksPerLine[i] * c.getBlocksPerMCUVert() * mcuCountY);
+        }
+        decoder.decodeDCTCoeffs(coeffs, mcuCountY);
+    }
+
+    /**
+     * Writes the image with the specified scans. Each scan is a list of
+     * component indices.
+     *
+     * @param scans the components of each scan
+     * @param restartInterval the restart interval in MCUs or 0
+     * @return the new JPEG data
+     */
+    byte[] write(int[][] scans, int restartInterval) throws IOException {
+        out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        for(byte[] segment : segments) {
+            writeSegment(segment);
+        }
+        if(restartInterval > 0) {
+            out.write(new byte[] { (byte)0xFF, (byte)0xDD, 0, 4,
+                (byte)(restartInterval >> 8), (byte)restartInterval });
+        }
+        for(int[] scan : scans) {
+            writeScan(scan, restartInterval);
+        }
+        out.write(0xFF);
+        out.write(0xD9);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a marker segment of the source image.
+     *
+     * @param segment the segment including the marker
+     */
+    void writeSegment(byte[] segment) throws IOException {
+        out.write(segment);
+    }
+
+    private void writeScan(int[] scan, int restartInterval) throws IOException {
+        out.write(0xFF);
+        out.write(0xDA);
+        out.write(0);
+        out.write(6 + scan.length*2);
+        out.write(scan.length);
+        for(int compIdx : scan) {
+            out.write(compId[compIdx]);
+            out.write(compTables[compIdx]);
+        }
+        out.write(0);
+        out.write(63);
+        out.write(0);
+
+        startScan(scan);
+        int todo = restartInterval;
+        int rst = 0;
+        if(scan.length == 1) {
+            int compIdx = scan[0];
+            int numBlocks = blocksX[compIdx] * blocksY[compIdx];
+            for(int i=0 ; i<numBlocks ; i++) {
+                if(restartInterval > 0 && todo-- == 0) {
+                    rst = writeRestart(rst, scan);
+                    todo = restartInterval - 1;
+                }
+                writeBlock(compIdx, i % blocksX[compIdx], i / blocksX[compIdx]);
+            }
+        } else {
+            JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+            decoder.decodeHeader();
+            for(int my=0 ; my<decoder.getNumMCURows() ; my++) {
+                for(int mx=0 ; mx<decoder.getNumMCUColumns() ; mx++) {
+                    if(restartInterval > 0 && todo-- == 0) {
+                        rst = writeRestart(rst, scan);
+                        todo = restartInterval - 1;
+                    }
+                    for(int compIdx : scan) {
+                        Component c = decoder.getComponent(compIdx);
+                        for(int y=0 ; y<c.getBlocksPerMCUVert() ; y++) {
+                            for(int x=0 ; x<c.getBlocksPerMCUHorz() ; x++) {
+                                writeBlock(compIdx, mx*c.getBlocksPerMCUHorz() + x,
+                                        my*c.getBlocksPerMCUVert() + y);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        finishScan();
+    }
+
+    private int writeRestart(int rst, int[] scan) {
+        finishScan();
+        out.write(0xFF);
+        out.write(0xD0 + rst);
+        startScan(scan);
+        return (rst + 1) & 7;
+    }
+
+    /**
+     * Resets the entropy coder at the start of a scan or restart interval
+     *
+     * @param scan the components of the scan
+     */
+    void startScan(int[] scan) {
+        dcPred = new int[compId.length];
+    }
+
+    /**
+     * Flushes the entropy coder at the end of a scan or restart interval
+     */
+    void finishScan() {
+        flushBits();
+    }
+
+    private void writeBlock(int compIdx, int bx, int by) {
+        int base = (by * blocksPerLine[compIdx] + bx) * 64;
+        int[] q = quant[compQuant[compIdx]];
+        int[] zz = new int[64];
+        for(int k=0 ; k<64 ; k++) {
+            zz[k] = coeffs[compIdx].get(base + JPEGDecoder.dezigzag[k]) / q[k];
+        }
+        encodeBlock(compIdx, zz);
+    }
+
+    /**
+     * Encodes the quantized coefficients of one block
+     *
+     * @param compIdx the component index
+     * @param zz the quantized coefficients in zigzag order
+     */
+    void encodeBlock(int compIdx, int[] zz) {
+
+        int dcTable = compTables[compIdx] >> 4;
+        int acTable = 4 + (compTables[compIdx] & 15);
+        int diff = zz[0] - dcPred[compIdx];
+        dcPred[compIdx] = zz[0];
+        int s = bitLength(diff);
+        writeCode(dcTable, s);
+        writeValue(diff, s);
+
+        int run = 0;
+        for(int k=1 ; k<64 ; k++) {
+            if(zz[k] == 0) {
+                run++;
+                continue;
+            }
+            while(run > 15) {
+                writeCode(acTable, 0xF0);
+                run -= 16;
+            }
+            s = bitLength(zz[k]);
+            writeCode(acTable, (run << 4) | s);
+            writeValue(zz[k], s);
+            run = 0;
+        }
+        if(run > 0) {
+            writeCode(acTable, 0);
+        }
+    }
+
+    private static int bitLength(int v) {
+        v = Math.abs(v);
+        int s = 0;
+        while(v != 0) {
+            s++;
+            v >>= 1;
+        }
+        return s;
+    }
+
+    private void writeCode(int table, int symbol) {
+        if(huffSize[table][symbol] == 0) {
+            throw new IllegalStateException("symbol not in huffman table");
+        }
+        writeBits(huffCode[table][symbol], huffSize[table][symbol]);
+    }
+
+    private void writeValue(int v, int s) {
+        if(v < 0) {
+            v += (1 << s) - 1;
+        }
+        writeBits(v, s);
+    }
+
+    private void writeBits(int bits, int count) {
+        for(int i=count-1 ; i>=0 ; i--) {
+            bitBuffer = (bitBuffer << 1) | ((bits >> i) & 1);
+            if(++bitCount == 8) {
+                out.write(bitBuffer);
+                if(bitBuffer == 0xFF) {
+                    out.write(0);
+                }
+                bitBuffer = 0;
+                bitCount = 0;
+            }
+        }
+    }
+
+    private void flushBits() {
+        if(bitCount > 0) {
+            writeBits(0x7F, 8 - bitCount);
+        }
+    }
+
+    private void parseDHT(int pos, int end) {
+        while(pos < end) {
+            int tc = jpeg[pos] & 255;
+            int table = ((tc >> 4) == 0 ? 0 : 4) + (tc & 15);
+            int[] code = new int[256];
+            int[] size = new int[256];
+            int valPos = pos + 17;
+            int c = 0;
+            for(int len=1 ; len<=16 ; len++) {
+                int count = jpeg[pos + len] & 255;
+                for(int i=0 ; i<count ; i++) {
+                    int symbol = jpeg[valPos++] & 255;
+                    code[symbol] = c++;
+                    size[symbol] = len;
+                }
+                c <<= 1;
+            }
+            huffCode[table] = code;
+            huffSize[table] = size;
+            pos = valPos;
+        }
+    }
+
+    private void parseDQT(int pos, int end) {
+        while(pos < end) {
+            int tq = jpeg[pos] & 15;
+            for(int k=0 ; k<64 ; k++) {
+                quant[tq][k] = jpeg[pos + 1 + k] & 255;
+            }
+            pos += 65;
+        }
+    }
+}
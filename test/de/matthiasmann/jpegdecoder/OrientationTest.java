@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the EXIF orientation parsing and the oriented decode against a
+ * normal decode which is rotated afterwards.
+ *
+ * @author Matthias Mann
+ */
+public class OrientationTest {
+
+    public OrientationTest() {
+    }
+
+    @Test
+    public void testExifOrientation() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(16, 16), null, 0.9f);
+        assertEquals(1, getExifOrientation(jpeg));
+        for(int orientation=1 ; orientation<=8 ; orientation++) {
+            assertEquals(orientation, getExifOrientation(
+                    TestImages.insertSegment(jpeg, 0xE1, TestImages.createExif(orientation, false, null))));
+            assertEquals(orientation, getExifOrientation(
+                    TestImages.insertSegment(jpeg, 0xE1, TestImages.createExif(orientation, true, null))));
+        }
+        byte[] xmp = "http://ns.adobe.com/xap/1.0/\0<x:xmpmeta/>".getBytes("ASCII");
+        assertEquals(1, getExifOrientation(TestImages.insertSegment(jpeg, 0xE1, xmp)));
+    }
+
+    @Test
+    public void testDecodeOriented() throws Exception {
+        check(new int[][] {{1,1}, {1,1}, {1,1}});
+        check(new int[][] {{2,2}, {1,1}, {1,1}});
+        check(new int[][] {{2,1}, {1,1}, {1,1}});
+    }
+
+    private static void check(int[][] samplingFactors) throws Exception {
+        final int width = 45;
+        final int height = 37;
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(width, height), samplingFactors, 0.9f);
+
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        decoder.decodeHeader();
+        decoder.startDecode();
+        ByteBuffer ref = ByteBuffer.allocate(width * height * 4);
+        decoder.decode(ref, width * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+
+        for(int orientation=1 ; orientation<=8 ; orientation++) {
+            boolean transpose = orientation >= 5;
+            int outWidth = transpose ? height : width;
+            int outHeight = transpose ? width : height;
+
+            decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+            decoder.decodeHeader();
+            decoder.startDecode();
+            ByteBuffer dst = ByteBuffer.allocate(outWidth * outHeight * 4);
+            decoder.decodeOriented(dst, outWidth * 4, 4, orientation, YUVtoRGBA.instance);
+            assertEquals(dst.capacity(), dst.position());
+
+            for(int y=0 ; y<outHeight ; y++) {
+                for(int x=0 ; x<outWidth ; x++) {
+                    int sx, sy;
+                    switch(orientation) {
+                        case 1: sx = x; sy = y; break;
+                        case 2: sx = width-1-x; sy = y; break;
+                        case 3: sx = width-1-x; sy = height-1-y; break;
+                        case 4: sx = x; sy = height-1-y; break;
+                        case 5: sx = y; sy = x; break;
+                        case 6: sx = y; sy = height-1-x; break;
+                        case 7: sx = width-1-y; sy = height-1-x; break;
+                        default: sx = width-1-y; sy = x; break;
+                    }
+                    assertEquals("orientation " + orientation + " at " + x + "," + y,
+                            ref.getInt((sy*width + sx) * 4), dst.getInt((y*outWidth + x) * 4));
+                }
+            }
+        }
+    }
+
+    private static int getExifOrientation(byte[] jpeg) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        decoder.decodeHeader();
+        return decoder.getExifOrientation();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the speculative parallel decode with the sequential decode.
+ *
+ * @author Matthias Mann
+ */
+public class ParallelDecodeTest {
+
+    private ExecutorService executor;
+
+    public ParallelDecodeTest() {
+    }
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testParallelDecode() throws Exception {
+        BufferedImage img = createNoisyPattern(320, 240, BufferedImage.TYPE_INT_RGB);
+        for(int[][] samplingFactors : new int[][][] {
+                {{1,1}, {1,1}, {1,1}},
+                {{2,2}, {1,1}, {1,1}},
+                {{2,1}, {1,1}, {1,1}}}) {
+            byte[] jpeg = TestImages.encode(img, samplingFactors, 0.95f);
+            assertTrue(jpeg.length > 4 * ParallelHuffmanDecoder.MIN_CHUNK_SIZE);
+
+            byte[] ref = decode(jpeg, 0);
+            for(int numTasks : new int[] { 1, 2, 3, 7 }) {
+                assertArrayEquals(ref, decode(jpeg, numTasks));
+            }
+        }
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        byte[] jpeg = TestImages.encode(createNoisyPattern(301, 199, BufferedImage.TYPE_BYTE_GRAY), null, 0.95f);
+        byte[] ref = decodeRAW(jpeg, 0);
+        assertArrayEquals(ref, decodeRAW(jpeg, 4));
+    }
+
+    @Test
+    public void testCorruptData() throws Exception {
+        byte[] jpeg = TestImages.encode(createNoisyPattern(320, 240, BufferedImage.TYPE_INT_RGB), null, 0.95f);
+        Random r = new Random(1234);
+        int numFailed = 0;
+        for(int iter=0 ; iter<100 ; iter++) {
+            byte[] corrupt = jpeg.clone();
+            for(int i=0 ; i<4 ; i++) {
+                // stay inside the entropy data and don't create markers
+                int pos = 1000 + r.nextInt(jpeg.length - 2000);
+                if(corrupt[pos-1] != (byte)0xFF && corrupt[pos] != (byte)0xFF) {
+                    corrupt[pos] = (byte)r.nextInt(255);
+                }
+            }
+
+            byte[] ref = null;
+            try {
+                ref = decodeRows(corrupt, 0);
+            } catch(IOException ex) {
+                numFailed++;
+            }
+            try {
+                byte[] result = decodeRows(corrupt, 4);
+                assertNotNull("sequential decode failed but parallel succeeded", ref);
+                assertArrayEquals(ref, result);
+            } catch(IOException ex) {
+                assertNull("parallel decode failed but sequential succeeded", ref);
+            }
+        }
+        assertTrue(numFailed > 0);
+    }
+
+    private static BufferedImage createNoisyPattern(int width, int height, int type) {
+        BufferedImage pattern = TestImages.createPattern(width, height);
+        BufferedImage img = new BufferedImage(width, height, type);
+        Random r = new Random(42);
+        for(int y=0 ; y<height ; y++) {
+            for(int x=0 ; x<width ; x++) {
+                int rgb = pattern.getRGB(x, y) ^ (r.nextInt() & 0x1F1F1F);
+                img.setRGB(x, y, rgb);
+            }
+        }
+        return img;
+    }
+
+    private byte[] decode(byte[] jpeg, int numTasks) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        if(numTasks > 0) {
+            decoder.setParallelDecoding(executor, numTasks);
+        }
+        assertTrue(decoder.startDecode());
+        int width = decoder.getImageWidth();
+        ByteBuffer dst = ByteBuffer.allocate(width * decoder.getImageHeight() * 4);
+        decoder.decode(dst, width * 4, 1, YUVtoRGBA.instance);
+        decoder.decode(dst, width * 4, decoder.getNumMCURows() - 1, YUVtoRGBA.instance);
+        assertFalse(dst.hasRemaining());
+        assertFalse(decoder.startDecode());
+        return dst.array();
+    }
+
+    private byte[] decodeRows(byte[] jpeg, int numTasks) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        if(numTasks > 0) {
+            decoder.setParallelDecoding(executor, numTasks);
+        }
+        assertTrue(decoder.startDecode());
+        int width = decoder.getImageWidth();
+        ByteBuffer dst = ByteBuffer.allocate(width * decoder.getImageHeight() * 4);
+        decoder.decode(dst, width * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        return dst.array();
+    }
+
+    private byte[] decodeRAW(byte[] jpeg, int numTasks) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        if(numTasks > 0) {
+            decoder.setParallelDecoding(executor, numTasks);
+        }
+        assertTrue(decoder.startDecode());
+        assertEquals(1, decoder.getNumComponents());
+        Component c = decoder.getComponent(0);
+        ByteBuffer dst = ByteBuffer.allocate(c.getMinReqWidth() * c.getMinReqHeight());
+        decoder.decodeRAW(new ByteBuffer[] { dst }, new int[] { c.getMinReqWidth() }, decoder.getNumMCURows());
+        assertFalse(decoder.startDecode());
+        return dst.array();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the packed pixel formats with the RGBA output.
+ *
+ * @author Matthias Mann
+ */
+public class PixelFormatTest {
+
+    private static final int WIDTH = 75;
+    private static final int HEIGHT = 41;
+
+    public PixelFormatTest() {
+    }
+
+    @Test
+    public void testBGRA() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(WIDTH, HEIGHT), null, 0.9f);
+        byte[] rgba = decode(jpeg, YUVtoRGBA.instance, 4, ByteOrder.BIG_ENDIAN).array();
+        for(ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            byte[] bgra = decode(jpeg, YUVtoBGRA.instance, 4, order).array();
+            for(int i=0 ; i<WIDTH*HEIGHT*4 ; i+=4) {
+                assertEquals(rgba[i+2], bgra[i+0]);
+                assertEquals(rgba[i+1], bgra[i+1]);
+                assertEquals(rgba[i+0], bgra[i+2]);
+                assertEquals((byte)255, bgra[i+3]);
+            }
+        }
+    }
+
+    @Test
+    public void testARGB() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(WIDTH, HEIGHT), null, 0.9f);
+        byte[] rgba = decode(jpeg, YUVtoRGBA.instance, 4, ByteOrder.BIG_ENDIAN).array();
+        for(ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            ByteBuffer argb = decode(jpeg, YUVtoARGB.instance, 4, order);
+            for(int i=0 ; i<WIDTH*HEIGHT*4 ; i+=4) {
+                int expected = 0xFF000000 | ((rgba[i] & 255) << 16) | ((rgba[i+1] & 255) << 8) | (rgba[i+2] & 255);
+                assertEquals(expected, argb.getInt(i));
+            }
+        }
+    }
+
+    @Test
+    public void testRGB565() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(WIDTH, HEIGHT), null, 0.9f);
+        byte[] rgba = decode(jpeg, YUVtoRGBA.instance, 4, ByteOrder.BIG_ENDIAN).array();
+        for(ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+            ByteBuffer rgb565 = decode(jpeg, YUVtoRGB565.instance, 2, order);
+            for(int i=0 ; i<WIDTH*HEIGHT ; i++) {
+                int expected = ((rgba[i*4] & 0xF8) << 8) | ((rgba[i*4+1] & 0xFC) << 3) | ((rgba[i*4+2] & 0xF8) >> 3);
+                assertEquals(expected, rgb565.getShort(i*2) & 0xFFFF);
+            }
+        }
+    }
+
+    private static ByteBuffer decode(byte[] jpeg, YUVDecoder yuvDecoder, int bytesPerPixel, ByteOrder order) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        assertTrue(decoder.startDecode());
+        ByteBuffer dst = ByteBuffer.allocate(WIDTH * HEIGHT * bytesPerPixel).order(order);
+        decoder.decode(dst, WIDTH * bytesPerPixel, decoder.getNumMCURows(), yuvDecoder);
+        assertFalse(dst.hasRemaining());
+        return dst;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the capture of APPn and COM segments and the ICC profile reassembly.
+ *
+ * @author Matthias Mann
+ */
+public class SegmentCaptureTest {
+
+    public SegmentCaptureTest() {
+    }
+
+    @Test
+    public void testCapture() throws Exception {
+        byte[] profile = new byte[1000];
+        for(int i=0 ; i<profile.length ; i++) {
+            profile[i] = (byte)(i * 7);
+        }
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(40, 30), null, 0.9f);
+        jpeg = TestImages.insertSegment(jpeg, JPEGSegment.COM, "hello".getBytes("ASCII"));
+        jpeg = TestImages.insertSegment(jpeg, JPEGSegment.APP2, createICCChunk(profile, 600, 400, 2, 2));
+        jpeg = TestImages.insertSegment(jpeg, JPEGSegment.APP2, createICCChunk(profile, 0, 600, 1, 2));
+
+        JPEGDecoder streamDecoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+        JPEGDecoder bufferDecoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        ByteBuffer direct = ByteBuffer.allocateDirect(jpeg.length);
+        direct.put(jpeg).flip();
+        JPEGDecoder directDecoder = new JPEGDecoder(direct);
+        for(JPEGDecoder decoder : new JPEGDecoder[] { streamDecoder, bufferDecoder, directDecoder }) {
+            decoder.setCaptureMarker(JPEGSegment.APP2, true);
+            decoder.setCaptureMarker(JPEGSegment.COM, true);
+            decoder.decodeHeader();
+
+            List<JPEGSegment> segments = decoder.getCapturedSegments();
+            assertEquals(3, segments.size());
+            assertEquals(JPEGSegment.APP2, segments.get(0).getMarker());
+            assertTrue(segments.get(0).hasIdentifier("ICC_PROFILE"));
+            assertEquals(JPEGSegment.COM, segments.get(2).getMarker());
+            assertEquals(ByteBuffer.wrap("hello".getBytes("ASCII")), segments.get(2).getData());
+            assertTrue(Arrays.equals(profile, decoder.getICCProfile()));
+        }
+
+        // segments of a heap ByteBuffer share the memory with the input
+        ByteBuffer comment = bufferDecoder.getCapturedSegments().get(2).getData();
+        int pos = indexOf(jpeg, "hello".getBytes("ASCII"));
+        jpeg[pos] = 'j';
+        assertEquals('j', comment.get(0));
+
+        // the pixel data must be identical for all input types
+        byte[] ref = decode(streamDecoder);
+        assertArrayEquals(ref, decode(bufferDecoder));
+        assertArrayEquals(ref, decode(directDecoder));
+    }
+
+    @Test
+    public void testNoCapture() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(16, 16), null, 0.9f);
+        jpeg = TestImages.insertSegment(jpeg, JPEGSegment.COM, "hello".getBytes("ASCII"));
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.decodeHeader();
+        assertTrue(decoder.getCapturedSegments().isEmpty());
+        assertNull(decoder.getICCProfile());
+    }
+
+    private static byte[] decode(JPEGDecoder decoder) throws Exception {
+        decoder.startDecode();
+        ByteBuffer dst = ByteBuffer.allocate(decoder.getImageWidth() * decoder.getImageHeight() * 4);
+        decoder.decode(dst, decoder.getImageWidth() * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        return dst.array();
+    }
+
+    private static byte[] createICCChunk(byte[] profile, int off, int len, int seqNo, int count) {
+        byte[] chunk = new byte[14 + len];
+        byte[] id = "ICC_PROFILE".getBytes();
+        System.arraycopy(id, 0, chunk, 0, id.length);
+        chunk[12] = (byte)seqNo;
+        chunk[13] = (byte)count;
+        System.arraycopy(profile, off, chunk, 14, len);
+        return chunk;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer: for(int i=0 ; i<=data.length-pattern.length ; i++) {
+            for(int j=0 ; j<pattern.length ; j++) {
+                if(data[i+j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
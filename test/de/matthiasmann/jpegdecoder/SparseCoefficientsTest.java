@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the sparse coefficients match the dense DCT coefficients.
+ *
+ * @author Matthias Mann
+ */
+public class SparseCoefficientsTest {
+
+    public SparseCoefficientsTest() {
+    }
+
+    @Test
+    public void testSparse420() throws Exception {
+        checkSparse(new int[][] {{2,2}, {1,1}, {1,1}});
+    }
+
+    @Test
+    public void testSparse444() throws Exception {
+        checkSparse(new int[][] {{1,1}, {1,1}, {1,1}});
+    }
+
+    private static void checkSparse(int[][] samplingFactors) throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(123, 77), samplingFactors, 0.75f);
+
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        final int mcuCountX = decoder.getNumMCUColumns();
+        final int mcuCountY = decoder.getNumMCURows();
+        final int numComps = decoder.getNumComponents();
+        ShortBuffer[] dense = new ShortBuffer[numComps];
+        int[] blocksPerLine = new int[numComps];
+        long denseBytes = 0;
+        for(int i=0 ; i<numComps ; i++) {
+            Component c = decoder.getComponent(i);
+            blocksPerLine[i] = c.getBlocksPerMCUHorz() * mcuCountX;
+            dense[i] = ShortBuffer.allocate(64 * blocksPerLine[i] * c.getBlocksPerMCUVert() * mcuCountY);
+            denseBytes += dense[i].capacity() * 2L;
+        }
+        decoder.decodeDCTCoeffs(dense, mcuCountY);
+
+        decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        SparseCoefficients sparse = new SparseCoefficients();
+        long sparseBytes = 0;
+        // decode the first row separately to check the row offset
+        for(int startRow=0,numRows=1 ; startRow<mcuCountY ; startRow+=numRows,numRows=mcuCountY-1) {
+            decoder.decodeSparseCoeffs(sparse, numRows);
+            assertEquals(startRow, sparse.getStartMCURow());
+            sparseBytes += sparse.getSizeInBytes();
+
+            for(int compIdx=0 ; compIdx<numComps ; compIdx++) {
+                Component c = decoder.getComponent(compIdx);
+                int blocks = 0;
+                short[] block = new short[64];
+                SparseCoefficients.BlockIterator iter = sparse.iterator(compIdx);
+                while(iter.next()) {
+                    Arrays.fill(block, (short)0);
+                    int eob = 0;
+                    for(int i=0 ; i<iter.getNumCoefficients() ; i++) {
+                        int zz = iter.getZigZagIndex(i);
+                        assertTrue(zz >= eob);
+                        assertTrue(iter.getValue(i) != 0);
+                        block[JPEGDecoder.dezigzag[zz]] = (short)iter.getValue(i);
+                        eob = zz + 1;
+                    }
+                    assertEquals(eob, iter.getEndOfBlock());
+
+                    int bx = iter.getBlockX();
+                    int by = iter.getBlockY();
+                    assertTrue(by >= startRow * c.getBlocksPerMCUVert());
+                    short[] expected = new short[64];
+                    dense[compIdx].position(64 * (by * blocksPerLine[compIdx] + bx));
+                    dense[compIdx].get(expected);
+                    assertArrayEquals(expected, block);
+                    blocks++;
+                }
+                assertEquals(sparse.getNumBlocks(compIdx), blocks);
+                assertEquals(numRows * mcuCountX * c.getBlocksPerMCUHorz() * c.getBlocksPerMCUVert(), blocks);
+            }
+        }
+        assertFalse(decoder.startDecode());
+        assertTrue(sparseBytes * 4 < denseBytes);
+    }
+}
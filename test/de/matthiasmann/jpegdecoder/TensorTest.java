@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the float tensor output against the RGBA output.
+ *
+ * @author Matthias Mann
+ */
+public class TensorTest {
+
+    private static final int WIDTH = 123;
+    private static final int HEIGHT = 77;
+    private static final float[] MEAN = { 0.485f, 0.456f, 0.406f };
+    private static final float[] STD = { 0.229f, 0.224f, 0.225f };
+
+    public TensorTest() {
+    }
+
+    @Test
+    public void testCHW() throws Exception {
+        checkTensor(TensorFormat.Layout.CHW, UpsamplingMode.FANCY);
+    }
+
+    @Test
+    public void testHWC() throws Exception {
+        checkTensor(TensorFormat.Layout.HWC, UpsamplingMode.FANCY);
+    }
+
+    @Test
+    public void testReplicate() throws Exception {
+        checkTensor(TensorFormat.Layout.CHW, UpsamplingMode.REPLICATE);
+    }
+
+    @Test
+    public void testUnitRange() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(WIDTH, HEIGHT), null, 0.9f);
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        float[] tensor = new float[3 * WIDTH * HEIGHT];
+        decoder.decodeTensor(FloatBuffer.wrap(tensor), new TensorFormat(TensorFormat.Layout.HWC));
+        byte[] rgba = decodeRGBA(jpeg, UpsamplingMode.FANCY);
+        for(int i=0 ; i<WIDTH*HEIGHT ; i++) {
+            for(int ch=0 ; ch<3 ; ch++) {
+                assertEquals((rgba[i*4 + ch] & 255) / 255f, tensor[i*3 + ch], 1e-6f);
+            }
+        }
+    }
+
+    private static void checkTensor(TensorFormat.Layout layout, UpsamplingMode upsampling) throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(WIDTH, HEIGHT), new int[][] {{2,2}, {1,1}, {1,1}}, 0.9f);
+        byte[] rgba = decodeRGBA(jpeg, upsampling);
+
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.setUpsamplingMode(upsampling);
+        assertTrue(decoder.startDecode());
+        FloatBuffer tensor = FloatBuffer.allocate(5 + 3 * WIDTH * HEIGHT);
+        tensor.position(5);
+        decoder.decodeTensor(tensor, new TensorFormat(layout, MEAN, STD));
+        assertEquals(tensor.capacity(), tensor.position());
+        assertFalse(decoder.startDecode());
+
+        for(int y=0 ; y<HEIGHT ; y++) {
+            for(int x=0 ; x<WIDTH ; x++) {
+                for(int ch=0 ; ch<3 ; ch++) {
+                    int idx = (layout == TensorFormat.Layout.CHW) ?
+                            (ch * HEIGHT + y) * WIDTH + x :
+                            (y * WIDTH + x) * 3 + ch;
+                    float expected = ((rgba[(y*WIDTH + x)*4 + ch] & 255) / 255f - MEAN[ch]) / STD[ch];
+                    assertEquals(expected, tensor.get(5 + idx), 1e-5f);
+                }
+            }
+        }
+    }
+
+    private static byte[] decodeRGBA(byte[] jpeg, UpsamplingMode upsampling) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        decoder.setUpsamplingMode(upsampling);
+        assertTrue(decoder.startDecode());
+        ByteBuffer dst = ByteBuffer.allocate(WIDTH * HEIGHT * 4);
+        decoder.decode(dst, WIDTH * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        return dst.array();
+    }
+}
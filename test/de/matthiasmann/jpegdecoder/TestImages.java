@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageOutputStream;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Creates JPEG test images with the ImageIO JPEG encoder
+ *
+ * @author Matthias Mann
+ */
+public class TestImages {
+
+    private static final String JPEG_METADATA = "javax_imageio_jpeg_image_1.0";
+
+    private TestImages() {
+    }
+
+    /**
+     * Creates a smooth RGB test pattern
+     *
+     * @param width the width of the image
+     * @param height the height of the image
+     * @return the image
+     */
+    public static BufferedImage createPattern(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for(int y=0 ; y<height ; y++) {
+            for(int x=0 ; x<width ; x++) {
+                int r = (x * 255) / Math.max(1, width - 1);
+                int g = (y * 255) / Math.max(1, height - 1);
+                int b = (int)(128 + 100 * Math.sin(x * 0.05) * Math.cos(y * 0.07));
+                img.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Encodes an image as baseline JPEG
+     *
+     * @param img the image to encode
+     * @param samplingFactors the H and V sampling factors for each component or null for the default
+     * @param quality the JPEG quality from 0 to 1
+     * @return the JPEG data
+     * @throws IOException if the image could not be encoded
+     */
+    public static byte[] encode(BufferedImage img, int[][] samplingFactors, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(img), param);
+            if(samplingFactors != null) {
+                Element root = (Element)metadata.getAsTree(JPEG_METADATA);
+                NodeList specs = root.getElementsByTagName("componentSpec");
+                for(int i=0 ; i<specs.getLength() ; i++) {
+                    Element spec = (Element)specs.item(i);
+                    spec.setAttribute("HsamplingFactor", Integer.toString(samplingFactors[i][0]));
+                    spec.setAttribute("VsamplingFactor", Integer.toString(samplingFactors[i][1]));
+                }
+                metadata.setFromTree(JPEG_METADATA, root);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ImageOutputStream ios = ImageIO.createImageOutputStream(baos);
+            try {
+                writer.setOutput(ios);
+                writer.write(null, new IIOImage(img, null, metadata), param);
+            } finally {
+                ios.close();
+            }
+            return baos.toByteArray();
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Inserts a marker segment directly after the SOI marker
+     *
+     * @param jpeg the JPEG data
+     * @param marker the marker code, eg 0xE1 for APP1
+     * @param payload the segment payload without the length field
+     * @return the new JPEG data
+     */
+    public static byte[] insertSegment(byte[] jpeg, int marker, byte[] payload) {
+        byte[] result = new byte[jpeg.length + payload.length + 4];
+        result[0] = jpeg[0];
+        result[1] = jpeg[1];
+        result[2] = (byte)0xFF;
+        result[3] = (byte)marker;
+        result[4] = (byte)((payload.length + 2) >> 8);
+        result[5] = (byte)(payload.length + 2);
+        System.arraycopy(payload, 0, result, 6, payload.length);
+        System.arraycopy(jpeg, 2, result, 6 + payload.length, jpeg.length - 2);
+        return result;
+    }
+
+    /**
+     * Creates the payload of an EXIF APP1 segment
+     *
+     * @param orientation the EXIF orientation
+     * @param bigEndian true for Motorola byte order, false for Intel byte order
+     * @param thumbnail the JPEG thumbnail data or null
+     * @return the segment payload
+     */
+    public static byte[] createExif(int orientation, boolean bigEndian, byte[] thumbnail) {
+        int ifd1 = 8 + 2 + 12 + 4;
+        int thumbnailOffset = ifd1 + 2 + 2*12 + 4;
+        int thumbnailLength = (thumbnail != null) ? thumbnail.length : 0;
+        byte[] exif = new byte[6 + thumbnailOffset + thumbnailLength];
+        exif[0] = 'E';
+        exif[1] = 'x';
+        exif[2] = 'i';
+        exif[3] = 'f';
+        ByteBuffer bb = ByteBuffer.wrap(exif, 6, exif.length - 6).slice();
+        bb.order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        bb.put((byte)(bigEndian ? 'M' : 'I')).put((byte)(bigEndian ? 'M' : 'I'));
+        bb.putShort((short)42).putInt(8);
+        bb.putShort((short)1);
+        bb.putShort((short)0x0112).putShort((short)3).putInt(1).putShort((short)orientation).putShort((short)0);
+        if(thumbnail != null) {
+            bb.putInt(ifd1);
+            bb.putShort((short)2);
+            bb.putShort((short)0x0201).putShort((short)4).putInt(1).putInt(thumbnailOffset);
+            bb.putShort((short)0x0202).putShort((short)4).putInt(1).putInt(thumbnailLength);
+            bb.putInt(0);
+            bb.put(thumbnail);
+        } else {
+            bb.putInt(0);
+        }
+        return exif;
+    }
+}
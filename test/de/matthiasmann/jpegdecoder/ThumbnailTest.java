@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the access to the EXIF thumbnail.
+ *
+ * @author Matthias Mann
+ */
+public class ThumbnailTest {
+
+    public ThumbnailTest() {
+    }
+
+    @Test
+    public void testThumbnail() throws Exception {
+        byte[] thumbnail = TestImages.encode(TestImages.createPattern(160, 120), null, 0.8f);
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(640, 480), null, 0.8f);
+        for(boolean bigEndian : new boolean[] { false, true }) {
+            byte[] withExif = TestImages.insertSegment(jpeg, 0xE1, TestImages.createExif(6, bigEndian, thumbnail));
+
+            JPEGDecoder streamDecoder = new JPEGDecoder(new ByteArrayInputStream(withExif));
+            JPEGDecoder bufferDecoder = new JPEGDecoder(ByteBuffer.wrap(withExif));
+            for(JPEGDecoder decoder : new JPEGDecoder[] { streamDecoder, bufferDecoder }) {
+                decoder.decodeHeader();
+                assertTrue(decoder.hasExifThumbnail());
+                assertEquals(6, decoder.getExifOrientation());
+
+                JPEGDecoder thumbDecoder = decoder.createThumbnailDecoder();
+                thumbDecoder.decodeHeader();
+                assertEquals(160, thumbDecoder.getImageWidth());
+                assertEquals(120, thumbDecoder.getImageHeight());
+                assertArrayEquals(decode(new JPEGDecoder(ByteBuffer.wrap(thumbnail))), decode(thumbDecoder));
+
+                assertNotSame(decoder, decoder.getPreviewDecoder(100, 100));
+                assertEquals(160, decoder.getPreviewDecoder(160, 120).getImageWidth());
+                assertSame(decoder, decoder.getPreviewDecoder(200, 100));
+            }
+
+            // the full image is still decodable after the thumbnail
+            assertArrayEquals(decode(new JPEGDecoder(ByteBuffer.wrap(jpeg))), decode(streamDecoder));
+        }
+    }
+
+    @Test
+    public void testNoThumbnail() throws Exception {
+        byte[] jpeg = TestImages.encode(TestImages.createPattern(64, 48), null, 0.8f);
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(
+                TestImages.insertSegment(jpeg, 0xE1, TestImages.createExif(1, false, null))));
+        decoder.decodeHeader();
+        assertFalse(decoder.hasExifThumbnail());
+        assertNull(decoder.createThumbnailDecoder());
+        assertSame(decoder, decoder.getPreviewDecoder(16, 16));
+    }
+
+    private static byte[] decode(JPEGDecoder decoder) throws Exception {
+        decoder.startDecode();
+        ByteBuffer dst = ByteBuffer.allocate(decoder.getImageWidth() * decoder.getImageHeight() * 4);
+        decoder.decode(dst, decoder.getImageWidth() * 4, decoder.getNumMCURows(), YUVtoRGBA.instance);
+        return dst.array();
+    }
+}
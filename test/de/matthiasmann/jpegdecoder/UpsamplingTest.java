@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Decodes images with every luma sampling factor the ImageIO encoder can
+ * produce and compares the result against the ImageIO decoder.
+ *
+ * @author Matthias Mann
+ */
+public class UpsamplingTest {
+
+    public UpsamplingTest() {
+    }
+
+    @Test
+    public void testLumaSamplingFactors() throws Exception {
+        for(int h=1 ; h<=4 ; h++) {
+            for(int v=1 ; v<=4 ; v++) {
+                if(h*v + 2 <= 10) { // max 10 blocks per MCU
+                    check(new int[][] {{h,v}, {1,1}, {1,1}});
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMixedSamplingFactors() throws Exception {
+        check(new int[][] {{2,2}, {1,2}, {2,1}});
+        check(new int[][] {{1,1}, {2,2}, {2,2}});
+        check(new int[][] {{4,1}, {2,1}, {1,1}});
+        check(new int[][] {{2,3}, {1,3}, {1,1}});
+    }
+
+    private static void check(int[][] samplingFactors) throws Exception {
+        BufferedImage src = TestImages.createPattern(101, 77);
+        byte[] jpeg = TestImages.encode(src, samplingFactors, 0.95f);
+        BufferedImage ref = ImageIO.read(new ByteArrayInputStream(jpeg));
+
+        for(UpsamplingMode mode : UpsamplingMode.values()) {
+            String name = mode + " " + samplingFactors[0][0] + "x" + samplingFactors[0][1] + " " +
+                    samplingFactors[1][0] + "x" + samplingFactors[1][1] + " " +
+                    samplingFactors[2][0] + "x" + samplingFactors[2][1];
+
+            JPEGDecoder decoder = new JPEGDecoder(new ByteArrayInputStream(jpeg));
+            decoder.setUpsamplingMode(mode);
+            decoder.decodeHeader();
+            for(int i=0 ; i<3 ; i++) {
+                assertEquals(name, samplingFactors[i][0], decoder.getComponent(i).getBlocksPerMCUHorz());
+                assertEquals(name, samplingFactors[i][1], decoder.getComponent(i).getBlocksPerMCUVert());
+            }
+            assertTrue(name, decoder.startDecode());
+
+            int width = decoder.getImageWidth();
+            int height = decoder.getImageHeight();
+            ByteBuffer buf = ByteBuffer.allocate(width * height * 3);
+            decoder.decode(buf, width * 3, decoder.getNumMCURows(), YUVtoRGB.instance);
+            assertEquals(name, buf.capacity(), buf.position());
+
+            long sumErr = 0;
+            int maxErr = 0;
+            for(int y=0 ; y<height ; y++) {
+                for(int x=0 ; x<width ; x++) {
+                    int rgb = ref.getRGB(x, y);
+                    for(int c=0 ; c<3 ; c++) {
+                        int err = Math.abs(((rgb >> (16 - 8*c)) & 255) - (buf.get((y*width + x)*3 + c) & 255));
+                        sumErr += err;
+                        maxErr = Math.max(maxErr, err);
+                    }
+                }
+            }
+            assertTrue(name + " mean error", sumErr < width * height * 3 * 3 / 2);
+            assertTrue(name + " max error " + maxErr, maxErr <= 10);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2008-2014, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.jpegdecoder;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the I420 and NV12 output with the component planes from
+ * {@link JPEGDecoder#decodeRAW(java.nio.ByteBuffer[], int[], int) }.
+ *
+ * @author Matthias Mann
+ */
+public class YUV420Test {
+
+    public YUV420Test() {
+    }
+
+    @Test
+    public void testColor() throws Exception {
+        for(int[][] samplingFactors : new int[][][] {
+                {{2,2}, {1,1}, {1,1}},
+                {{1,1}, {1,1}, {1,1}},
+                {{2,1}, {1,1}, {1,1}},
+                {{1,2}, {1,1}, {1,1}}}) {
+            check(TestImages.encode(TestImages.createPattern(45, 31), samplingFactors, 0.9f));
+            check(TestImages.encode(TestImages.createPattern(64, 48), samplingFactors, 0.9f));
+        }
+    }
+
+    @Test
+    public void testGray() throws Exception {
+        BufferedImage img = new BufferedImage(45, 31, BufferedImage.TYPE_BYTE_GRAY);
+        img.getGraphics().drawImage(TestImages.createPattern(45, 31), 0, 0, null);
+        check(TestImages.encode(img, null, 0.9f));
+    }
+
+    private static void check(byte[] jpeg) throws Exception {
+        JPEGDecoder decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        final int width = decoder.getImageWidth();
+        final int height = decoder.getImageHeight();
+        final int numComps = decoder.getNumComponents();
+        final int numMCURows = decoder.getNumMCURows();
+
+        ByteBuffer[] raw = new ByteBuffer[numComps];
+        int[] rawStrides = new int[numComps];
+        for(int i=0 ; i<numComps ; i++) {
+            Component c = decoder.getComponent(i);
+            rawStrides[i] = c.getMinReqWidth();
+            raw[i] = ByteBuffer.allocate(c.getMinReqWidth() * c.getMinReqHeight());
+        }
+        decoder.decodeRAW(raw, rawStrides, numMCURows);
+
+        final int widthUV = (width + 1) / 2;
+        final int heightUV = (height + 1) / 2;
+        final int strideY = width + 3;
+        final int strideUV = widthUV + 5;
+
+        decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        ByteBuffer y = ByteBuffer.allocate(strideY * height);
+        ByteBuffer u = ByteBuffer.allocate(strideUV * heightUV);
+        ByteBuffer v = ByteBuffer.allocate(strideUV * heightUV);
+        decoder.decodeI420(y, strideY, u, v, strideUV, 1);
+        assertEquals(strideY * decoder.getMCURowHeight(), y.position());
+        assertEquals(strideUV * decoder.getMCURowHeight() / 2, u.position());
+        assertEquals(u.position(), v.position());
+        decoder.decodeI420(y, strideY, u, v, strideUV, numMCURows - 1);
+        assertFalse(y.hasRemaining());
+        assertFalse(u.hasRemaining());
+        assertFalse(v.hasRemaining());
+
+        for(int row=0 ; row<height ; row++) {
+            for(int col=0 ; col<width ; col++) {
+                assertEquals(raw[0].get(row*rawStrides[0] + col), y.get(row*strideY + col));
+            }
+        }
+
+        for(int row=0 ; row<heightUV ; row++) {
+            for(int col=0 ; col<widthUV ; col++) {
+                int expectedU = 128;
+                int expectedV = 128;
+                if(numComps == 3) {
+                    expectedU = downsample(decoder, raw, rawStrides, 1, col, row);
+                    expectedV = downsample(decoder, raw, rawStrides, 2, col, row);
+                }
+                assertEquals(expectedU, u.get(row*strideUV + col) & 255);
+                assertEquals(expectedV, v.get(row*strideUV + col) & 255);
+            }
+        }
+
+        decoder = new JPEGDecoder(ByteBuffer.wrap(jpeg));
+        assertTrue(decoder.startDecode());
+        ByteBuffer y2 = ByteBuffer.allocate(strideY * height);
+        ByteBuffer uv = ByteBuffer.allocate(2 * strideUV * heightUV);
+        decoder.decodeNV12(y2, strideY, uv, 2 * strideUV, numMCURows);
+        assertFalse(uv.hasRemaining());
+        assertArrayEquals(y.array(), y2.array());
+        for(int row=0 ; row<heightUV ; row++) {
+            for(int col=0 ; col<widthUV ; col++) {
+                assertEquals(u.get(row*strideUV + col), uv.get(row*2*strideUV + col*2));
+                assertEquals(v.get(row*strideUV + col), uv.get(row*2*strideUV + col*2 + 1));
+            }
+        }
+    }
+
+    /**
+     * Computes a U or V sample as the box average of the component samples
+     * which cover the 2x2 image pixels.
+     */
+    private static int downsample(JPEGDecoder decoder, ByteBuffer[] raw, int[] rawStrides, int compIdx, int col, int row) {
+        Component luma = decoder.getComponent(0);
+        Component c = decoder.getComponent(compIdx);
+        int hMax = Math.max(luma.getBlocksPerMCUHorz(), c.getBlocksPerMCUHorz());
+        int vMax = Math.max(luma.getBlocksPerMCUVert(), c.getBlocksPerMCUVert());
+        int h = c.getBlocksPerMCUHorz();
+        int v = c.getBlocksPerMCUVert();
+        int x0 = (2*col * h) / hMax;
+        int x1 = ((2*col + 1) * h) / hMax;
+        int y0 = (2*row * v) / vMax;
+        int y1 = ((2*row + 1) * v) / vMax;
+        ByteBuffer in = raw[compIdx];
+        int stride = rawStrides[compIdx];
+        int p00 = in.get(y0*stride + x0) & 255;
+        int p01 = in.get(y0*stride + x1) & 255;
+        int p10 = in.get(y1*stride + x0) & 255;
+        int p11 = in.get(y1*stride + x1) & 255;
+        if(2*h == hMax) {
+            return (p00 + p10 + 1) >> 1;
+        }
+        return (p00 + p01 + p10 + p11 + 2) >> 2;
+    }
+}